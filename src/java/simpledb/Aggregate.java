@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
@@ -30,6 +32,23 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, false);
+    }
+
+    /**
+     * Constructor for an aggregate that may stream its groups.
+     * <p>
+     * If the child is known to produce tuples ordered (ascending or
+     * descending) on the group-by field, each group is complete as soon as
+     * the group value changes, so the aggregate can emit it right away
+     * instead of hashing the whole input first. Only one group is held in
+     * memory at a time.
+     *
+     * @param childOrdered
+     *            true if the child's tuples arrive ordered on gfield; ignored
+     *            if there is no grouping
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, boolean childOrdered) {
 	// some code goes here
         this.afield=afield;
         this.child=child;
@@ -41,10 +60,12 @@ public class Aggregate extends Operator {
         else
             type=child.getTupleDesc().getFieldType(gfield);
 
-        if(child.getTupleDesc().getFieldType(afield)==Type.INT_TYPE)
-            aggregator=new IntegerAggregator(gfield,type,afield,aop);
-        else
-            aggregator=new StringAggregator(gfield,type,afield,aop);
+        //有分组且输入已按分组列有序时，采用流式聚合
+        streaming=childOrdered&&gfield!=Aggregator.NO_GROUPING;
+        //子节点是Gather时，每个分区在工作线程上各自聚合，最后合并部分结果
+        parallel=!streaming&&child instanceof Gather;
+
+        aggregator=newAggregator();
 
 
     }
@@ -55,6 +76,33 @@ public class Aggregate extends Operator {
     private Aggregator aggregator;
     private OpIterator iterator;
     private Type type;
+    private boolean streaming;
+    private boolean parallel;
+    //流式模式下，读到的下一组的第一个tuple
+    private Tuple lookahead;
+
+    private Aggregator newAggregator() {
+        if(child.getTupleDesc().getFieldType(afield)==Type.INT_TYPE)
+            return new IntegerAggregator(gfield,type,afield,aop);
+        else
+            return new StringAggregator(gfield,type,afield,aop);
+    }
+
+    /**
+     * @return true if this aggregate emits each group as soon as the group
+     *         value changes, rather than hashing all of its input first
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @return true if the child is a {@link Gather} whose partitions are
+     *         aggregated on separate worker threads and merged afterwards
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
@@ -122,7 +170,18 @@ public class Aggregate extends Operator {
 
 
         super.open();
+        aggregator=newAggregator();
+        if(parallel){
+            aggregatePartitions(((Gather)child).getChildren());
+            iterator=aggregator.iterator();
+            iterator.open();
+            return;
+        }
         child.open();
+        if(streaming){
+            lookahead=null;
+            return;
+        }
         while (child.hasNext()){
             Tuple t=child.next();
             //System.out.println(t);
@@ -133,6 +192,53 @@ public class Aggregate extends Operator {
         child.close();
     }
 
+    /**
+     * First phase of a parallel aggregate: each partition is drained into its
+     * own aggregator on the database worker pool. The second phase merges the
+     * partial aggregators into this operator's aggregator on the calling
+     * thread. Every partition is waited for, even after a failure, so that
+     * all of them are closed when this method returns.
+     */
+    private void aggregatePartitions(OpIterator[] partitions)
+            throws DbException, TransactionAbortedException {
+        List<Future<Aggregator>> partials=new ArrayList<>();
+        for(OpIterator partition:partitions){
+            partials.add(Database.getWorkerPool().submit(()->{
+                Aggregator partial=newAggregator();
+                partition.open();
+                try {
+                    while (partition.hasNext())
+                        partial.mergeTupleIntoGroup(partition.next());
+                } finally {
+                    partition.close();
+                }
+                return partial;
+            }));
+        }
+
+        Throwable failure=null;
+        for(Future<Aggregator> f:partials){
+            try {
+                Aggregator partial=f.get();
+                if(failure==null)
+                    aggregator.mergePartial(partial);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if(failure==null)
+                    failure=e;
+            } catch (ExecutionException e) {
+                if(failure==null)
+                    failure=e.getCause();
+            }
+        }
+        if(failure instanceof TransactionAbortedException)
+            throw (TransactionAbortedException)failure;
+        if(failure instanceof DbException)
+            throw (DbException)failure;
+        if(failure!=null)
+            throw new DbException("parallel aggregate failed: "+failure);
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -142,14 +248,54 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
+        if(streaming)
+            return fetchNextGroup();
         if(!iterator.hasNext())
             return null;
         return iterator.next();
 	//return null;
     }
 
+    /**
+     * Reads the child up to the next change of the group-by value and returns
+     * the aggregate of that group. The first tuple of the following group is
+     * kept in lookahead for the next call.
+     */
+    private Tuple fetchNextGroup() throws TransactionAbortedException, DbException {
+        if(lookahead==null){
+            if(!child.hasNext())
+                return null;
+            lookahead=child.next();
+        }
+
+        Aggregator groupAggregator=newAggregator();
+        Field groupValue=lookahead.getField(gfield);
+        groupAggregator.mergeTupleIntoGroup(lookahead);
+        lookahead=null;
+
+        while (child.hasNext()){
+            Tuple t=child.next();
+            if(!t.getField(gfield).equals(groupValue)){
+                lookahead=t;
+                break;
+            }
+            groupAggregator.mergeTupleIntoGroup(t);
+        }
+
+        OpIterator groupIterator=groupAggregator.iterator();
+        groupIterator.open();
+        Tuple result=groupIterator.next();
+        groupIterator.close();
+        return result;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
+        if(streaming){
+            child.rewind();
+            lookahead=null;
+            return;
+        }
 
        iterator.rewind();
     }
@@ -186,6 +332,11 @@ public class Aggregate extends Operator {
 	// some code goes here
         //child.close();
         super.close();
+        if(streaming){
+            child.close();
+            lookahead=null;
+            return;
+        }
         iterator.close();
     }
 
@@ -81,5 +81,16 @@ public interface Aggregator extends Serializable {
      * @see simpledb.TupleIterator for a possible helper
      */
     public OpIterator iterator();
+
+    /**
+     * Merge the partial results of another aggregator into this one, as if
+     * every tuple merged into other had been merged into this aggregator.
+     * Both aggregators must have the same group-by field, aggregate field
+     * and operator. This lets several threads aggregate disjoint parts of
+     * the input independently and combine their results afterwards.
+     *
+     * @param other an aggregator over a disjoint part of the input
+     */
+    public void mergePartial(Aggregator other);
     
 }
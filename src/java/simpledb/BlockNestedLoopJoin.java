@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin is a nested-loops join that reads its outer input a
+ * block of tuples at a time and compares every inner tuple with the whole
+ * block, so that the inner input is read once per block rather than once per
+ * outer tuple. It works for any join predicate.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of outer tuples in a block */
+    public final static int BLOCK_SIZE = 20000;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final int blockSize;
+    private TupleDesc comboTD;
+    private transient ArrayList<Tuple> block;
+    /** the current inner tuple, and the position in the block of the next outer tuple to compare it with */
+    private transient Tuple t2;
+    private transient int pos;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left (outer) relation to join
+     * @param child2
+     *            Iterator for the right (inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param blockSize
+     *            The number of outer tuples kept in memory at a time
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1,
+            OpIterator child2, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block size must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockSize = blockSize;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /** Reads the next block of outer tuples; @return false if there are none */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockSize && child1.hasNext())
+            block.add(child1.next());
+        t2 = null;
+        return !block.isEmpty();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        block = new ArrayList<Tuple>();
+        loadBlock();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        block = null;
+        t2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        loadBlock();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As in {@link Join}, a result is the concatenation of the
+     * outer and the inner tuple; results come out in the order of the inner
+     * tuples within each block.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (!block.isEmpty()) {
+            if (t2 != null) {
+                while (pos < block.size()) {
+                    Tuple t1 = block.get(pos++);
+                    if (pred.filter(t1, t2))
+                        return merge(t1, t2);
+                }
+                t2 = null;
+            }
+            if (child2.hasNext()) {
+                t2 = child2.next();
+                pos = 0;
+            } else if (loadBlock()) {
+                // the inner side is read again for the next block
+                child2.rewind();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BloomFilter is a compact, approximate set of Fields. It never reports a
+ * field that was added as missing, but may report a field that was never
+ * added as present, with a probability set at construction time.
+ * <p>
+ * Hash joins publish a BloomFilter of their build-side keys to the scan on
+ * their probe side (see {@link SeqScan#setRuntimeFilter}), so that probe
+ * tuples that cannot match are dropped before they leave the scan.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** False positive rate used when none is given */
+    public static final double DEFAULT_FPP = 0.01;
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Creates a filter sized for the given number of distinct fields at the
+     * default false positive rate.
+     */
+    public BloomFilter(int expectedItems) {
+        this(expectedItems, DEFAULT_FPP);
+    }
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedItems
+     *            the number of distinct fields that will be added
+     * @param fpp
+     *            the desired probability of a false positive once
+     *            expectedItems fields have been added
+     */
+    public BloomFilter(int expectedItems, double fpp) {
+        int n = Math.max(expectedItems, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        this.bits = new long[(int) ((m + 63) / 64)];
+        this.numBits = bits.length * 64;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    /** Final mixing step of MurmurHash3, so that nearby values spread out */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** Sets or tests the numHashes bits of f, using double hashing */
+    private boolean probe(Field f, boolean set) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1 ^ 0x9E3779B9) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = (int) Math.floorMod((long) h1 + (long) i * h2, (long) numBits);
+            long mask = 1L << (bit & 63);
+            if (set)
+                bits[bit >>> 6] |= mask;
+            else if ((bits[bit >>> 6] & mask) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** Adds a field to the filter. */
+    public void add(Field f) {
+        probe(f, true);
+    }
+
+    /**
+     * @return false if f was certainly never added, true if it may have been
+     */
+    public boolean mightContain(Field f) {
+        return probe(f, false);
+    }
+
+    /**
+     * @return the size of the filter in bits
+     */
+    public int numBits() {
+        return numBits;
+    }
+}
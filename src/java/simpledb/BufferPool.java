@@ -5,7 +5,11 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -51,6 +55,10 @@ public class BufferPool {
 
     private ConcurrentHashMap<PageId, Page> pageHashMap;
     private ConcurrentHashMap<PageId,Integer>pageRefCount;
+    //每个事务修改过的表及其插入删除的元组，提交时据此增加表的版本号、更新统计信息
+    private ConcurrentHashMap<TransactionId,Map<Integer,TableStats.Delta>>modifiedTables=new ConcurrentHashMap<>();
+    //表的版本号，每次有修改该表的事务提交时加一；为静态的，重置BufferPool后也不会回退
+    private static final ConcurrentHashMap<Integer,AtomicLong>tableVersions=new ConcurrentHashMap<>();
     private int numPages;
     PageLockManager pageLockManager;
 
@@ -71,6 +79,34 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Returns the modification counter of a table, which is incremented
+     * every time a transaction that inserted into or deleted from the table
+     * commits. Counters are never reset, so a result computed while a table
+     * had a given version is still valid as long as the version is the same.
+     *
+     * @param tableId the table
+     * @return the number of committed transactions that modified the table
+     */
+    public static long getTableVersion(int tableId) {
+        AtomicLong v = tableVersions.get(tableId);
+        return v == null ? 0 : v.get();
+    }
+
+    /**
+     * @return true if transaction tid has inserted into or deleted from the
+     *         table and has not completed yet
+     */
+    public boolean hasModified(TransactionId tid, int tableId) {
+        Map<Integer, TableStats.Delta> tables = modifiedTables.get(tid);
+        return tables != null && tables.containsKey(tableId);
+    }
+
+    private TableStats.Delta recordModification(TransactionId tid, int tableId) {
+        return modifiedTables.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tableId, k -> new TableStats.Delta());
+    }
+
     private static class PageLock {
         TransactionId tid;
         int lockType;//0 is shared lock, 1 is exclusive lock
@@ -89,6 +125,12 @@ public class BufferPool {
          */
         ConcurrentHashMap<TransactionId, ArrayList<TransactionId>> dependencyMap;
 
+        /*等待锁的事务在released上park，而不是忙等；
+        用ReentrantLock/Condition而不是synchronized+wait，等待时不会占住载体线程
+         */
+        private final ReentrantLock waitLatch = new ReentrantLock();
+        private final Condition released = waitLatch.newCondition();
+
         public PageLockManager() {
             pageLocks = new ConcurrentHashMap<>();
             dependencyMap = new ConcurrentHashMap<>();
@@ -246,7 +288,43 @@ public class BufferPool {
             return false;
         }
 
-        public synchronized void releaseLock(PageId pid, TransactionId tid) {
+        /**
+         * Blocks until tid holds the requested lock on pid, or until
+         * timeoutMillis have passed. The waiting thread is parked between
+         * attempts and woken whenever some lock is released.
+         *
+         * @return true if the lock was acquired, false on timeout
+         */
+        public boolean waitForLock(PageId pid, TransactionId tid, int lockType, long timeoutMillis)
+                throws InterruptedException {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            //持有waitLatch时尝试加锁，释放者必须拿到waitLatch才能signal，不会丢失唤醒
+            waitLatch.lock();
+            try {
+                while (!acquireLock(pid, tid, lockType)) {
+                    if (remaining <= 0)
+                        return false;
+                    remaining = released.awaitNanos(remaining);
+                }
+                return true;
+            } finally {
+                waitLatch.unlock();
+            }
+        }
+
+        public void releaseLock(PageId pid, TransactionId tid) {
+            //先在管程外移除锁，再唤醒等待者，避免和waitForLock的加锁顺序相反
+            if (removeLock(pid, tid)) {
+                waitLatch.lock();
+                try {
+                    released.signalAll();
+                } finally {
+                    waitLatch.unlock();
+                }
+            }
+        }
+
+        private synchronized boolean removeLock(PageId pid, TransactionId tid) {
             //release the lock by tid on pid
             if (pageLocks.containsKey(pid)) {
                 ArrayList<PageLock> locks = pageLocks.get(pid);
@@ -256,10 +334,11 @@ public class BufferPool {
                         if (locks.size() == 0) {
                             pageLocks.remove(pid);
                         }
-                        return;
+                        return true;
                     }
                 }
             }
+            return false;
         }
 
         public synchronized boolean holdsLock(PageId pid, TransactionId tid) {
@@ -313,15 +392,19 @@ public class BufferPool {
         }*/
 
         /*超时策略判断死锁*/
-        long startTime=System.currentTimeMillis();
-        long timeout = new Random().nextInt(2000) + 2000;
-        while (!canGetLock){
-            //如果tid没有获得pid的锁，那么就要等待
-            if(System.currentTimeMillis()-startTime>=timeout){
+        if(!canGetLock){
+            //如果tid没有获得pid的锁，那么就park等待锁释放
+            long timeout = new Random().nextInt(2000) + 2000;
+            try {
+                canGetLock=pageLockManager.waitForLock(pid, tid, lockType, timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+            if(!canGetLock){
                 //如果超时没获得锁，那么抛出死锁异常，由上层程序捕获并回滚
                 throw new TransactionAbortedException();
             }
-            canGetLock=pageLockManager.acquireLock(pid, tid, lockType);
         }
         //System.out.println(tid+"success get lock");
 
@@ -410,6 +493,14 @@ public class BufferPool {
         else{
             rollbackPages(tid);
         }
+        //在释放锁之前增加版本号，之后读到新数据的事务一定能看到新版本号
+        Map<Integer,TableStats.Delta>tables=modifiedTables.remove(tid);
+        if(commit&&tables!=null){
+            for(int tableId:tables.keySet()){
+                tableVersions.computeIfAbsent(tableId,k->new AtomicLong()).incrementAndGet();
+            }
+            TableStats.transactionCommitted(tables);
+        }
         pageLockManager.removeDependency(tid);
         for(PageId pid:pageHashMap.keySet()){
             if(holdsLock(tid,pid)){
@@ -453,7 +544,9 @@ public class BufferPool {
         // some code goes here
 
         DbFile dbFile=Database.getCatalog().getDatabaseFile(tableId);
+        TableStats.Delta delta=recordModification(tid,tableId);
         ArrayList<Page>pages=dbFile.insertTuple(tid,t);
+        delta.insert(t);
         for(int i=0;i<pages.size();i++){
             pages.get(i).markDirty(true,tid);
             pageHashMap.put(pages.get(i).getId(),pages.get(i));
@@ -481,7 +574,9 @@ public class BufferPool {
         int tableId=t.getRecordId().getPageId().getTableId();
         DbFile dbFile=Database.getCatalog().getDatabaseFile(tableId);
         //System.out.println(t);
+        TableStats.Delta delta=recordModification(tid,tableId);
         ArrayList<Page>pages=dbFile.deleteTuple(tid,t);
+        delta.delete(t);
         for(int i=0;i<pages.size();i++){
 
             pages.get(i).markDirty(true,tid);
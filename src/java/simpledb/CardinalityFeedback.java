@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CardinalityFeedback remembers how far the optimizer's cardinality
+ * estimates were from the number of tuples queries actually produced, so
+ * that later plans of the same shape can correct them.
+ * <p>
+ * Each estimate is identified by a signature: for a table, the table,
+ * its alias and its filters; for the result of joining several
+ * tables, the signatures of the tables and the join predicates between
+ * them. {@link LogicalPlan#physicalPlan} records which operator of the plan
+ * produces each estimated result; once a {@link Query} has returned all of
+ * its tuples, the number each of those operators produced is compared with
+ * the estimate, and the ratio is stored here. When the {@link JoinOptimizer}
+ * next estimates a result with that signature, it multiplies its estimate
+ * by the ratio; the sizes of results with no recorded ratio are derived from
+ * the corrected sizes of their parts. Estimates and ratios are always taken
+ * before any correction, so a ratio stays valid when the corrections of the
+ * parts of its result change.
+ * <p>
+ * The most recent {@link #MAX_ENTRIES} signatures are kept.
+ */
+public class CardinalityFeedback {
+
+    /** Number of signatures whose corrections are kept */
+    public static final int MAX_ENTRIES = 10000;
+
+    /**
+     * Corrections that change by less than this factor do not invalidate
+     * cached plans
+     */
+    static final double REPLAN_FACTOR = 2.0;
+
+    private static final Map<String, Double> corrections = Collections.synchronizedMap(
+            new LinkedHashMap<String, Double>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    /** Incremented whenever a correction changes enough to change plans */
+    private static final AtomicLong version = new AtomicLong();
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * An estimated result in a physical plan: the operator that produces it,
+     * the signature of the result, and the number of tuples it was estimated
+     * to have before any correction was applied.
+     */
+    static class Observation {
+        OpIterator node;
+        final String signature;
+        final double estimate;
+
+        Observation(OpIterator node, String signature, double estimate) {
+            this.node = node;
+            this.signature = signature;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * Set whether corrections are recorded and applied. Defaults to true.
+     */
+    public static void setEnabled(boolean e) {
+        enabled = e;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a counter that changes whenever a correction changes by more
+     *         than {@link #REPLAN_FACTOR}, so that plans built with the old
+     *         one can be redone
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /** @return true if there are no corrections to apply */
+    public static boolean isEmpty() {
+        return !enabled || corrections.isEmpty();
+    }
+
+    /** Forget all corrections */
+    public static void clear() {
+        corrections.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return the factor by which to multiply the uncorrected estimated
+     *         cardinality of the result with the given signature; null if
+     *         nothing is known about it, or signature is null
+     */
+    public static Double getCorrection(String signature) {
+        if (signature == null || !enabled)
+            return null;
+        return corrections.get(signature);
+    }
+
+    /**
+     * Record that a result estimated to have estimate tuples actually had
+     * actual tuples. The new correction replaces any earlier one.
+     */
+    public static void record(String signature, double estimate, long actual) {
+        double ratio = Math.max(actual, 1) / Math.max(estimate, 1.0);
+        Double old = corrections.put(signature, ratio);
+        double change = ratio / (old == null ? 1.0 : old);
+        if (change > REPLAN_FACTOR || change < 1 / REPLAN_FACTOR)
+            version.incrementAndGet();
+    }
+
+    /**
+     * Record the actual cardinalities of the results of a plan that has run
+     * to completion. Results whose operators did not read all of their
+     * input are skipped.
+     */
+    static void observe(List<Observation> observations) {
+        if (!enabled)
+            return;
+        for (Observation o : observations) {
+            long actual = actualCardinality(o.node);
+            if (actual >= 0)
+                record(o.signature, o.estimate, actual);
+        }
+    }
+
+    /**
+     * @return the number of tuples node produced the last time it produced
+     *         all of them, or -1 if it has not, or if some were dropped by a
+     *         runtime filter below it
+     */
+    static long actualCardinality(OpIterator node) {
+        if (node instanceof SeqScan)
+            return ((SeqScan) node).getActualCardinality();
+        if (node instanceof Operator) {
+            SeqScan scan = HashEquiJoin.probeScan(node);
+            if (scan != null && scan.getRuntimeFilterRejected() > 0)
+                return -1;
+            return ((Operator) node).getActualCardinality();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the signature of a table read with the given filters
+     */
+    static String tableSignature(String table, String alias, List<String> conditions) {
+        ArrayList<String> sorted = new ArrayList<String>(conditions);
+        Collections.sort(sorted);
+        StringBuilder sb = new StringBuilder(table).append(" AS ").append(alias);
+        for (String c : sorted)
+            sb.append(" WHERE ").append(c);
+        return sb.toString();
+    }
+
+    /**
+     * @return the signature of a join predicate, the same whichever side
+     *         of it is the outer
+     */
+    static String predicateSignature(LogicalJoinNode j, LogicalJoinNode swapped) {
+        String a = j.f1QuantifiedName + " " + j.p + " " + j.f2QuantifiedName;
+        String b = swapped.f1QuantifiedName + " " + swapped.p + " " + swapped.f2QuantifiedName;
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /**
+     * @return the signature of the result of joining the given tables by
+     *         the given predicates, in any order
+     */
+    static String joinSignature(Collection<String> tables, Collection<String> predicates) {
+        ArrayList<String> t = new ArrayList<String>(tables);
+        ArrayList<String> p = new ArrayList<String>(predicates);
+        Collections.sort(t);
+        Collections.sort(p);
+        StringBuilder sb = new StringBuilder();
+        for (String s : t)
+            sb.append('(').append(s).append(')');
+        for (String s : p)
+            sb.append(" ON ").append(s);
+        return sb.toString();
+    }
+}
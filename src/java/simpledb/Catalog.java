@@ -40,6 +40,16 @@ public class Catalog {
     }
     private ArrayList<Table> tables;
     private ArrayList<Integer> tableIDs;
+    //每次添加、替换或删除表时加一，缓存的查询计划据此判断是否失效
+    private volatile long version=0;
+
+    /**
+     * @return a counter that changes whenever a table is added to, replaced
+     *         in or removed from this catalog
+     */
+    public long getVersion() {
+        return version;
+    }
     /**
      * Add a new table to the catalog.
      * This table's contents are stored in the specified DbFile.
@@ -52,11 +62,19 @@ public class Catalog {
 
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
+        version++;
         int index= tableIDs.indexOf(file.getId());
 
         //在内部找到了对应file，直接替换
         if(index>=0){
             tables.set(index,new Table(file,name,pkeyField));
+            //同名的其它表被这张表取代
+            for(int i=tables.size()-1;i>=0;i--) {
+                if (i!=index&&tables.get(i).name.equals(name)) {
+                    tables.remove(i);
+                    tableIDs.remove(i);
+                }
+            }
             return;
         }
 
@@ -165,6 +183,7 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        version++;
         tables.clear();
         tableIDs.clear();
     }
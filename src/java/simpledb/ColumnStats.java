@@ -0,0 +1,486 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnStats summarizes the values of one column of a table for selectivity
+ * estimation, in the style of a compressed histogram:
+ * <ul>
+ * <li>a list of the most common values and how many rows hold each, so that
+ * skewed columns are estimated well;</li>
+ * <li>an equi-depth histogram over the remaining rows, whose buckets hold
+ * about the same number of rows each, so that dense regions of the column
+ * get narrow buckets;</li>
+ * <li>the number of distinct values, from a {@link HyperLogLog} sketch of
+ * the whole column, which spreads the rows outside the list evenly among
+ * the values outside the list.</li>
+ * </ul>
+ * The list and the histogram are built from a random sample of the column's
+ * values and scaled up to the number of rows in the table. Values are
+ * handled as ints; strings are mapped to ints that preserve their order by
+ * {@link #code(Field)}.
+ */
+public class ColumnStats {
+
+    /** The most values kept in the list of most common values */
+    public static final int MAX_MCVS = 100;
+
+    /**
+     * A value is common if it occurs this many times more often in the
+     * sample than the average value, and at least twice
+     */
+    private static final double MCV_THRESHOLD = 1.25;
+
+    private double rows;
+    private long distinct;
+    private int min;
+    private int max;
+
+    private int[] mcvValues;
+    private double[] mcvRows;
+    /** bucket i holds the rows with values in [bounds[i], bounds[i + 1]] */
+    private int[] bounds;
+    private double[] bucketRows;
+
+    /**
+     * Summarizes a column.
+     *
+     * @param sample the values of a random sample of the rows of the column
+     * @param rows the number of rows in the table
+     * @param distinct the estimated number of distinct values in the column
+     * @param min the smallest value in the column
+     * @param max the largest value in the column
+     * @param buckets the number of buckets of the histogram
+     */
+    public ColumnStats(int[] sample, long rows, long distinct, int min, int max, int buckets) {
+        this.rows = rows;
+        this.min = min;
+        this.max = max;
+        int[] sorted = sample.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+
+        // count each distinct value of the sample
+        ArrayList<int[]> counts = new ArrayList<int[]>();
+        for (int i = 0; i < n;) {
+            int j = i;
+            while (j < n && sorted[j] == sorted[i])
+                j++;
+            counts.add(new int[] { sorted[i], j - i });
+            i = j;
+        }
+        boolean complete = n == rows;
+        this.distinct = complete ? counts.size() : Math.max(counts.size(), Math.min(distinct, rows));
+
+        // a sample with no value seen only once probably holds every value
+        boolean allCommon = counts.size() <= MAX_MCVS;
+        for (int[] c : counts) {
+            if (c[1] < 2 && !complete)
+                allCommon = false;
+        }
+        ArrayList<int[]> common = new ArrayList<int[]>();
+        double minCount = Math.max(2, MCV_THRESHOLD * n / Math.max(1, this.distinct));
+        for (int[] c : counts) {
+            if (allCommon || c[1] >= minCount)
+                common.add(c);
+        }
+        Collections.sort(common, (a, b) -> Integer.compare(b[1], a[1]));
+        if (common.size() > MAX_MCVS)
+            common.subList(MAX_MCVS, common.size()).clear();
+        Collections.sort(common, (a, b) -> Integer.compare(a[0], b[0]));
+        mcvValues = new int[common.size()];
+        mcvRows = new double[common.size()];
+        HashSet<Integer> isCommon = new HashSet<Integer>();
+        for (int i = 0; i < common.size(); i++) {
+            mcvValues[i] = common.get(i)[0];
+            mcvRows[i] = (double) common.get(i)[1] * rows / n;
+            isCommon.add(mcvValues[i]);
+        }
+
+        // equi-depth buckets over the other values of the sample
+        int[] rest = new int[n];
+        int m = 0;
+        for (int v : sorted) {
+            if (!isCommon.contains(v))
+                rest[m++] = v;
+        }
+        int k = Math.min(buckets, m);
+        bounds = new int[k == 0 ? 0 : k + 1];
+        bucketRows = new double[k];
+        for (int i = 0; i <= k && k > 0; i++)
+            bounds[i] = rest[(int) ((long) i * (m - 1) / k)];
+        for (int i = 0; i < k; i++)
+            bucketRows[i] = (double) m * rows / n / k;
+    }
+
+    private ColumnStats(ColumnStats o) {
+        rows = o.rows;
+        distinct = o.distinct;
+        min = o.min;
+        max = o.max;
+        mcvValues = o.mcvValues;
+        mcvRows = o.mcvRows.clone();
+        bounds = o.bounds.clone();
+        bucketRows = o.bucketRows.clone();
+    }
+
+    /**
+     * Returns a copy of these statistics that accounts for rows added to and
+     * removed from the column since. A value outside the histogram widens
+     * its first or last bucket; removed values leave the range as it is.
+     *
+     * @param added the values of the rows added
+     * @param removed the values of the rows removed
+     * @param otherRows the number of rows added, less the number removed,
+     *            whose values are not known; every estimate is scaled for them
+     * @param distinct the new estimate of the number of distinct values
+     */
+    ColumnStats update(int[] added, int[] removed, long otherRows, long distinct) {
+        ColumnStats c = new ColumnStats(this);
+        // a value added often enough to be common joins the list
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (int v : added)
+            counts.merge(v, 1, Integer::sum);
+        double minCount = Math.max(2, MCV_THRESHOLD * rows / Math.max(1, this.distinct));
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            if (e.getValue() < minCount || Arrays.binarySearch(c.mcvValues, e.getKey()) >= 0)
+                continue;
+            if (c.mcvValues.length == MAX_MCVS) {
+                // make room by dropping the least common value, if it is less common
+                int least = 0;
+                for (int i = 1; i < c.mcvRows.length; i++) {
+                    if (c.mcvRows[i] < c.mcvRows[least])
+                        least = i;
+                }
+                if (c.mcvRows[least] >= e.getValue())
+                    continue;
+                c.demote(least);
+            }
+            c.promote(e.getKey());
+        }
+        for (int v : added)
+            c.add(v);
+        for (int v : removed)
+            c.remove(v);
+        if (otherRows != 0 && c.rows > 0) {
+            double f = Math.max(0.0, (c.rows + otherRows) / c.rows);
+            for (int i = 0; i < c.mcvRows.length; i++)
+                c.mcvRows[i] *= f;
+            for (int i = 0; i < c.bucketRows.length; i++)
+                c.bucketRows[i] *= f;
+            c.rows *= f;
+        }
+        c.distinct = Math.max(c.mcvValues.length, Math.min(distinct, Math.round(c.rows)));
+        return c;
+    }
+
+    /** Moves the rows estimated to hold v from the histogram to the list */
+    private void promote(int v) {
+        double r = rows > 0 ? equalFraction(v) * rows : 0;
+        if (r > 0) {
+            int b = bucketOf(v);
+            bucketRows[b] = Math.max(0, bucketRows[b] - r);
+        }
+        int i = -Arrays.binarySearch(mcvValues, v) - 1;
+        int[] values = new int[mcvValues.length + 1];
+        double[] counts = new double[values.length];
+        System.arraycopy(mcvValues, 0, values, 0, i);
+        System.arraycopy(mcvRows, 0, counts, 0, i);
+        values[i] = v;
+        counts[i] = r;
+        System.arraycopy(mcvValues, i, values, i + 1, mcvValues.length - i);
+        System.arraycopy(mcvRows, i, counts, i + 1, mcvValues.length - i);
+        mcvValues = values;
+        mcvRows = counts;
+    }
+
+    /** Moves a value from the list to the histogram */
+    private void demote(int i) {
+        int v = mcvValues[i];
+        double r = mcvRows[i];
+        int[] values = new int[mcvValues.length - 1];
+        double[] counts = new double[values.length];
+        System.arraycopy(mcvValues, 0, values, 0, i);
+        System.arraycopy(mcvRows, 0, counts, 0, i);
+        System.arraycopy(mcvValues, i + 1, values, i, values.length - i);
+        System.arraycopy(mcvRows, i + 1, counts, i, values.length - i);
+        mcvValues = values;
+        mcvRows = counts;
+        addToHistogram(v, r);
+    }
+
+    private void add(int v) {
+        rows++;
+        if (rows == 1 || v < min)
+            min = v;
+        if (rows == 1 || v > max)
+            max = v;
+        int i = Arrays.binarySearch(mcvValues, v);
+        if (i >= 0)
+            mcvRows[i]++;
+        else
+            addToHistogram(v, 1);
+    }
+
+    private void addToHistogram(int v, double r) {
+        if (bucketRows.length == 0) {
+            bounds = new int[] { v, v };
+            bucketRows = new double[] { r };
+            return;
+        }
+        int last = bounds.length - 1;
+        if (v < bounds[0])
+            bounds[0] = v;
+        if (v > bounds[last])
+            bounds[last] = v;
+        bucketRows[bucketOf(v)] += r;
+    }
+
+    private void remove(int v) {
+        rows = Math.max(0, rows - 1);
+        int i = Arrays.binarySearch(mcvValues, v);
+        if (i >= 0) {
+            mcvRows[i] = Math.max(0, mcvRows[i] - 1);
+        } else if (bucketRows.length > 0 && v >= bounds[0] && v <= bounds[bounds.length - 1]) {
+            int b = bucketOf(v);
+            bucketRows[b] = Math.max(0, bucketRows[b] - 1);
+        }
+    }
+
+    /** @return the bucket a value within the histogram's range falls in */
+    private int bucketOf(int v) {
+        int i = Arrays.binarySearch(bounds, v);
+        if (i < 0)
+            i = -i - 2;
+        return Math.max(0, Math.min(bucketRows.length - 1, i));
+    }
+
+    /**
+     * @return the int that stands for the value of a field: an int is
+     *         itself, and a string is mapped to an int in a way that
+     *         preserves the order of strings that differ in their first
+     *         four characters
+     */
+    public static int code(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        return StringHistogram.stringToInt(((StringField) f).getValue());
+    }
+
+    /**
+     * @return the estimated number of distinct values in the column
+     */
+    public long distinctValues() {
+        return distinct;
+    }
+
+    /**
+     * @return the smallest value in the column
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value in the column
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the fraction of the rows that hold values other than the most
+     *         common ones
+     */
+    private double otherFraction() {
+        double r = 0;
+        for (double c : bucketRows)
+            r += c;
+        return rows == 0 ? 0 : r / rows;
+    }
+
+    /**
+     * @return the number of distinct values other than the most common ones
+     */
+    private double otherDistinct() {
+        return Math.max(1, distinct - mcvValues.length);
+    }
+
+    /**
+     * Estimates the fraction of rows whose value satisfies
+     * <tt>value op v</tt>.
+     *
+     * @param op the comparison; LIKE is treated as EQUALS
+     * @param v the constant, as given by {@link #code(Field)}
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (rows <= 0)
+            return 0.0;
+        double lt = rowsBelow(v) / rows;
+        double eq = equalFraction(v);
+        double s;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            s = eq;
+            break;
+        case NOT_EQUALS:
+            s = 1.0 - eq;
+            break;
+        case LESS_THAN:
+            s = lt;
+            break;
+        case LESS_THAN_OR_EQ:
+            s = lt + eq;
+            break;
+        case GREATER_THAN:
+            s = 1.0 - lt - eq;
+            break;
+        case GREATER_THAN_OR_EQ:
+            s = 1.0 - lt;
+            break;
+        default:
+            s = 1.0;
+        }
+        return Math.max(0.0, Math.min(1.0, s));
+    }
+
+    /** @return the fraction of the rows that hold v */
+    private double equalFraction(int v) {
+        if (v < min || v > max)
+            return 0.0;
+        int i = Arrays.binarySearch(mcvValues, v);
+        if (i >= 0)
+            return mcvRows[i] / rows;
+        if (bounds.length == 0 || v < bounds[0] || v > bounds[bounds.length - 1])
+            return 0.0;
+        return otherFraction() / otherDistinct();
+    }
+
+    /**
+     * @return the number of rows holding values below v, assuming the
+     *         values of a bucket are spread evenly over its range
+     */
+    private double rowsBelow(int v) {
+        if (v <= min)
+            return 0.0;
+        if (v > max)
+            return rows;
+        double r = 0;
+        for (int i = 0; i < mcvValues.length && mcvValues[i] < v; i++)
+            r += mcvRows[i];
+        for (int i = 0; i < bucketRows.length; i++) {
+            long lo = bounds[i], hi = bounds[i + 1];
+            if (v > hi) {
+                r += bucketRows[i];
+            } else if (v > lo) {
+                // a value x takes up [x, x + 1)
+                r += bucketRows[i] * (v - lo) / (hi - lo + 1);
+            }
+        }
+        return Math.min(r, rows);
+    }
+
+    /**
+     * @return the expected selectivity of <tt>value op v</tt> for a value v
+     *         drawn from the column itself
+     */
+    public double avgSelectivity(Predicate.Op op) {
+        if (rows <= 0)
+            return 1.0;
+        double eq = 0;
+        for (double c : mcvRows)
+            eq += (c / rows) * (c / rows);
+        double other = otherFraction();
+        eq += other * other / otherDistinct();
+        // the rows not equal to v are split evenly above and below it
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1.0 - eq;
+        case GREATER_THAN:
+        case LESS_THAN:
+            return (1.0 - eq) / 2;
+        default:
+            return (1.0 + eq) / 2;
+        }
+    }
+
+    /**
+     * Estimates the fraction of the pairs of a row of one column and a row
+     * of another that satisfy <tt>a op b</tt>. For equality, the common
+     * values of both columns are matched with each other, and the other
+     * values are assumed to match as many values as the column with fewer
+     * distinct values has. Other comparisons are estimated by comparing
+     * each common value and bucket of a with the whole of b.
+     */
+    public static double joinSelectivity(ColumnStats a, Predicate.Op op, ColumnStats b) {
+        if (a.rows <= 0 || b.rows <= 0)
+            return 0.0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equiJoinSelectivity(a, b);
+        case NOT_EQUALS:
+            return 1.0 - equiJoinSelectivity(a, b);
+        default:
+            break;
+        }
+        Predicate.Op reversed = reverse(op);
+        double s = 0;
+        for (int i = 0; i < a.mcvValues.length; i++)
+            s += a.mcvRows[i] / a.rows * b.estimateSelectivity(reversed, a.mcvValues[i]);
+        for (int i = 0; i < a.bucketRows.length; i++) {
+            int mid = (int) (((long) a.bounds[i] + a.bounds[i + 1]) / 2);
+            s += a.bucketRows[i] / a.rows * b.estimateSelectivity(reversed, mid);
+        }
+        return Math.max(0.0, Math.min(1.0, s));
+    }
+
+    private static double equiJoinSelectivity(ColumnStats a, ColumnStats b) {
+        if (a.max < b.min || b.max < a.min)
+            return 0.0;
+        double s = 0;
+        double aOther = a.otherFraction(), bOther = b.otherFraction();
+        for (int i = 0; i < a.mcvValues.length; i++) {
+            int j = Arrays.binarySearch(b.mcvValues, a.mcvValues[i]);
+            if (j >= 0)
+                s += (a.mcvRows[i] / a.rows) * (b.mcvRows[j] / b.rows);
+            else
+                s += (a.mcvRows[i] / a.rows) * b.equalFraction(a.mcvValues[i]);
+        }
+        for (int j = 0; j < b.mcvValues.length; j++) {
+            if (Arrays.binarySearch(a.mcvValues, b.mcvValues[j]) < 0)
+                s += (b.mcvRows[j] / b.rows) * a.equalFraction(b.mcvValues[j]);
+        }
+        s += aOther * bOther / Math.max(a.otherDistinct(), b.otherDistinct());
+        return Math.min(1.0, s);
+    }
+
+    /** @return the op such that <tt>a op b</tt> iff <tt>b reverse(op) a</tt> */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ColumnStats(rows=").append(Math.round(rows)).append(", distinct=")
+                .append(distinct).append(", min=").append(min).append(", max=").append(max)
+                .append(", mcvs=").append(mcvValues.length).append(", buckets=")
+                .append(bucketRows.length).append(")");
+        return sb.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -21,6 +22,14 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    /**
+     * Worker threads shared by all parallel operators. Unlike the other
+     * members this is not replaced by {@link #reset}, so tests that reset
+     * the database do not leak thread pools.
+     */
+    private final static ForkJoinPool _workerpool = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors());
+
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
@@ -45,6 +54,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the worker pool used by parallel operators */
+    public static ForkJoinPool getWorkerPool() {
+        return _workerpool;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -76,6 +90,7 @@ public class Database {
     // reset the database, used for unit tests only.
     public static void reset() {
         _instance.set(new Database());
+        CardinalityFeedback.clear();
     }
 
 }
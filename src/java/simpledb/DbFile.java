@@ -68,6 +68,56 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * every one of the given predicates. Files that can test predicates
+     * before building tuples (see {@link HeapPage#iterator(Predicate[])})
+     * override this; the default implementation filters the tuples of
+     * {@link #iterator(TransactionId)}.
+     *
+     * @param predicates the predicates pushed down from the query plan
+     * @return an iterator over the matching tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return filter(iterator(tid), predicates);
+    }
+
+    /**
+     * @param it an iterator over some of the tuples of a file
+     * @param predicates predicates over the file's TupleDesc
+     * @return an iterator over the tuples of it that satisfy every one of
+     *         the predicates
+     */
+    public static DbFileIterator filter(final DbFileIterator it, final Predicate[] predicates) {
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    boolean ok = true;
+                    for (Predicate p : predicates)
+                        ok = ok && p.filter(t);
+                    if (ok)
+                        return t;
+                }
+                return null;
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * Distinct is an operator that removes duplicate tuples from its child, as
+ * in SELECT DISTINCT. Tuples are returned in the order they first occur,
+ * until the tuples seen so far no longer fit in memory; see
+ * {@link SetOperator}.
+ */
+public class Distinct extends SetOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor. Keeps up to {@link #DEFAULT_MEMORY_PAGES} pages' worth of
+     * tuples in memory.
+     *
+     * @param child
+     *            the tuples to deduplicate
+     */
+    public Distinct(OpIterator child) {
+        this(child, defaultMemoryBytes());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to deduplicate
+     * @param memoryBytes
+     *            the number of bytes of tuples to keep in memory
+     */
+    public Distinct(OpIterator child, long memoryBytes) {
+        super(new OpIterator[] { child }, memoryBytes);
+    }
+
+    protected int outputChildren() {
+        return 1;
+    }
+}
@@ -0,0 +1,602 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Expression is a boolean condition on a tuple: a comparison of a column
+ * with a constant or with another column, a test against a list of
+ * constants, or an AND, OR or NOT of other expressions.
+ * <p>
+ * Expressions are built over column names, as they appear in a query, and
+ * must be bound to a TupleDesc with {@link #bind} before they can be
+ * evaluated. Binding resolves names to field indexes, converts constants to
+ * the column types, and specializes the tree for those types: comparisons
+ * of an int column become a range check on the raw int value, ranges on the
+ * same column under an AND are merged into one, and int IN-lists become a
+ * binary search over a sorted array. A bound AND or OR evaluates its
+ * operands in the order they were given and stops at the first one that
+ * decides the result, so callers should put the most selective conjuncts
+ * first.
+ */
+public abstract class Expression implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Selectivity guessed for comparisons between two columns */
+    static final double COLUMN_EQUALS_SELECTIVITY = 0.1;
+    static final double COLUMN_RANGE_SELECTIVITY = 1.0 / 3;
+
+    /**
+     * @return true if t satisfies this expression
+     * @throws IllegalStateException
+     *             if the expression has not been bound
+     */
+    public abstract boolean eval(Tuple t);
+
+    /**
+     * Resolves the column names in this expression against td.
+     *
+     * @return an equivalent expression that can be evaluated on tuples
+     *         with that TupleDesc
+     * @throws ParsingException
+     *             if a column is unknown, a constant does not match its
+     *             column type, or two compared columns differ in type
+     */
+    public abstract Expression bind(TupleDesc td) throws ParsingException;
+
+    /**
+     * Adds the names of the columns this expression refers to to names.
+     */
+    public abstract void getFields(Set<String> names);
+
+    /**
+     * Estimates the fraction of a table's tuples that satisfy this
+     * expression, assuming its operands are independent.
+     *
+     * @param stats
+     *            the statistics of the table the columns belong to
+     * @param tableTd
+     *            the table's TupleDesc, whose field names are the column
+     *            names without their table qualifier
+     */
+    public abstract double estimateSelectivity(TableStats stats, TupleDesc tableTd);
+
+    /** @return the column name without its table qualifier */
+    static String pureName(String name) {
+        int dot = name.indexOf('.');
+        return dot < 0 ? name : name.substring(dot + 1);
+    }
+
+    static int fieldIndex(TupleDesc td, String name) throws ParsingException {
+        try {
+            return td.fieldNameToIndex(name);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + name);
+        }
+    }
+
+    /** Converts a constant in a query to a field of the given type */
+    static Field toField(Type type, String constant) throws ParsingException {
+        if (type == Type.INT_TYPE) {
+            try {
+                return new IntField(Integer.parseInt(constant));
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Expected an integer, got " + constant);
+            }
+        }
+        return new StringField(constant, Type.STRING_LEN);
+    }
+
+    /** @return a conjunction of the given expressions, tested in order */
+    public static Expression and(List<Expression> operands) {
+        return new And(operands);
+    }
+
+    /** @return a disjunction of the given expressions, tested in order */
+    public static Expression or(List<Expression> operands) {
+        return new Or(operands);
+    }
+
+    /** @return the negation of e */
+    public static Expression not(Expression e) {
+        return new Not(e);
+    }
+
+    /** @return an expression that compares a column with a constant */
+    public static Expression compare(String field, Predicate.Op op, String constant) {
+        return new Compare(field, op, constant);
+    }
+
+    /** @return an expression that compares two columns of the same tuple */
+    public static Expression compareColumns(String field1, Predicate.Op op, String field2) {
+        return new ColumnCompare(field1, op, field2);
+    }
+
+    /** @return an expression that is true if a column equals one of the constants */
+    public static Expression in(String field, List<String> constants) {
+        return new In(field, constants);
+    }
+
+    /** @return an expression that evaluates an existing predicate */
+    public static Expression of(Predicate p) {
+        return new PredicateExpression(p);
+    }
+
+    /** Base class for AND and OR */
+    private abstract static class Junction extends Expression {
+        private static final long serialVersionUID = 1L;
+        final Expression[] operands;
+
+        Junction(List<Expression> operands) {
+            if (operands.isEmpty())
+                throw new IllegalArgumentException("no operands");
+            this.operands = operands.toArray(new Expression[0]);
+        }
+
+        List<Expression> bindOperands(TupleDesc td) throws ParsingException {
+            List<Expression> bound = new ArrayList<Expression>(operands.length);
+            for (Expression e : operands)
+                bound.add(e.bind(td));
+            return bound;
+        }
+
+        public void getFields(Set<String> names) {
+            for (Expression e : operands)
+                e.getFields(names);
+        }
+
+        String join(String op) {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < operands.length; i++) {
+                if (i > 0)
+                    sb.append(' ').append(op).append(' ');
+                sb.append(operands[i]);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    private static class And extends Junction {
+        private static final long serialVersionUID = 1L;
+
+        And(List<Expression> operands) {
+            super(operands);
+        }
+
+        public boolean eval(Tuple t) {
+            for (Expression e : operands) {
+                if (!e.eval(t))
+                    return false;
+            }
+            return true;
+        }
+
+        /** Binds the operands, merging int ranges on the same column */
+        public Expression bind(TupleDesc td) throws ParsingException {
+            List<Expression> flat = new ArrayList<Expression>();
+            for (Expression e : bindOperands(td)) {
+                if (e instanceof And)
+                    flat.addAll(Arrays.asList(((And) e).operands));
+                else
+                    flat.add(e);
+            }
+            List<Expression> bound = new ArrayList<Expression>();
+            for (Expression e : flat) {
+                boolean merged = false;
+                if (e instanceof IntRange) {
+                    IntRange r = (IntRange) e;
+                    for (int i = 0; i < bound.size() && !merged; i++) {
+                        Expression b = bound.get(i);
+                        if (b instanceof IntRange && ((IntRange) b).field == r.field) {
+                            bound.set(i, ((IntRange) b).intersect(r));
+                            merged = true;
+                        }
+                    }
+                }
+                if (!merged)
+                    bound.add(e);
+            }
+            return bound.size() == 1 ? bound.get(0) : new And(bound);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            double sel = 1.0;
+            for (Expression e : operands)
+                sel *= e.estimateSelectivity(stats, tableTd);
+            return sel;
+        }
+
+        public String toString() {
+            return join("AND");
+        }
+    }
+
+    private static class Or extends Junction {
+        private static final long serialVersionUID = 1L;
+
+        Or(List<Expression> operands) {
+            super(operands);
+        }
+
+        public boolean eval(Tuple t) {
+            for (Expression e : operands) {
+                if (e.eval(t))
+                    return true;
+            }
+            return false;
+        }
+
+        public Expression bind(TupleDesc td) throws ParsingException {
+            List<Expression> bound = bindOperands(td);
+            return bound.size() == 1 ? bound.get(0) : new Or(bound);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            double none = 1.0;
+            for (Expression e : operands)
+                none *= 1.0 - e.estimateSelectivity(stats, tableTd);
+            return 1.0 - none;
+        }
+
+        public String toString() {
+            return join("OR");
+        }
+    }
+
+    private static class Not extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression operand;
+
+        Not(Expression operand) {
+            this.operand = operand;
+        }
+
+        public boolean eval(Tuple t) {
+            return !operand.eval(t);
+        }
+
+        public Expression bind(TupleDesc td) throws ParsingException {
+            Expression bound = operand.bind(td);
+            if (bound instanceof Not)
+                return ((Not) bound).operand;
+            return new Not(bound);
+        }
+
+        public void getFields(Set<String> names) {
+            operand.getFields(names);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            return 1.0 - operand.estimateSelectivity(stats, tableTd);
+        }
+
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+
+    /** A column compared with a constant, before binding */
+    private static class Compare extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final String field;
+        private final Predicate.Op op;
+        private final String constant;
+
+        Compare(String field, Predicate.Op op, String constant) {
+            this.field = field;
+            this.op = op;
+            this.constant = constant;
+        }
+
+        public boolean eval(Tuple t) {
+            throw new IllegalStateException("expression is not bound");
+        }
+
+        public Expression bind(TupleDesc td) throws ParsingException {
+            int index = fieldIndex(td, field);
+            Type type = td.getFieldType(index);
+            Field operand = toField(type, constant);
+            if (type != Type.INT_TYPE)
+                return new FieldCompare(field, index, op, operand);
+            long c = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return new IntRange(field, index, c, c);
+            case NOT_EQUALS:
+                return new Not(new IntRange(field, index, c, c));
+            case GREATER_THAN:
+                return new IntRange(field, index, c + 1, Integer.MAX_VALUE);
+            case GREATER_THAN_OR_EQ:
+                return new IntRange(field, index, c, Integer.MAX_VALUE);
+            case LESS_THAN:
+                return new IntRange(field, index, Integer.MIN_VALUE, c - 1);
+            default:
+                return new IntRange(field, index, Integer.MIN_VALUE, c);
+            }
+        }
+
+        public void getFields(Set<String> names) {
+            names.add(field);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            try {
+                int index = fieldIndex(tableTd, pureName(field));
+                return stats.estimateSelectivity(index, op,
+                        toField(tableTd.getFieldType(index), constant));
+            } catch (ParsingException e) {
+                return 1.0;
+            }
+        }
+
+        public String toString() {
+            return field + op + constant;
+        }
+    }
+
+    /** A bound comparison of a column with a constant of any type */
+    private static class FieldCompare extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final int field;
+        private final Predicate.Op op;
+        private final Field operand;
+
+        FieldCompare(String name, int field, Predicate.Op op, Field operand) {
+            this.name = name;
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public boolean eval(Tuple t) {
+            return t.getField(field).compare(op, operand);
+        }
+
+        public Expression bind(TupleDesc td) {
+            return this;
+        }
+
+        public void getFields(Set<String> names) {
+            names.add(name);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            return stats.estimateSelectivity(
+                    tableTd.fieldNameToIndex(pureName(name)), op, operand);
+        }
+
+        public String toString() {
+            return name + op + operand;
+        }
+    }
+
+    /** A bound test that an int column lies in the closed range [lo, hi] */
+    private static class IntRange extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final int field;
+        private final long lo, hi;
+
+        IntRange(String name, int field, long lo, long hi) {
+            this.name = name;
+            this.field = field;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        IntRange intersect(IntRange other) {
+            return new IntRange(name, field, Math.max(lo, other.lo), Math.min(hi, other.hi));
+        }
+
+        public boolean eval(Tuple t) {
+            int v = ((IntField) t.getField(field)).getValue();
+            return v >= lo && v <= hi;
+        }
+
+        public Expression bind(TupleDesc td) {
+            return this;
+        }
+
+        public void getFields(Set<String> names) {
+            names.add(name);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            if (lo > hi)
+                return 0.0;
+            int index = tableTd.fieldNameToIndex(pureName(name));
+            if (lo == hi)
+                return stats.estimateSelectivity(index, Predicate.Op.EQUALS,
+                        new IntField((int) lo));
+            double atLeastLo = lo == Integer.MIN_VALUE ? 1.0 : stats.estimateSelectivity(
+                    index, Predicate.Op.GREATER_THAN_OR_EQ, new IntField((int) lo));
+            double atMostHi = hi == Integer.MAX_VALUE ? 1.0 : stats.estimateSelectivity(
+                    index, Predicate.Op.LESS_THAN_OR_EQ, new IntField((int) hi));
+            return Math.max(0.0, Math.min(1.0, atLeastLo + atMostHi - 1.0));
+        }
+
+        public String toString() {
+            if (lo == hi)
+                return name + "=" + lo;
+            if (lo == Integer.MIN_VALUE)
+                return name + "<=" + hi;
+            if (hi == Integer.MAX_VALUE)
+                return name + ">=" + lo;
+            return name + " BETWEEN " + lo + " AND " + hi;
+        }
+    }
+
+    /** Two columns of the same tuple compared with each other */
+    private static class ColumnCompare extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final String name1, name2;
+        private final Predicate.Op op;
+        private final int field1, field2;
+        private final boolean ints;
+
+        ColumnCompare(String name1, Predicate.Op op, String name2) {
+            this(name1, op, name2, -1, -1, false);
+        }
+
+        private ColumnCompare(String name1, Predicate.Op op, String name2,
+                int field1, int field2, boolean ints) {
+            this.name1 = name1;
+            this.op = op;
+            this.name2 = name2;
+            this.field1 = field1;
+            this.field2 = field2;
+            this.ints = ints;
+        }
+
+        public boolean eval(Tuple t) {
+            if (field1 < 0)
+                throw new IllegalStateException("expression is not bound");
+            if (ints)
+                return IntField.compare(((IntField) t.getField(field1)).getValue(), op,
+                        ((IntField) t.getField(field2)).getValue());
+            return t.getField(field1).compare(op, t.getField(field2));
+        }
+
+        public Expression bind(TupleDesc td) throws ParsingException {
+            int f1 = fieldIndex(td, name1);
+            int f2 = fieldIndex(td, name2);
+            Type type = td.getFieldType(f1);
+            if (type != td.getFieldType(f2))
+                throw new ParsingException("Cannot compare " + name1 + " with " + name2);
+            return new ColumnCompare(name1, op, name2, f1, f2, type == Type.INT_TYPE);
+        }
+
+        public void getFields(Set<String> names) {
+            names.add(name1);
+            names.add(name2);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return COLUMN_EQUALS_SELECTIVITY;
+            case NOT_EQUALS:
+                return 1.0 - COLUMN_EQUALS_SELECTIVITY;
+            default:
+                return COLUMN_RANGE_SELECTIVITY;
+            }
+        }
+
+        public String toString() {
+            return name1 + op + name2;
+        }
+    }
+
+    /** A column tested against a list of constants */
+    private static class In extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final List<String> constants;
+        private final int field;
+        /** The sorted, distinct constants of an int column */
+        private final int[] ints;
+        /** The constants of a string column */
+        private final HashSet<Field> values;
+
+        In(String name, List<String> constants) {
+            this(name, constants, -1, null, null);
+        }
+
+        private In(String name, List<String> constants, int field, int[] ints,
+                HashSet<Field> values) {
+            if (constants.isEmpty())
+                throw new IllegalArgumentException("empty IN list");
+            this.name = name;
+            this.constants = constants;
+            this.field = field;
+            this.ints = ints;
+            this.values = values;
+        }
+
+        public boolean eval(Tuple t) {
+            if (field < 0)
+                throw new IllegalStateException("expression is not bound");
+            if (ints != null)
+                return Arrays.binarySearch(ints, ((IntField) t.getField(field)).getValue()) >= 0;
+            return values.contains(t.getField(field));
+        }
+
+        public Expression bind(TupleDesc td) throws ParsingException {
+            int index = fieldIndex(td, name);
+            Type type = td.getFieldType(index);
+            HashSet<Field> fields = new HashSet<Field>();
+            for (String c : constants)
+                fields.add(toField(type, c));
+            if (type != Type.INT_TYPE)
+                return new In(name, constants, index, null, fields);
+            int[] sorted = new int[fields.size()];
+            int i = 0;
+            for (Field f : fields)
+                sorted[i++] = ((IntField) f).getValue();
+            Arrays.sort(sorted);
+            if (sorted.length == 1)
+                return new IntRange(name, index, sorted[0], sorted[0]);
+            return new In(name, constants, index, sorted, null);
+        }
+
+        public void getFields(Set<String> names) {
+            names.add(name);
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            try {
+                int index = fieldIndex(tableTd, pureName(name));
+                Type type = tableTd.getFieldType(index);
+                double sel = 0.0;
+                for (String c : new HashSet<String>(constants))
+                    sel += stats.estimateSelectivity(index, Predicate.Op.EQUALS, toField(type, c));
+                return Math.min(1.0, sel);
+            } catch (ParsingException e) {
+                return 1.0;
+            }
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(" IN (");
+            for (int i = 0; i < constants.size(); i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(constants.get(i));
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    /** Wraps a Predicate, whose field is already an index */
+    private static class PredicateExpression extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Predicate p;
+
+        PredicateExpression(Predicate p) {
+            this.p = p;
+        }
+
+        public boolean eval(Tuple t) {
+            return p.filter(t);
+        }
+
+        public Expression bind(TupleDesc td) {
+            return this;
+        }
+
+        public void getFields(Set<String> names) {
+        }
+
+        public double estimateSelectivity(TableStats stats, TupleDesc tableTd) {
+            return 1.0;
+        }
+
+        public String toString() {
+            return p.toString();
+        }
+    }
+}
@@ -21,15 +21,44 @@ public class Filter extends Operator {
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
         this.predicate=p;
+        this.expression=Expression.of(p);
+        this.childOpIterator=child;
+    }
+
+    /**
+     * Constructor accepts an expression to apply and a child operator to
+     * read tuples to filter from.
+     *
+     * @param e
+     *            The expression to filter tuples with, already bound to the
+     *            child's TupleDesc with {@link Expression#bind}
+     * @param child
+     *            The child operator
+     */
+    public Filter(Expression e, OpIterator child) {
+        this.expression=e;
         this.childOpIterator=child;
     }
     private Predicate predicate;
+    private Expression expression;
     private OpIterator childOpIterator;
+
+    /**
+     * @return the predicate this filter was built with, or null if it was
+     *         built with an Expression
+     */
     public Predicate getPredicate() {
         // some code goes here
         return predicate;
     }
 
+    /**
+     * @return the expression tuples are tested with
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     public TupleDesc getTupleDesc() {
         // some code goes here
         return childOpIterator.getTupleDesc();
@@ -60,7 +89,8 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass the predicate (i.e. for which the Predicate.filter() or
+     * Expression.eval() returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -72,7 +102,7 @@ public class Filter extends Operator {
 
         while(childOpIterator.hasNext()){
             Tuple tuple=childOpIterator.next();
-            if(predicate.filter(tuple))
+            if(expression.eval(tuple))
                 return tuple;
         }
         return null;
@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Gather is an exchange operator that runs each of its children on the
+ * database worker pool and merges their output into a single stream, so that
+ * the rest of the plan can stay single-threaded.
+ * <p>
+ * The children are typically identical subplans over disjoint page ranges of
+ * the same table (see {@link SeqScan#partition}). Workers hand their tuples
+ * to the consumer through a bounded queue; a worker that gets too far ahead
+ * of the consumer blocks until there is room again. Tuples from different
+ * children are interleaved in no particular order.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default capacity of the queue between the workers and the consumer */
+    public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    /** How long a blocked worker waits before checking for cancellation */
+    private static final long POLL_MILLIS = 10;
+
+    /** Placed on the queue by each worker when its child is exhausted */
+    private static final Tuple END_OF_PARTITION = new Tuple(new TupleDesc(
+            new Type[] { Type.INT_TYPE }));
+
+    private OpIterator[] children;
+    private final int queueSize;
+
+    private transient BlockingQueue<Tuple> queue;
+    private transient List<Future<?>> workers;
+    private transient ConcurrentLinkedQueue<Exception> failures;
+    private transient volatile boolean cancelled;
+    private transient int running;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the subplans to run in parallel; they must all have the same
+     *            TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        this(children, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the subplans to run in parallel; they must all have the same
+     *            TupleDesc
+     * @param queueSize
+     *            the maximum number of tuples buffered between the workers
+     *            and the consumer
+     */
+    public Gather(OpIterator[] children, int queueSize) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("Gather needs at least one child");
+        this.children = children;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @return the number of subplans this operator runs in parallel
+     */
+    public int getDegree() {
+        return children.length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        queue = new ArrayBlockingQueue<Tuple>(queueSize);
+        failures = new ConcurrentLinkedQueue<Exception>();
+        workers = new ArrayList<Future<?>>();
+        cancelled = false;
+        running = children.length;
+        for (OpIterator child : children)
+            workers.add(Database.getWorkerPool().submit(new Worker(child)));
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stopWorkers();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple produced by
+     * any of the workers.
+     *
+     * @return the next tuple, or null once every worker has finished
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (running > 0) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for workers");
+            }
+            if (t != END_OF_PARTITION)
+                return t;
+            running--;
+            rethrowFailure();
+        }
+        return null;
+    }
+
+    /**
+     * Re-throws the first exception raised by a worker on the consumer
+     * thread, after stopping the remaining workers.
+     */
+    private void rethrowFailure() throws TransactionAbortedException,
+            DbException {
+        Exception e = failures.peek();
+        if (e == null)
+            return;
+        stopWorkers();
+        running = 0;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        throw new DbException("parallel worker failed: " + e);
+    }
+
+    /** Cancels the workers and waits until they have closed their children */
+    private void stopWorkers() {
+        if (workers == null)
+            return;
+        cancelled = true;
+        for (Future<?> w : workers) {
+            // keep draining so that a worker blocked on a full queue notices
+            while (!w.isDone()) {
+                queue.clear();
+                try {
+                    w.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // still running, drain again
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        workers = null;
+        queue.clear();
+    }
+
+    /** Drains one child into the shared queue */
+    private class Worker implements Runnable {
+        private final OpIterator child;
+
+        Worker(OpIterator child) {
+            this.child = child;
+        }
+
+        public void run() {
+            try {
+                child.open();
+                try {
+                    while (!cancelled && child.hasNext()) {
+                        if (!offer(child.next()))
+                            return;
+                    }
+                } finally {
+                    child.close();
+                }
+            } catch (Exception e) {
+                failures.add(e);
+            } finally {
+                offer(END_OF_PARTITION);
+            }
+        }
+
+        /** Blocks until the tuple is queued; returns false if cancelled */
+        private boolean offer(Tuple t) {
+            try {
+                while (!queue.offer(t, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (cancelled)
+                        return false;
+                }
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children;
+    }
+
+}
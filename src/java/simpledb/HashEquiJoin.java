@@ -13,6 +13,7 @@ public class HashEquiJoin extends Operator {
     private TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    transient private SeqScan probeScan = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -50,6 +51,18 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
+    /**
+     * Finds the scan that produces the tuples of a join input, looking
+     * through filters, which keep field positions unchanged.
+     *
+     * @return the scan, or null if the input is not a (filtered) SeqScan
+     */
+    static SeqScan probeScan(OpIterator child) {
+        while (child instanceof Filter)
+            child = ((Filter) child).getChildren()[0];
+        return child instanceof SeqScan ? (SeqScan) child : null;
+    }
+
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
 
@@ -65,22 +78,43 @@ public class HashEquiJoin extends Operator {
             }
             list.add(t1);
             if (cnt++ == MAP_SIZE)
-                return true;
+                break;
         }
+        publishFilter();
         return cnt > 0;
 
     }
 
+    /**
+     * Pushes a Bloom filter of the keys in the current hash table down to the
+     * probe-side scan, so that probe tuples without a match are dropped while
+     * scanning. The probe side is rewound after every reload of the table, so
+     * it always sees the filter for the keys it is being joined with.
+     */
+    private void publishFilter() {
+        if (probeScan == null)
+            return;
+        BloomFilter filter = new BloomFilter(map.size());
+        for (Object key : map.keySet())
+            filter.add((Field) key);
+        probeScan.setRuntimeFilter(pred.getField2(), filter);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
-        child2.open();
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            probeScan = probeScan(child2);
         loadMap();
+        child2.open();
         super.open();
     }
 
     public void close() {
         super.close();
+        if (probeScan != null)
+            probeScan.setRuntimeFilter(0, null);
+        probeScan = null;
         child2.close();
         child1.close();
         this.t1=null;
@@ -91,7 +125,9 @@ public class HashEquiJoin extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
+        loadMap();
         child2.rewind();
+        listIt = null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -26,9 +27,16 @@ public class HeapFile implements DbFile {
         // some code goes here
         file=f;
         tupleDesc=td;
+        zoneMap=new ZoneMap(f,td);
     }
     private File file;
     private TupleDesc tupleDesc;
+    //每页每个int列的最小/最大值，扫描时跳过不可能满足谓词的页
+    private final ZoneMap zoneMap;
+    //并发的全表扫描从其它扫描当前所在的页开始，共享页的读取
+    private final SharedScanManager sharedScans=new SharedScanManager();
+    //从磁盘读取的页数
+    private final AtomicLong pagesRead=new AtomicLong();
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -39,6 +47,29 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * Returns the per-page value ranges of this file's int columns.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Returns the manager that lets concurrent scans of this file share
+     * their page reads.
+     */
+    public SharedScanManager getSharedScans() {
+        return sharedScans;
+    }
+
+    /**
+     * Returns the number of pages read from disk since this HeapFile was
+     * created.
+     */
+    public long getPagesRead() {
+        return pagesRead.get();
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -74,12 +105,14 @@ public class HeapFile implements DbFile {
         Page res=null;
         byte[] page_data=new byte[BufferPool.getPageSize()];
 
-        try {
-            RandomAccessFile randomAccessFile=new RandomAccessFile(getFile(),"r");
+        //每次读完关闭文件，大量并发会话下不会泄漏文件描述符
+        try (RandomAccessFile randomAccessFile=new RandomAccessFile(getFile(),"r")) {
             int st=pid.getPageNumber()*BufferPool.getPageSize();
             randomAccessFile.seek(st);
             randomAccessFile.read(page_data,0,BufferPool.getPageSize());
             res=new HeapPage((HeapPageId) pid,page_data);
+            pagesRead.incrementAndGet();
+            zoneMap.observe((HeapPage) res);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -93,11 +126,15 @@ public class HeapFile implements DbFile {
         //获得pageno信息
         int pageno=page.getId().getPageNumber();
         //打开file文件
-        RandomAccessFile randomAccessFile=new RandomAccessFile(getFile(),"rw");
-        //位置偏移量
-        int st=pageno*BufferPool.getPageSize();
-        randomAccessFile.seek(st);
-        randomAccessFile.write(page.getPageData());
+        try (RandomAccessFile randomAccessFile=new RandomAccessFile(getFile(),"rw")) {
+            //位置偏移量
+            int st=pageno*BufferPool.getPageSize();
+            randomAccessFile.seek(st);
+            randomAccessFile.write(page.getPageData());
+        }
+        //页写回磁盘后重新计算精确的范围，删除tuple后范围在这里缩小
+        if(page instanceof HeapPage)
+            zoneMap.update((HeapPage) page,true);
         // not necessary for lab1
     }
 
@@ -129,6 +166,7 @@ public class HeapFile implements DbFile {
             //对有空余的页申请exclusive锁
             heapPage=(HeapPage) Database.getBufferPool().getPage(tid,new HeapPageId(getId(),i),Permissions.READ_WRITE);
             heapPage.insertTuple(t);
+            zoneMap.widen(i,t);
 
             pages.add(heapPage);
             //Database.getBufferPool().releasePage(tid,heapPage.getId());
@@ -143,6 +181,7 @@ public class HeapFile implements DbFile {
         //申请读写锁写入tuple
         HeapPage page=(HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
         page.insertTuple(t);
+        zoneMap.widen(pid.getPageNumber(),t);
 
         pages.add(page);
         return pages;
@@ -175,32 +214,140 @@ public class HeapFile implements DbFile {
 
         return new HeapFileIterator(this, tid);
     }
+
+    /**
+     * Returns an iterator over the tuples stored on a contiguous range of
+     * pages of this file. Used by parallel scans, which give each worker its
+     * own page range.
+     *
+     * @param startPage the first page to read
+     * @param endPage one past the last page to read, or -1 to read up to the
+     *            end of the file as it is when the iterator is opened
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(this, tid, startPage, endPage, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples that satisfy all of the given
+     * predicates. Each page tests the predicates on its stored bytes, so
+     * tuples that do not qualify are never decoded.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new HeapFileIterator(this, tid, 0, -1, predicates);
+    }
+
+    /**
+     * Page-range variant of {@link #iterator(TransactionId, Predicate[])}.
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage, Predicate[] predicates) {
+        return new HeapFileIterator(this, tid, startPage, endPage, predicates);
+    }
+
+    /**
+     * Returns an iterator over some of the columns of the tuples on a range
+     * of pages that satisfy the given predicates. Pages decode only the
+     * requested columns of tuples they have not decoded yet.
+     *
+     * @param predicates predicates over the full tuples of this file
+     * @param columns the indexes of the columns to return, or null for all
+     * @param outTd the TupleDesc of the returned tuples; ignored if columns
+     *            is null
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage,
+            Predicate[] predicates, int[] columns, TupleDesc outTd) {
+        HeapFileIterator it = new HeapFileIterator(this, tid, startPage, endPage, predicates);
+        it.columns = columns;
+        it.outTd = outTd;
+        return it;
+    }
+
     public static class HeapFileIterator implements DbFileIterator{
 
         HeapFile heapFile;
         TransactionId transactionId;
         int currentPage;
         Iterator<Tuple> tupleIterator;
+        int startPage;
+        int endPage;
+        //下推到页上的谓词，不满足的tuple不会被解码
+        Predicate[] predicates;
+        //只解码这些列，null表示全部列
+        int[] columns;
+        TupleDesc outTd;
+        //全表扫描可以从中间的页开始，读到文件末尾后再回到第0页
+        int firstPage;
+        boolean wrapped;
+        boolean shared;
 
         HeapFileIterator(HeapFile file,TransactionId tid){
+            this(file,tid,0,-1,new Predicate[0]);
+        }
+
+        HeapFileIterator(HeapFile file,TransactionId tid,int startPage,int endPage,Predicate[] predicates){
             heapFile=file;
             transactionId=tid;
+            this.startPage=startPage;
+            this.endPage=endPage;
+            this.predicates=predicates;
         }
 
         public Iterator<Tuple> getTupleIterator(int page) throws ArrayIndexOutOfBoundsException, TransactionAbortedException, DbException {
             if(page<0||page>=heapFile.numPages())
                 throw new ArrayIndexOutOfBoundsException();
 
-            HeapPageId pageId=new HeapPageId(heapFile.getId(),currentPage);
-            return ((HeapPage)(Database.getBufferPool().getPage(transactionId,pageId,Permissions.READ_ONLY))).iterator();
+            //由zone map判断该页不可能有满足谓词的tuple，不读该页
+            if(predicates.length>0&&!heapFile.getZoneMap().mightMatch(page,predicates))
+                return Collections.emptyIterator();
+
+            HeapPageId pageId=new HeapPageId(heapFile.getId(),page);
+            HeapPage heapPage=(HeapPage)Database.getBufferPool().getPage(transactionId,pageId,Permissions.READ_ONLY);
+            if(columns!=null)
+                return heapPage.iterator(predicates,columns,outTd);
+            if(predicates.length==0)
+                return heapPage.iterator();
+            return heapPage.iterator(predicates);
+        }
+
+        //扫描范围的最后一页（不包含）
+        private int lastPage() {
+            if(endPage<0)
+                return heapFile.numPages();
+            return Math.min(endPage,heapFile.numPages());
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            currentPage=0;
+            shared=startPage==0&&endPage<0;
+            firstPage=shared?heapFile.getSharedScans().attach(this,heapFile.numPages()):startPage;
+            currentPage=firstPage;
+            wrapped=false;
+            if(currentPage>=lastPage()){
+                //空的文件或分区
+                close();
+                return;
+            }
             tupleIterator=this.getTupleIterator(currentPage);
         }
 
+        //移动到下一页，没有下一页时返回false
+        private boolean advance() {
+            if(!wrapped&&currentPage<lastPage()-1)
+                currentPage++;
+            else if(!wrapped&&shared&&firstPage>0){
+                wrapped=true;
+                currentPage=0;
+            }
+            else if(wrapped&&currentPage<firstPage-1)
+                currentPage++;
+            else
+                return false;
+            if(shared)
+                heapFile.getSharedScans().report(this,currentPage);
+            return true;
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if(tupleIterator==null)
@@ -210,13 +357,15 @@ public class HeapFile implements DbFile {
             else
             {
                 //判断下一页的page是否还有tuple
-                if(currentPage< heapFile.numPages()-1)
+                while(advance())
                 {
-                    currentPage++;
                     tupleIterator=this.getTupleIterator(currentPage);
-                    return tupleIterator.hasNext();
+                    if(tupleIterator.hasNext())
+                        return true;
                 }
             }
+            //扫描结束，不再影响新扫描的起点
+            close();
             return false;
         }
 
@@ -239,6 +388,8 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             tupleIterator=null;
+            if(shared)
+                heapFile.getSharedScans().detach(this);
         }
     }
 }
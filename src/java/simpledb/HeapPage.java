@@ -19,6 +19,11 @@ public class HeapPage implements Page {
     final Tuple tuples[];
     final int numSlots;
 
+    //从磁盘读入的原始页数据：tuple在第一次被访问时才解码，页被修改前先全部解码，之后置为null
+    private byte[] data;
+    //每个字段在tuple槽内的字节偏移
+    private final int[] fieldOffsets;
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -45,24 +50,20 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        // the records themselves are decoded on first access, see tupleAt
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.data = data;
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
-        setBeforeImage();
+        // the page is not shared yet, so the before image needs no lock
+        oldData = data.clone();
 
         transactionId=null;
         dirty=false;
@@ -158,6 +159,105 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Returns the tuple in a slot, decoding it from the page data the first
+     * time it is asked for. Callers must hold this page's monitor.
+     */
+    private Tuple tupleAt(int slotId) {
+        if (tuples[slotId] == null && data != null && isSlotUsed(slotId)) {
+            int len = td.getSize();
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                    data, header.length + slotId * len, len));
+            tuples[slotId] = readNextTuple(dis, slotId);
+        }
+        return tuples[slotId];
+    }
+
+    /**
+     * Decodes every remaining tuple and drops the page data, so that the
+     * tuples array alone describes the page. Done before any modification.
+     */
+    private void decodeAll() {
+        if (data == null)
+            return;
+        for (int i=0; i<numSlots; i++)
+            tupleAt(i);
+        data = null;
+    }
+
+    /**
+     * Evaluates a predicate against the stored bytes of a slot that has not
+     * been decoded. Integer fields are compared in place; string fields are
+     * decoded on their own, without building the rest of the tuple.
+     */
+    private boolean matchesRaw(int slotId, Predicate p) {
+        int field = p.getField();
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            return IntField.compare(rawInt(slotId, field), p.getOp(),
+                    ((IntField) p.getOperand()).getValue());
+        return decodeField(slotId, field).compare(p.getOp(), p.getOperand());
+    }
+
+    /** Reads an int field of an undecoded slot in place */
+    private int rawInt(int slotId, int field) {
+        int offset = header.length + slotId * td.getSize() + fieldOffsets[field];
+        return ((data[offset] & 0xff) << 24) | ((data[offset+1] & 0xff) << 16)
+                | ((data[offset+2] & 0xff) << 8) | (data[offset+3] & 0xff);
+    }
+
+    /** Decodes a single field of an undecoded slot */
+    private Field decodeField(int slotId, int field) {
+        Type type = td.getFieldType(field);
+        if (type == Type.INT_TYPE)
+            return new IntField(rawInt(slotId, field));
+        int offset = header.length + slotId * td.getSize() + fieldOffsets[field];
+        try {
+            return type.parse(new DataInputStream(
+                    new ByteArrayInputStream(data, offset, type.getLen())));
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /** @return true if the tuple in a used slot satisfies every predicate */
+    private boolean matches(int slotId, Predicate[] predicates) {
+        for (Predicate p : predicates) {
+            boolean ok = tuples[slotId] != null ? p.filter(tuples[slotId])
+                    : matchesRaw(slotId, p);
+            if (!ok)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the smallest and largest value of some int columns over the
+     * tuples on this page, without decoding tuples that are not decoded yet.
+     * If the page is empty, every min is Integer.MAX_VALUE and every max
+     * is Integer.MIN_VALUE.
+     *
+     * @param fields the indexes of int fields
+     * @param min receives the smallest value of each of the fields
+     * @param max receives the largest value of each of the fields
+     */
+    public synchronized void intRanges(int[] fields, int[] min, int[] max) {
+        Arrays.fill(min, Integer.MAX_VALUE);
+        Arrays.fill(max, Integer.MIN_VALUE);
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            for (int j=0; j<fields.length; j++) {
+                int v = tuples[i] != null
+                        ? ((IntField) tuples[i].getField(fields[j])).getValue()
+                        : rawInt(i, fields[j]);
+                if (v < min[j])
+                    min[j] = v;
+                if (v > max[j])
+                    max[j] = v;
+            }
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -169,7 +269,8 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
+    public synchronized byte[] getPageData() {
+        decodeAll();
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -251,9 +352,10 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        decodeAll();
         int tupleno=t.getRecordId().getTupleNumber();
 
         if(!isSlotUsed(tupleno)) throw new DbException("delete fail");
@@ -273,9 +375,10 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        decodeAll();
 
         if(!t.getTupleDesc().equals(this.td)||this.getNumEmptySlots()==0)
             throw new DbException("insert fail");
@@ -374,12 +477,51 @@ public class HeapPage implements Page {
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
-    public Iterator<Tuple> iterator() {
+    public synchronized Iterator<Tuple> iterator() {
         // some code goes here
         ArrayList<Tuple> tuples1=new ArrayList<>();
         for(int i=0;i<numSlots;i++) {
             if (isSlotUsed(i))
-                tuples1.add(tuples[i]);
+                tuples1.add(tupleAt(i));
+        }
+        return tuples1.iterator();
+    }
+
+    /**
+     * @param predicates predicates that every returned tuple must satisfy
+     * @return an iterator over the tuples on this page that satisfy all of
+     *         the predicates. Predicates are tested on the stored bytes of
+     *         tuples that have not been decoded yet, so rejected tuples are
+     *         never built.
+     */
+    public synchronized Iterator<Tuple> iterator(Predicate[] predicates) {
+        ArrayList<Tuple> tuples1=new ArrayList<>();
+        for(int i=0;i<numSlots;i++) {
+            if (isSlotUsed(i) && matches(i, predicates))
+                tuples1.add(tupleAt(i));
+        }
+        return tuples1.iterator();
+    }
+
+    /**
+     * Like {@link #iterator(Predicate[])}, but returns only some columns of
+     * each tuple. For tuples that have not been decoded yet only those
+     * columns are read from the page; such partial tuples are not kept.
+     *
+     * @param predicates predicates over the full tuples of this page
+     * @param columns the indexes of the columns to return, in output order
+     * @param outTd the TupleDesc of the returned tuples
+     */
+    public synchronized Iterator<Tuple> iterator(Predicate[] predicates, int[] columns, TupleDesc outTd) {
+        ArrayList<Tuple> tuples1=new ArrayList<>();
+        for(int i=0;i<numSlots;i++) {
+            if (!isSlotUsed(i) || !matches(i, predicates))
+                continue;
+            Tuple t=new Tuple(outTd);
+            t.setRecordId(new RecordId(pid,i));
+            for(int j=0;j<columns.length;j++)
+                t.setField(j,tuples[i]!=null?tuples[i].getField(columns[j]):decodeField(i,columns[j]));
+            tuples1.add(t);
         }
         return tuples1.iterator();
     }
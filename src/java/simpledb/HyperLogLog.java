@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * HyperLogLog estimates the number of distinct values in a stream using a
+ * fixed amount of memory: one small register for each of 2^{@link #PRECISION}
+ * buckets, each holding the longest run of leading zeros seen among the
+ * hashes that fall in it. The estimate has a standard error of about
+ * 1.04/sqrt(2^PRECISION), or 1.6%.
+ * <p>
+ * Sketches of disjoint parts of a stream merge into the sketch of the whole
+ * stream, so that parts of a table can be summarized in parallel. Values
+ * cannot be removed from a sketch.
+ */
+public class HyperLogLog {
+
+    /** log2 of the number of registers */
+    public static final int PRECISION = 12;
+
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param hash a 64-bit hash of the value, such as {@link #hash(Field)}
+     */
+    public void add(long hash) {
+        int i = (int) (hash >>> (64 - PRECISION));
+        // the sentinel bit bounds the run of zeros
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[i])
+            registers[i] = (byte) rank;
+    }
+
+    /**
+     * Adds the values of another sketch to this one.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added to the sketch
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double e = alpha * REGISTERS * REGISTERS / sum;
+        // linear counting is more accurate while many registers are empty
+        if (e <= 2.5 * REGISTERS && zeros > 0)
+            e = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return Math.round(e);
+    }
+
+    /**
+     * @return a 64-bit hash of the value of a field, equal for equal fields
+     */
+    public static long hash(Field f) {
+        long h;
+        if (f instanceof IntField) {
+            h = ((IntField) f).getValue();
+        } else {
+            // FNV-1a over the characters
+            h = 0xcbf29ce484222325L;
+            String s = ((StringField) f).getValue();
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        // spread the bits, so that small ints do not all land in register 0
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Writes this sketch to a stream, to be read back by {@link #read}.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.write(registers);
+    }
+
+    /**
+     * Reads a sketch written by {@link #write}.
+     */
+    public static HyperLogLog read(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog();
+        in.readFully(h.registers);
+        return h;
+    }
+}
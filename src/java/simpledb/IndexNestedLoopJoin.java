@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is a nested-loops join whose inner input is a scan of
+ * a {@link BTreeFile} keyed on the inner join field. Rather than reading the
+ * whole inner table for every outer tuple, it looks up the matching tuples
+ * in the index (see {@link SeqScan#setIndexPredicate}). The inner input may
+ * be the scan itself or filters over it, which are applied to the tuples
+ * found.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private SeqScan innerScan;
+    private TupleDesc comboTD;
+    transient private Tuple t1;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be one that a B+ tree can look up (see
+     *            {@link #canLookUp})
+     * @param child1
+     *            Iterator for the left (outer) relation to join
+     * @param child2
+     *            Iterator for the right (inner) relation to join: a scan of
+     *            a B+ tree file keyed on the join field, possibly under
+     *            filters
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canLookUp(p.getOperator()))
+            throw new IllegalArgumentException("an index cannot look up " + p.getOperator());
+        innerScan = indexScan(child2, p.getField2());
+        if (innerScan == null)
+            throw new IllegalArgumentException("the inner side is not a scan of an index on the join field");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if the tuples satisfying <tt>key op value</tt> can be
+     *         looked up in a B+ tree
+     */
+    public static boolean canLookUp(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * Finds the scan under a join input, looking through filters, if it
+     * reads a B+ tree file keyed on the specified field and does not already
+     * look up a filter predicate in it.
+     *
+     * @param field
+     *            the index of a field in child's TupleDesc
+     * @return the scan, or null if there is none
+     */
+    static SeqScan indexScan(OpIterator child, int field) {
+        SeqScan scan = HashEquiJoin.probeScan(child);
+        if (scan == null || scan.getIndexPredicate() != null)
+            return null;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == scan.getTableField(field)
+                ? scan : null;
+    }
+
+    /** @return the op such that <tt>a op b</tt> iff <tt>b reverse(op) a</tt> */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * Advances to the next outer tuple and points the inner scan at the
+     * tuples that match it.
+     *
+     * @return false if there are no more outer tuples
+     */
+    private boolean nextOuter() throws DbException, TransactionAbortedException {
+        if (!child1.hasNext()) {
+            t1 = null;
+            return false;
+        }
+        t1 = child1.next();
+        // outer op key 等价于 key reverse(op) outer
+        innerScan.setIndexPredicate(new IndexPredicate(reverse(pred.getOperator()),
+                t1.getField(pred.getField1())));
+        child2.rewind();
+        return true;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        nextOuter();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        innerScan.setIndexPredicate(null);
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        nextOuter();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As in {@link Join}, a result is the concatenation of the
+     * outer and the inner tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (t1 != null) {
+            while (child2.hasNext()) {
+                // the index returns only the tuples that satisfy the predicate
+                Tuple t2 = child2.next();
+                int td1n = t1.getTupleDesc().numFields();
+                int td2n = t2.getTupleDesc().numFields();
+                Tuple t = new Tuple(comboTD);
+                for (int i = 0; i < td1n; i++)
+                    t.setField(i, t1.getField(i));
+                for (int i = 0; i < td2n; i++)
+                    t.setField(td1n + i, t2.getField(i));
+                return t;
+            }
+            nextOuter();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        innerScan = indexScan(child2, pred.getField2());
+    }
+
+}
@@ -51,26 +51,34 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(value, op, iVal.value);
+    }
+
+    /**
+     * Compares two int values the way {@link #compare(Predicate.Op, Field)}
+     * compares IntFields, without creating Field objects.
+     */
+    static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return value == operand;
         case NOT_EQUALS:
-            return value != iVal.value;
+            return value != operand;
 
         case GREATER_THAN:
-            return value > iVal.value;
+            return value > operand;
 
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
+            return value >= operand;
 
         case LESS_THAN:
-            return value < iVal.value;
+            return value < operand;
 
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
+            return value <= operand;
 
     case LIKE:
-        return value == iVal.value;
+        return value == operand;
         }
 
         return false;
@@ -22,6 +22,31 @@ public class IntHistogram {
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        this.min=min;
+        this.max=max;
+        //桶数不超过值的个数，每个桶至少放一个值
+        long range=(long)max-min+1;
+        this.buckets=(int)Math.max(1,Math.min(buckets,range));
+        this.width=(range+this.buckets-1)/this.buckets;
+        counts=new long[this.buckets];
+    }
+
+    //第i个桶装[min+i*width, min+(i+1)*width-1]里的值，最后一个桶截到max
+    private final int buckets;
+    private final long width;
+    private final int min;
+    private final int max;
+    private final long[] counts;
+    private long total=0;
+
+    private int bucketOf(long v){
+        return (int)((v-min)/width);
+    }
+    private long bucketLow(int i){
+        return min+i*width;
+    }
+    private long bucketHigh(int i){
+        return Math.min(min+(i+1)*width-1,max);
     }
 
     /**
@@ -30,6 +55,10 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        if(v<min||v>max)
+            throw new IllegalArgumentException("value "+v+" outside of ["+min+", "+max+"]");
+        counts[bucketOf(v)]++;
+        total++;
     }
 
     /**
@@ -45,7 +74,46 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        if(total==0)
+            return 0.0;
+        switch (op){
+            case EQUALS:
+            case LIKE:
+                return countEqual(v)/total;
+            case NOT_EQUALS:
+                return 1.0-countEqual(v)/total;
+            case GREATER_THAN:
+                return countAbove(v)/total;
+            case GREATER_THAN_OR_EQ:
+                return countAbove((long)v-1)/total;
+            case LESS_THAN:
+                return 1.0-countAbove((long)v-1)/total;
+            case LESS_THAN_OR_EQ:
+                return 1.0-countAbove(v)/total;
+        }
+        return 1.0;
+    }
+
+    /** 估计等于v的值的个数，假设值在桶里均匀分布 */
+    private double countEqual(long v){
+        if(v<min||v>max)
+            return 0;
+        int i=bucketOf(v);
+        return (double)counts[i]/(bucketHigh(i)-bucketLow(i)+1);
+    }
+
+    /** 估计大于v的值的个数 */
+    private double countAbove(long v){
+        if(v<min)
+            return total;
+        if(v>=max)
+            return 0;
+        int i=bucketOf(v);
+        double n=0;
+        for(int j=i+1;j<buckets;j++)
+            n+=counts[j];
+        long hi=bucketHigh(i);
+        return n+(double)counts[i]*(hi-v)/(hi-bucketLow(i)+1);
     }
     
     /**
@@ -59,7 +127,15 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        if(total==0)
+            return 1.0;
+        //随机取一个值，等值谓词的期望选择率
+        double s=0;
+        for(int i=0;i<buckets;i++){
+            if(counts[i]!=0)
+                s+=(double)counts[i]*counts[i]/(bucketHigh(i)-bucketLow(i)+1);
+        }
+        return s/((double)total*total);
     }
     
     /**
@@ -67,6 +143,13 @@ public class IntHistogram {
      */
     public String toString() {
         // some code goes here
-        return null;
+        StringBuilder sb=new StringBuilder();
+        sb.append("IntHistogram(total=").append(total).append(", min=").append(min)
+                .append(", max=").append(max).append(", width=").append(width).append(")");
+        for(int i=0;i<buckets;i++){
+            if(counts[i]!=0)
+                sb.append(" [").append(bucketLow(i)).append(",").append(bucketHigh(i)).append("]:").append(counts[i]);
+        }
+        return sb.toString();
     }
 }
@@ -1,7 +1,6 @@
 package simpledb;
 
 
-import javafx.util.Pair;
 
 import java.util.*;
 
@@ -119,6 +118,53 @@ public class IntegerAggregator implements Aggregator {
         }
     }
 
+    /**
+     * Merge the groups of another IntegerAggregator into this one. AVG
+     * groups carry their (sum, count) pair, so the merged average is the
+     * same as if all tuples had gone through one aggregator.
+     *
+     * @param other
+     *            an IntegerAggregator with the same fields and operator
+     */
+    public void mergePartial(Aggregator other) {
+        IntegerAggregator partial=(IntegerAggregator)other;
+        if(fieldNames[1]==null){
+            fieldNames[0]=partial.fieldNames[0];
+            fieldNames[1]=partial.fieldNames[1];
+        }
+        for(Map.Entry<Field,Integer> e:partial.hashMap.entrySet()){
+            Field gbField=e.getKey();
+            int value=e.getValue();
+            if(!hashMap.containsKey(gbField)){
+                hashMap.put(gbField,value);
+                if(this.what==Op.AVG){
+                    Integer[] arr=partial.countHashMap.get(gbField);
+                    countHashMap.put(gbField,new Integer[]{arr[0],arr[1]});
+                }
+                continue;
+            }
+            switch (this.what){
+                case MIN:
+                    hashMap.replace(gbField,Math.min(hashMap.get(gbField),value));
+                    break;
+                case MAX:
+                    hashMap.replace(gbField,Math.max(hashMap.get(gbField),value));
+                    break;
+                case COUNT:
+                case SUM://部分计数和部分和直接相加
+                    hashMap.replace(gbField,hashMap.get(gbField)+value);
+                    break;
+                case AVG://合并(sum,count)后重新求平均
+                    Integer[] arr=countHashMap.get(gbField);
+                    Integer[] otherArr=partial.countHashMap.get(gbField);
+                    arr[0]+=otherArr[0];
+                    arr[1]+=otherArr[1];
+                    hashMap.replace(gbField,arr[0]/arr[1]);
+                    break;
+            }
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * 
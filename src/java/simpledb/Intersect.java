@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * Intersect is an operator that implements a relational INTERSECT: the
+ * distinct tuples of its first child that also occur in its second child.
+ * The children must have the same field types; see {@link SetOperator}.
+ */
+public class Intersect extends SetOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor. Keeps up to {@link #DEFAULT_MEMORY_PAGES} pages' worth of
+     * tuples in memory.
+     *
+     * @param child1
+     *            the tuples to return
+     * @param child2
+     *            the tuples they must occur in
+     * @throws IllegalArgumentException
+     *             if the children do not have the same field types
+     */
+    public Intersect(OpIterator child1, OpIterator child2) {
+        this(child1, child2, defaultMemoryBytes());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child1
+     *            the tuples to return
+     * @param child2
+     *            the tuples they must occur in
+     * @param memoryBytes
+     *            the number of bytes of tuples to keep in memory
+     * @throws IllegalArgumentException
+     *             if the children do not have the same field types
+     */
+    public Intersect(OpIterator child1, OpIterator child2, long memoryBytes) {
+        super(new OpIterator[] { child1, child2 }, memoryBytes);
+    }
+
+    protected int outputChildren() {
+        return 1;
+    }
+
+    protected boolean keepMatches() {
+        return true;
+    }
+}
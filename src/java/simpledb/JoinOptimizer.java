@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.awt.GraphicsEnvironment;
 import java.util.*;
 
 import javax.swing.*;
@@ -11,8 +12,54 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    /**
+     * Queries joining more tables than this are ordered by a heuristic
+     * search rather than by exhaustive dynamic programming.
+     */
+    public static final int DEFAULT_MAX_DP_TABLES = 14;
+
+    /** Milliseconds that ordering the joins of one query may take */
+    public static final long DEFAULT_PLANNING_BUDGET = 200;
+
+    private static final LogicalJoinNode.Algorithm[] ALGORITHMS = LogicalJoinNode.Algorithm.values();
+
+    private static int maxDpTables = DEFAULT_MAX_DP_TABLES;
+    private static long planningBudget = DEFAULT_PLANNING_BUDGET;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    private Map<String, Double> indexScanCosts = new HashMap<String, Double>();
+    private Map<String, String> tableSignatures = new HashMap<String, String>();
+
+    public static int getMaxDpTables() {
+        return maxDpTables;
+    }
+
+    /**
+     * Set the number of tables above which joins are ordered heuristically
+     * 
+     * @param tables
+     *            the largest number of tables ordered by dynamic programming
+     */
+    public static void setMaxDpTables(int tables) {
+        maxDpTables = tables;
+    }
+
+    public static long getPlanningBudget() {
+        return planningBudget;
+    }
+
+    /**
+     * Set how long ordering the joins of a query may take. Dynamic
+     * programming that runs out of time gives way to the heuristic search,
+     * which returns the best plan it has found when the time is up.
+     * 
+     * @param millis
+     *            the time budget, in milliseconds
+     */
+    public static void setPlanningBudget(long millis) {
+        planningBudget = millis;
+    }
 
     /**
      * Constructor
@@ -27,6 +74,36 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Tell the optimizer which tables are read through their index, looking
+     * up one of their filter predicates, rather than scanned in full. The
+     * cost of reading such a table is the given cost instead of that of a
+     * scan, and it cannot be the inner side of an index nested-loops join,
+     * since its index is already in use.
+     * 
+     * @param costs
+     *            the estimated cost of reading each such table, by alias
+     */
+    public void setIndexScanCosts(Map<String, Double> costs) {
+        this.indexScanCosts = costs;
+    }
+
+    /**
+     * Tell the optimizer the signature of each table, under which
+     * {@link CardinalityFeedback} knows it (see
+     * {@link CardinalityFeedback#tableSignature}). The estimated size of the
+     * result of joining tables that all have signatures is corrected by the
+     * feedback recorded for that result, and each join of the plan is
+     * labelled with the signature and uncorrected estimate of its result
+     * (see {@link LogicalJoinNode#signature}).
+     * 
+     * @param signatures
+     *            the signature of each table, by alias
+     */
+    public void setTableSignatures(Map<String, String> signatures) {
+        this.tableSignatures = signatures;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -44,6 +121,31 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, 1);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)}, but
+     * allowed to use the specified number of worker threads. The join is
+     * computed with the algorithm the optimizer chose for it (see
+     * {@link LogicalJoinNode#algorithm}); plan1 is the outer side, and the
+     * build side of a hash join. An index nested-loops join whose plan2 is
+     * not a scan of an index on the join field falls back to a hash join for
+     * equality, and to a block nested-loops join otherwise. A join without a
+     * chosen algorithm is a nested-loops {@link Join}. Hash joins, and
+     * equality joins without a chosen algorithm, are run as a
+     * {@link ParallelHashEquiJoin} when parallelism is greater than one. The
+     * inner side of a nested-loops join that is not a bare scan is read
+     * through a {@link Spool}, so that the subtree runs once rather than
+     * once per outer tuple or block.
+     *
+     * @param parallelism
+     *            the number of threads the join may use
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+            OpIterator plan1, OpIterator plan2, int parallelism)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -68,7 +170,29 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        LogicalJoinNode.Algorithm a = lj.algorithm;
+        if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP
+                && (!IndexNestedLoopJoin.canLookUp(lj.p)
+                        || IndexNestedLoopJoin.indexScan(plan2, t2id) == null))
+            a = lj.p == Predicate.Op.EQUALS ? LogicalJoinNode.Algorithm.HASH
+                    : LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP;
+
+        if (parallelism > 1 && lj.p == Predicate.Op.EQUALS
+                && (a == null || a == LogicalJoinNode.Algorithm.HASH))
+            j = new ParallelHashEquiJoin(p, plan1, plan2, parallelism);
+        else if (a == LogicalJoinNode.Algorithm.HASH)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP)
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        else {
+            // the inner side is rewound once per outer tuple (or block)
+            if (!(plan2 instanceof SeqScan))
+                plan2 = new Spool(plan2);
+            if (a == LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP)
+                j = new BlockNestedLoopJoin(p, plan1, plan2);
+            else
+                j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
@@ -98,7 +222,9 @@ public class JoinOptimizer {
      *            Estimated cost of one full scan of the table on the right-hand
      *            side of the query
      * @return An estimate of the cost of this query, in terms of cost1 and
-     *         cost2
+     *         cost2, for the algorithm chosen for j (a nested-loops join if
+     *         none was chosen); see
+     *         {@link #estimateJoinCost(LogicalJoinNode.Algorithm, int, int, double, double, double)}
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
@@ -107,11 +233,48 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            //不知道索引查找的代价，按每次查找扫一遍内表算
+            return estimateJoinCost(j.algorithm == null ? LogicalJoinNode.Algorithm.NESTED_LOOP
+                    : j.algorithm, card1, card2, cost1, cost2, cost2);
+        }
+    }
+
+    /**
+     * Estimate the cost of a join computed with the specified algorithm, the
+     * left-hand side being the outer side (and the build side of a hash
+     * join). As in {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)},
+     * applying a predicate, hashing a tuple or probing a hash table costs 1.
+     * <ul>
+     * <li>A nested-loops join reads the right-hand side once per left-hand
+     * tuple, and compares every pair of tuples.
+     * <li>A block nested-loops join reads the right-hand side once per block
+     * of {@link BlockNestedLoopJoin#BLOCK_SIZE} left-hand tuples.
+     * <li>A hash join hashes the left-hand side {@link HashEquiJoin#MAP_SIZE}
+     * tuples at a time, and reads and probes with the right-hand side once
+     * per batch.
+     * <li>An index nested-loops join looks up the matching right-hand tuples
+     * of each left-hand tuple, at a cost of probeCost each.
+     * </ul>
+     *
+     * @param probeCost
+     *            the cost of looking up, in the index of the right-hand
+     *            table, the tuples that match one left-hand tuple (see
+     *            {@link TableStats#estimateIndexScanCost}); only used by
+     *            index nested-loops joins
+     */
+    public static double estimateJoinCost(LogicalJoinNode.Algorithm a, int card1,
+            int card2, double cost1, double cost2, double probeCost) {
+        switch (a) {
+        case BLOCK_NESTED_LOOP:
+            return cost1+Math.max(1,Math.ceil((double)card1/BlockNestedLoopJoin.BLOCK_SIZE))*cost2
+                    +(double)card1*card2;
+        case HASH:
+            return cost1+card1+Math.max(1,Math.ceil((double)card1/HashEquiJoin.MAP_SIZE))*(cost2+card2);
+        case INDEX_NESTED_LOOP:
+            return cost1+card1*probeCost;
+        default:
+            //嵌套循环：外表扫一遍，每个外表元组扫一遍内表并比较一次
+            return cost1+card1*cost2+(double)card1*card2;
         }
     }
 
@@ -149,17 +312,77 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * 
+     * An equality join on a primary key returns at most one tuple per tuple
+     * of the other side. Otherwise the selectivity of the predicate over the
+     * cross product is estimated from the statistics of both columns (see
+     * {@link TableStats#estimateJoinSelectivity}), assuming the filters
+     * already applied to each side are independent of the join columns.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
         // some code goes here
+        double sel=joinOp==Predicate.Op.EQUALS&&(t1pkey||t2pkey)?-1:
+                columnJoinSelectivity(joinOp,table1Alias,table2Alias,field1PureName,
+                        field2PureName,stats,tableAliasToId);
+        return joinCardinality(joinOp,card1,card2,t1pkey,t2pkey,sel);
+    }
+
+    /**
+     * @return the cardinality of a join of two inputs with the given
+     *         cardinalities, when the selectivity of its predicate over the
+     *         cross product is sel (or -1 if unknown)
+     */
+    private static int joinCardinality(Predicate.Op joinOp, int card1, int card2,
+            boolean t1pkey, boolean t2pkey, double sel) {
+        int card;
+        if(joinOp==Predicate.Op.EQUALS&&(t1pkey||t2pkey)){
+            if(t1pkey&&t2pkey)
+                card=Math.min(card1,card2);
+            else
+                card=t1pkey?card2:card1;
+            return card <= 0 ? 1 : card;
+        }
+        double cross=(double)card1*card2;
+        if(sel<0){
+            //没有两列的统计信息（比如子查询的列），用经验值
+            if(joinOp==Predicate.Op.EQUALS)
+                return Math.max(1,Math.max(card1,card2));
+            sel=joinOp==Predicate.Op.NOT_EQUALS?1.0:0.3;
+        }
+        card=(int)Math.min(Integer.MAX_VALUE,Math.round(cross*sel));
         return card <= 0 ? 1 : card;
     }
 
+    /**
+     * @return the selectivity of a join predicate over the cross product of
+     *         two base tables, or -1 if either column is not a column of a
+     *         table with statistics
+     */
+    private static double columnJoinSelectivity(Predicate.Op joinOp,
+            String table1Alias, String table2Alias, String field1PureName,
+            String field2PureName, Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId) {
+        Integer t1=tableAliasToId.get(table1Alias), t2=tableAliasToId.get(table2Alias);
+        if(t1==null||t2==null)
+            return -1;
+        TableStats s1=stats.get(Database.getCatalog().getTableName(t1));
+        TableStats s2=stats.get(Database.getCatalog().getTableName(t2));
+        if(s1==null||s2==null)
+            return -1;
+        int f1,f2;
+        try {
+            f1=Database.getCatalog().getTupleDesc(t1).fieldNameToIndex(field1PureName);
+            f2=Database.getCatalog().getTupleDesc(t2).fieldNameToIndex(field2PureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+        return TableStats.estimateJoinSelectivity(s1,f1,joinOp,s2,f2);
+    }
+
     /**
      * Helper method to enumerate all of the subsets of a given size of a
      * specified vector.
@@ -194,8 +417,23 @@ public class JoinOptimizer {
     }
 
     /**
-     * Compute a logical, reasonably efficient join on the specified tables. See
-     * PS4 for hints on how this should be implemented.
+     * Compute a logical, reasonably efficient join on the specified tables.
+     * 
+     * The tables of the query are the vertices of a join graph and the join
+     * predicates its edges. A set of tables is a bitmask of their vertex
+     * numbers, and the cheapest plan found for each set is kept in a table
+     * indexed by that mask. Plans are built bottom-up by dynamic programming
+     * over pairs of disjoint connected subgraphs joined by at least one edge
+     * (DPccp, Moerkotte and Neumann, VLDB 2006), so sets that could only be
+     * joined by a cross product are never considered. Either half of a join
+     * may itself be a join, so the plan can be a bushy tree. Joins with subqueries
+     * and predicates between two columns of one table are done first, on the
+     * table they belong to.
+     * 
+     * Queries joining more than {@link #getMaxDpTables} tables, and those
+     * whose enumeration does not finish within {@link #getPlanningBudget},
+     * are instead ordered by greedy searches improved by random swaps (see
+     * {@link JoinGraph#search}), so planning time stays bounded.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -207,8 +445,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed. Each join joins the subplans
+     *         built so far that contain its two tables; in a bushy plan both
+     *         can be joins themselves.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -217,11 +457,662 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
+        JoinGraph g=new JoinGraph(stats,filterSelectivities,
+                System.currentTimeMillis()+planningBudget);
+        Vector<LogicalJoinNode> order=g.build(joins);
+        if(!g.connected())
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
+        Subplan cc=null;
+        if(g.aliases.size()<=maxDpTables){
+            g.enumerate();
+            cc=g.best.get(g.all());
+        }
+        if(cc==null||g.expired){
+            //动态规划没做或者没做完，用启发式搜索；做到一半时已有的完整计划也可以用
+            Subplan found=g.search(new Random(g.aliases.size()));
+            if(cc==null||found.cost<cc.cost)
+                cc=found;
+        }
+        g.label(cc);
+        order.addAll(cc.plan());
+        if(explain&&!GraphicsEnvironment.isHeadless())
+            printJoins(order,g.planCache(order),stats,filterSelectivities);
+        return order;
+    }
 
-        // some code goes here
-        //Replace the following
-        return joins;
+    /**
+     * A plan in the plan table: the scan of a table, or the join of two
+     * smaller plans. The order of its joins is only listed when it is needed,
+     * rather than copied into every candidate plan.
+     */
+    private static class Subplan extends CostCard {
+        Subplan outer, inner;
+        LogicalJoinNode join;
+        LogicalJoinNode.Algorithm algorithm;
+        /** 计划里的表（位掩码），和运行时反馈修正之前估计的基数 */
+        long tables;
+        int estimate;
+        /** 同一对子计划之间的其余谓词，在连接结果上过滤 */
+        Vector<LogicalJoinNode> filters;
+
+        /** @return the joins of this plan, in the order they are done */
+        Vector<LogicalJoinNode> plan() {
+            if(plan==null){
+                plan=new Vector<LogicalJoinNode>();
+                if(join!=null){
+                    plan.addAll(outer.plan());
+                    plan.addAll(inner.plan());
+                    plan.add(join.withAlgorithm(algorithm));
+                    if(filters!=null)
+                        plan.addAll(filters);
+                }
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * The join graph of the query being optimized, and the table of the
+     * cheapest plans found for its connected subgraphs.
+     */
+    private class JoinGraph {
+        final HashMap<String, TableStats> stats;
+        final HashMap<String, Double> filterSelectivities;
+        /** 别名 -> 顶点编号 */
+        final HashMap<String, Integer> vertices = new HashMap<String, Integer>();
+        final Vector<String> aliases = new Vector<String>();
+        /** 每个顶点的邻居集合 */
+        long[] neighbors;
+        /** 连接两个不同表的谓词，交换内外表后的谓词，和它们两端的顶点 */
+        final Vector<LogicalJoinNode> edges = new Vector<LogicalJoinNode>();
+        LogicalJoinNode[] swapped;
+        long[] ends1, ends2;
+        /** 每个谓词在笛卡尔积上的选择率（-1 表示不知道），两端的列是不是主键；枚举时不用反复查统计信息 */
+        double[] selectivities;
+        boolean[] pkeys1, pkeys2;
+        /** 以谓词一端的表为内表做索引嵌套循环连接时，每个外表元组查一次索引的代价（没有索引是无穷大） */
+        double[] probes1, probes2;
+        /** 上一次 cheapest 选出的算法 */
+        private LogicalJoinNode.Algorithm algorithm;
+        /** 顶点集合（位掩码） -> 目前最便宜的计划 */
+        final HashMap<Long, Subplan> best = new HashMap<Long, Subplan>();
+        /** 表集合（位掩码） -> 运行时反馈给出的基数修正（没有记录时为 null）；没有反馈时整个为 null */
+        HashMap<Long, Double> corrections;
+        /** 规划的截止时间；超时后枚举停下来 */
+        final long deadline;
+        boolean expired;
+        private int pairs;
+
+        JoinGraph(HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities, long deadline) {
+            this.stats = stats;
+            this.filterSelectivities = filterSelectivities;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Add the tables and predicates of the given joins to the graph, and
+         * plan a scan of each table.
+         * 
+         * @return the joins that are done on a single table before any other
+         *         join: those with a subquery, and those comparing two columns
+         *         of the same table
+         */
+        Vector<LogicalJoinNode> build(Vector<LogicalJoinNode> joins)
+                throws ParsingException {
+            Vector<LogicalJoinNode> local=new Vector<LogicalJoinNode>();
+            for(LogicalJoinNode j:joins){
+                vertex(j.t1Alias);
+                if(j instanceof LogicalSubplanJoinNode||j.t1Alias.equals(j.t2Alias)){
+                    local.add(j);
+                    continue;
+                }
+                vertex(j.t2Alias);
+                edges.add(j);
+            }
+            if(aliases.size()>Long.SIZE)
+                throw new ParsingException("Too many tables in join: "+aliases.size());
+            if(!CardinalityFeedback.isEmpty())
+                corrections=new HashMap<Long, Double>();
+            neighbors=new long[aliases.size()];
+            int n=edges.size();
+            swapped=new LogicalJoinNode[n];
+            ends1=new long[n];
+            ends2=new long[n];
+            selectivities=new double[n];
+            pkeys1=new boolean[n];
+            pkeys2=new boolean[n];
+            probes1=new double[n];
+            probes2=new double[n];
+            for(int e=0;e<n;e++){
+                LogicalJoinNode j=edges.get(e);
+                swapped[e]=j.swapInnerOuter();
+                ends1[e]=1L<<vertices.get(j.t1Alias);
+                ends2[e]=1L<<vertices.get(j.t2Alias);
+                neighbors[vertices.get(j.t1Alias)]|=ends2[e];
+                neighbors[vertices.get(j.t2Alias)]|=ends1[e];
+                selectivities[e]=selectivity(j);
+                pkeys1[e]=isPkey(j.t1Alias,j.f1PureName);
+                pkeys2[e]=isPkey(j.t2Alias,j.f2PureName);
+                probes2[e]=probeCost(j,selectivities[e]);
+                probes1[e]=probeCost(swapped[e],selectivities[e]);
+            }
+            for(int v=0;v<aliases.size();v++){
+                String alias=aliases.get(v);
+                TableStats s=stats.get(Database.getCatalog().getTableName(p.getTableId(alias)));
+                if(s==null)
+                    throw new ParsingException("No statistics for table "+alias);
+                Subplan cc=new Subplan();
+                cc.tables=1L<<v;
+                Double indexCost=indexScanCosts.get(alias);
+                cc.cost=indexCost!=null?indexCost:s.estimateScanCost();
+                cc.card=s.estimateTableCardinality(filterSelectivity(alias));
+                for(LogicalJoinNode j:local){
+                    if(!j.t1Alias.equals(alias))
+                        continue;
+                    //子查询的代价算在这个表上；两列之间的比较只是过滤
+                    if(j instanceof LogicalSubplanJoinNode)
+                        cc.cost=estimateJoinCost(j,cc.card,0,cc.cost,0);
+                    else
+                        cc.card=filter(cc.card,selectivity(j));
+                }
+                cc.estimate=cc.card;
+                if(corrections!=null)
+                    cc.card=correct(cc.tables,cc.estimate,cc.card);
+                best.put(1L<<v,cc);
+            }
+            return local;
+        }
+
+        private void vertex(String alias) throws ParsingException {
+            if(vertices.containsKey(alias))
+                return;
+            if(p.getTableId(alias)==null)
+                throw new ParsingException("Unknown table "+alias);
+            vertices.put(alias,aliases.size());
+            aliases.add(alias);
+        }
+
+        private double filterSelectivity(String alias) {
+            Double sel=filterSelectivities.get(alias);
+            return sel==null?1.0:sel;
+        }
+
+        private double selectivity(LogicalJoinNode j) {
+            return columnJoinSelectivity(j.p,j.t1Alias,j.t2Alias,j.f1PureName,
+                    j.f2PureName,stats,p.getTableAliasToIdMapping());
+        }
+
+        /**
+         * @return the cost of looking up the tuples of j's second table that
+         *         match one tuple of its first table, through the index of
+         *         the second table on the join column, or infinity if it has
+         *         no such index. sel is the selectivity of j over the cross
+         *         product, or -1 if unknown.
+         */
+        private double probeCost(LogicalJoinNode j, double sel) throws ParsingException {
+            //表已经通过索引读过滤条件，不能再按连接列查索引
+            if(!IndexNestedLoopJoin.canLookUp(j.p)||indexScanCosts.containsKey(j.t2Alias))
+                return Double.POSITIVE_INFINITY;
+            int table=p.getTableId(j.t2Alias);
+            TableStats s=stats.get(Database.getCatalog().getTableName(table));
+            if(s==null)
+                throw new ParsingException("No statistics for table "+j.t2Alias);
+            int field;
+            try {
+                field=Database.getCatalog().getTupleDesc(table).fieldNameToIndex(j.f2PureName);
+            } catch (NoSuchElementException e) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if(!s.hasIndex(field))
+                return Double.POSITIVE_INFINITY;
+            if(sel<0)
+                sel=j.p==Predicate.Op.EQUALS?1.0/Math.max(1,s.totalTuples()):0.3;
+            //读索引页，再逐个取出匹配的元组
+            return s.estimateIndexScanCost(sel)+sel*s.totalTuples();
+        }
+
+        /** @return card, reduced by the selectivity of a predicate between tables already joined */
+        private int filter(int card, double sel) {
+            if(sel<0)
+                return card;
+            return (int)Math.max(1,Math.round(card*sel));
+        }
+
+        /** @return the set of all vertices */
+        long all() {
+            return aliases.size()==Long.SIZE?-1L:(1L<<aliases.size())-1;
+        }
+
+        /** @return the vertices numbered at most v */
+        private long upTo(int v) {
+            return v==Long.SIZE-1?-1L:(1L<<(v+1))-1;
+        }
+
+        /** @return the vertices adjacent to s that are not in s */
+        private long neighborhood(long s) {
+            long n=0;
+            for(long rest=s;rest!=0;rest&=rest-1)
+                n|=neighbors[Long.numberOfTrailingZeros(rest)];
+            return n&~s;
+        }
+
+        /** @return true if every table is joined to every other, directly or not */
+        boolean connected() {
+            long s=1L;
+            for(long n=neighborhood(s);n!=0;n=neighborhood(s))
+                s|=n;
+            return s==all();
+        }
+
+        /**
+         * Emit every connected subgraph, each exactly once, with the
+         * connected subgraphs it can be joined to; every subgraph is emitted
+         * after all of its own subgraphs, so their plans are final by then.
+         */
+        void enumerate() {
+            for(int v=aliases.size()-1;v>=0&&!expired;v--){
+                emitCsg(1L<<v);
+                enumerateCsgRec(1L<<v,upTo(v));
+            }
+        }
+
+        /** 扩展连通子图 s，不用 x 里的顶点 */
+        private void enumerateCsgRec(long s, long x) {
+            long n=neighborhood(s)&~x;
+            if(n==0)
+                return;
+            //按数值递增枚举 n 的非空子集，子集总在超集之前
+            for(long sub=n&-n;sub!=0&&!expired;sub=(sub-n)&n)
+                emitCsg(s|sub);
+            for(long sub=n&-n;sub!=0&&!expired;sub=(sub-n)&n)
+                enumerateCsgRec(s|sub,x|n);
+        }
+
+        /** 枚举和 s1 相邻、不相交的连通子图；编号比 s1 最小顶点小的不用，避免重复 */
+        private void emitCsg(long s1) {
+            long x=s1|upTo(Long.numberOfTrailingZeros(s1));
+            long n=neighborhood(s1)&~x;
+            for(int v=Long.SIZE-1-Long.numberOfLeadingZeros(n);v>=0&&!expired;v--){
+                if((n&(1L<<v))==0)
+                    continue;
+                emitCcp(s1,1L<<v);
+                enumerateCmpRec(s1,1L<<v,x|(upTo(v)&n));
+            }
+        }
+
+        private void enumerateCmpRec(long s1, long s2, long x) {
+            long n=neighborhood(s2)&~x;
+            if(n==0)
+                return;
+            for(long sub=n&-n;sub!=0&&!expired;sub=(sub-n)&n)
+                emitCcp(s1,s2|sub);
+            for(long sub=n&-n;sub!=0&&!expired;sub=(sub-n)&n)
+                enumerateCmpRec(s1,s2|sub,x|n);
+        }
+
+        private void emitCcp(long s1, long s2) {
+            //每 1024 对看一次时间
+            if((++pairs&1023)==0&&System.currentTimeMillis()>deadline)
+                expired=true;
+            Subplan prev=best.get(s1|s2);
+            Subplan cc=join(s1,best.get(s1),s2,best.get(s2),
+                    prev==null?Double.POSITIVE_INFINITY:prev.cost);
+            if(cc!=null)
+                best.put(s1|s2,cc);
+        }
+
+        /**
+         * @return the cheapest plan joining plan a of the tables in s1 with
+         *         plan b of the tables in s2, either side being the outer and
+         *         with the cheapest join algorithm, or null if no predicate
+         *         connects them or the plan would cost bound or more. The
+         *         first predicate between them is the join predicate; any
+         *         others filter its result.
+         */
+        Subplan join(long s1, Subplan a, long s2, Subplan b, double bound) {
+            int first=-1;
+            for(int e=0;e<edges.size()&&first<0;e++){
+                if(connects(e,s1,s2))
+                    first=e;
+            }
+            if(first<0)
+                return null;
+            //j 的 t1 在 s1 里
+            boolean forward=(ends1[first]&s1)!=0;
+            LogicalJoinNode j=forward?edges.get(first):swapped[first];
+            LogicalJoinNode j2=forward?swapped[first]:edges.get(first);
+            //b 做内表时查的是 b 那一端的索引
+            double cost=cheapest(j,a,b,forward?probes2[first]:probes1[first]);
+            LogicalJoinNode.Algorithm alg=algorithm;
+            double cost2=cheapest(j2,b,a,forward?probes1[first]:probes2[first]);
+            if(Math.min(cost,cost2)>=bound)
+                return null;
+            Subplan outer=a,inner=b;
+            if(cost2<cost){
+                j=j2;
+                cost=cost2;
+                alg=algorithm;
+                outer=b;
+                inner=a;
+            }
+            Subplan cc=new Subplan();
+            cc.tables=s1|s2;
+            cc.cost=cost;
+            cc.algorithm=alg;
+            cc.outer=outer;
+            cc.inner=inner;
+            cc.join=j;
+            for(int e=first+1;e<edges.size();e++){
+                if(connects(e,s1,s2)){
+                    //其余的谓词在连接结果上过滤
+                    if(cc.filters==null)
+                        cc.filters=new Vector<LogicalJoinNode>();
+                    cc.filters.add(edges.get(e));
+                }
+            }
+            cc.card=resultCard(first,j,outer.card,inner.card,s1,s2);
+            if(corrections==null)
+                cc.estimate=cc.card;
+            else{
+                //未修正的估计从子计划未修正的估计算起，反馈记录的比例都是相对它的
+                cc.estimate=resultCard(first,j,outer.estimate,inner.estimate,s1,s2);
+                cc.card=correct(cc.tables,cc.estimate,cc.card);
+            }
+            return cc;
+        }
+
+        /**
+         * @return the number of tuples produced by joining card1 outer
+         *         tuples with card2 inner tuples by j, the first predicate
+         *         between s1 and s2, and filtering them by the others
+         */
+        private int resultCard(int first, LogicalJoinNode j, int card1, int card2, long s1, long s2) {
+            int card=joinCardinality(j.p,card1,card2,
+                    j==edges.get(first)?pkeys1[first]:pkeys2[first],
+                    j==edges.get(first)?pkeys2[first]:pkeys1[first],selectivities[first]);
+            for(int e=first+1;e<edges.size();e++){
+                if(connects(e,s1,s2))
+                    card=filter(card,selectivities[e]);
+            }
+            return card;
+        }
+
+        /** @return the signature of the result of joining the tables in s, or null if a table has none */
+        private String signature(long s) {
+            //单个表就是它自己的签名
+            if((s&(s-1))==0)
+                return tableSignatures.get(aliases.get(Long.numberOfTrailingZeros(s)));
+            ArrayList<String> tables=new ArrayList<String>();
+            for(long rest=s;rest!=0;rest&=rest-1){
+                String sig=tableSignatures.get(aliases.get(Long.numberOfTrailingZeros(rest)));
+                if(sig==null)
+                    return null;
+                tables.add(sig);
+            }
+            ArrayList<String> predicates=new ArrayList<String>();
+            for(int e=0;e<edges.size();e++){
+                if(((ends1[e]|ends2[e])&~s)==0)
+                    predicates.add(CardinalityFeedback.predicateSignature(edges.get(e),swapped[e]));
+            }
+            return CardinalityFeedback.joinSignature(tables,predicates);
+        }
+
+        /**
+         * @return the size of the result of joining the tables in s: the
+         *         uncorrected estimate times the correction recorded for the
+         *         result, or card, the size derived from the corrected sizes
+         *         of its parts, if none was recorded
+         */
+        private int correct(long s, int estimate, int card) {
+            Double c;
+            if(corrections.containsKey(s))
+                c=corrections.get(s);
+            else{
+                c=CardinalityFeedback.getCorrection(signature(s));
+                corrections.put(s,c);
+            }
+            return c==null?card:(int)Math.min(Integer.MAX_VALUE,Math.max(1,Math.round(estimate*c)));
+        }
+
+        /**
+         * Label each join of a plan with the signature and uncorrected
+         * estimated size of its result, for {@link CardinalityFeedback}.
+         */
+        void label(Subplan cc) {
+            if(cc.join==null)
+                return;
+            label(cc.outer);
+            label(cc.inner);
+            //plan() 里这个连接排在两个子计划的连接之后
+            LogicalJoinNode j=cc.plan().get(cc.outer.plan().size()+cc.inner.plan().size());
+            j.signature=signature(cc.tables);
+            j.estimate=cc.estimate;
+        }
+
+        /**
+         * Search for a cheap plan without enumerating them all. The first
+         * candidate is a bushy plan that repeatedly joins the two connected
+         * subplans with the smallest result (greedy operator ordering). Then,
+         * starting from each table in turn, greedily join the table that
+         * keeps the intermediate result smallest, and improve the cheapest
+         * of these left-deep orders by swapping two tables at random, keeping
+         * swaps that make the plan cheaper (iterative improvement); when no
+         * swap has helped for a while, restart from a random order. The
+         * search stops at the deadline, or once a number of restarts in a row
+         * found nothing better, and returns the cheapest plan found.
+         */
+        Subplan search(Random rand) {
+            int n=aliases.size();
+            //至少要有一个贪心的计划
+            Subplan found=greedyBushy();
+            int[] order=new int[n];
+            int[] cur=null;
+            double curCost=Double.POSITIVE_INFINITY;
+            for(int v=0;v<n;v++){
+                if(System.currentTimeMillis()>deadline)
+                    return found;
+                Subplan cc=greedy(v,order);
+                if(cc.cost<curCost){
+                    curCost=cc.cost;
+                    cur=order.clone();
+                }
+                if(cc.cost<found.cost)
+                    found=cc;
+            }
+            int stuck=0,restarts=0;
+            while(n>2&&restarts<=n&&System.currentTimeMillis()<deadline){
+                int i=rand.nextInt(n),k=rand.nextInt(n);
+                swap(cur,i,k);
+                Subplan cc=leftDeep(cur,curCost);
+                if(cc!=null){
+                    curCost=cc.cost;
+                    stuck=0;
+                    if(cc.cost<found.cost){
+                        found=cc;
+                        restarts=0;
+                    }
+                } else {
+                    swap(cur,i,k);
+                    if(++stuck>n*n){
+                        //局部最优了，换一个随机的起点
+                        randomOrder(rand,cur);
+                        curCost=leftDeep(cur,Double.POSITIVE_INFINITY).cost;
+                        stuck=0;
+                        restarts++;
+                    }
+                }
+            }
+            return found;
+        }
+
+        /** 每次把结果最小的一对相连的子计划连起来，直到只剩一个 */
+        private Subplan greedyBushy() {
+            Vector<Long> sets=new Vector<Long>();
+            Vector<Subplan> plans=new Vector<Subplan>();
+            for(int v=0;v<aliases.size();v++){
+                sets.add(1L<<v);
+                plans.add(best.get(1L<<v));
+            }
+            while(sets.size()>1){
+                Subplan next=null;
+                int pick1=-1,pick2=-1;
+                for(int i=0;i<sets.size();i++){
+                    long n=neighborhood(sets.get(i));
+                    for(int k=i+1;k<sets.size();k++){
+                        if((n&sets.get(k))==0)
+                            continue;
+                        Subplan candidate=join(sets.get(i),plans.get(i),sets.get(k),plans.get(k),
+                                Double.POSITIVE_INFINITY);
+                        if(next==null||candidate.card<next.card
+                                ||(candidate.card==next.card&&candidate.cost<next.cost)){
+                            next=candidate;
+                            pick1=i;
+                            pick2=k;
+                        }
+                    }
+                }
+                sets.set(pick1,sets.get(pick1)|sets.get(pick2));
+                plans.set(pick1,next);
+                sets.remove(pick2);
+                plans.remove(pick2);
+            }
+            return plans.get(0);
+        }
+
+        /** 从 start 开始，每次连接让中间结果最小的相邻表；顺序写进 order */
+        private Subplan greedy(int start, int[] order) {
+            long s=1L<<start;
+            Subplan cc=best.get(s);
+            order[0]=start;
+            for(int i=1;i<order.length;i++){
+                Subplan next=null;
+                int pick=-1;
+                for(long rest=neighborhood(s);rest!=0;rest&=rest-1){
+                    int v=Long.numberOfTrailingZeros(rest);
+                    Subplan candidate=join(s,cc,1L<<v,best.get(1L<<v),Double.POSITIVE_INFINITY);
+                    if(next==null||candidate.card<next.card
+                            ||(candidate.card==next.card&&candidate.cost<next.cost)){
+                        next=candidate;
+                        pick=v;
+                    }
+                }
+                cc=next;
+                s|=1L<<pick;
+                order[i]=pick;
+            }
+            return cc;
+        }
+
+        /**
+         * @return the left-deep plan joining the tables in the given order,
+         *         or null if a table is not joined to any table before it or
+         *         the plan would cost bound or more
+         */
+        private Subplan leftDeep(int[] order, double bound) {
+            long s=1L<<order[0];
+            Subplan cc=best.get(s);
+            for(int i=1;i<order.length&&cc!=null;i++){
+                long v=1L<<order[i];
+                //代价只增不减，超过 bound 就可以停了
+                cc=join(s,cc,v,best.get(v),bound);
+                s|=v;
+            }
+            return cc;
+        }
+
+        /** 随机走一遍连接图，每次从已经走到的表的邻居里随便挑一个 */
+        private void randomOrder(Random rand, int[] order) {
+            int v=rand.nextInt(order.length);
+            long s=1L<<v;
+            order[0]=v;
+            for(int i=1;i<order.length;i++){
+                long n=neighborhood(s);
+                for(int k=rand.nextInt(Long.bitCount(n));k>0;k--)
+                    n&=n-1;
+                v=Long.numberOfTrailingZeros(n);
+                order[i]=v;
+                s|=1L<<v;
+            }
+        }
+
+        private void swap(int[] order, int i, int k) {
+            int v=order[i];
+            order[i]=order[k];
+            order[k]=v;
+        }
+
+        /**
+         * @return the cost of joining outer with inner by j with the cheapest
+         *         algorithm, which is left in {@link #algorithm}. Ties go to
+         *         the simpler algorithm. probe is the cost of one index
+         *         lookup in inner (see {@link #probeCost}).
+         */
+        private double cheapest(LogicalJoinNode j, Subplan outer, Subplan inner, double probe) {
+            double min=Double.POSITIVE_INFINITY;
+            for(LogicalJoinNode.Algorithm a:ALGORITHMS){
+                double cost=cost(j,a,outer,inner,probe);
+                if(cost<min){
+                    min=cost;
+                    algorithm=a;
+                }
+            }
+            return min;
+        }
+
+        /**
+         * @return the cost of joining outer with inner by j with algorithm
+         *         a, or infinity if a cannot compute the join. The inner side
+         *         of a (block) nested-loops join that is itself a join is
+         *         computed once into a {@link Spool} (see
+         *         {@link #instantiateJoin}), which is then read again, at a
+         *         cost of one per tuple, instead of running the join again;
+         *         a hash join runs it again for each batch of the outer side.
+         *         Only a table can be looked up through its index.
+         */
+        private double cost(LogicalJoinNode j, LogicalJoinNode.Algorithm a,
+                Subplan outer, Subplan inner, double probe) {
+            switch(a){
+            case HASH:
+                if(j.p!=Predicate.Op.EQUALS)
+                    return Double.POSITIVE_INFINITY;
+                return estimateJoinCost(a,outer.card,inner.card,outer.cost,inner.cost,probe);
+            case INDEX_NESTED_LOOP:
+                if(inner.join!=null||probe==Double.POSITIVE_INFINITY)
+                    return Double.POSITIVE_INFINITY;
+                return estimateJoinCost(a,outer.card,inner.card,outer.cost,inner.cost,probe);
+            default:
+                if(inner.join==null)
+                    return estimateJoinCost(a,outer.card,inner.card,outer.cost,inner.cost,probe);
+                return inner.cost+estimateJoinCost(a,outer.card,inner.card,outer.cost,inner.card,probe);
+            }
+        }
+
+        /** @return true if the e-th edge has one end in s1 and the other in s2 */
+        private boolean connects(int e, long s1, long s2) {
+            return ((ends1[e]&s1)!=0&&(ends2[e]&s2)!=0)||((ends1[e]&s2)!=0&&(ends2[e]&s1)!=0);
+        }
+
+        /**
+         * @return a PlanCache with the cost and cardinality of every prefix
+         *         of order, for {@link #printJoins}
+         */
+        PlanCache planCache(Vector<LogicalJoinNode> order) {
+            PlanCache pc=new PlanCache();
+            HashSet<LogicalJoinNode> prefix=new HashSet<LogicalJoinNode>();
+            long s=0;
+            for(LogicalJoinNode j:order){
+                prefix.add(j);
+                s|=1L<<vertices.get(j.t1Alias);
+                if(!(j instanceof LogicalSubplanJoinNode))
+                    s|=1L<<vertices.get(j.t2Alias);
+                Subplan cc=best.get(s);
+                //先做的单表连接可能涉及几个还没连起来的表
+                if(cc!=null)
+                    pc.addPlan(new HashSet<LogicalJoinNode>(prefix),cc.cost,cc.card,cc.plan());
+            }
+            return pc;
+        }
     }
 
     // ===================== Private Methods =================================
@@ -470,9 +1361,10 @@ public class JoinOptimizer {
             // Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
+            root = new DefaultMutableTreeNode("Join " + j
+                    + (pc.getOrder(pathSoFar) == null ? "" : " (Cost ="
                     + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+                    + pc.getCard(pathSoFar) + ")"));
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
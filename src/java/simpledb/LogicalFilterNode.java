@@ -20,6 +20,9 @@ public class LogicalFilterNode {
     public String fieldPureName;
     
     public String fieldQuantifiedName;
+
+    /** The index of the statement parameter (a ?) that supplies c, or -1 if c is a constant */
+    public int parameter = -1;
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
         tableAlias = table;
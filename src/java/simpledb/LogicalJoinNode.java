@@ -23,6 +23,40 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The ways a join can be computed; see {@link JoinOptimizer#instantiateJoin} */
+    public enum Algorithm {
+        /** {@link Join}: the inner side is read once per outer tuple */
+        NESTED_LOOP("nested loop"),
+        /** {@link BlockNestedLoopJoin}: the inner side is read once per block of outer tuples */
+        BLOCK_NESTED_LOOP("block nested loop"),
+        /** {@link HashEquiJoin}: the outer side is hashed and the inner side probes it */
+        HASH("hash"),
+        /** {@link IndexNestedLoopJoin}: each outer tuple looks up the inner table's index */
+        INDEX_NESTED_LOOP("index nested loop");
+
+        private final String name;
+
+        private Algorithm(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** The algorithm chosen by the optimizer, or null if none was chosen */
+    public Algorithm algorithm;
+
+    /** The signature of the result of this join, and of any joins after it
+     * that only filter that result, under which {@link CardinalityFeedback}
+     * records its actual size; null if there is none */
+    public String signature;
+
+    /** The optimizer's estimate of the size of that result, before any
+     * correction from {@link CardinalityFeedback} */
+    public double estimate = -1;
+
     public LogicalJoinNode() {
     }
 
@@ -60,6 +94,15 @@ public class LogicalJoinNode {
             newp = p;
         
         LogicalJoinNode j2 = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
+        j2.algorithm = algorithm;
+        return j2;
+    }
+
+    /** Return a new LogicalJoinNode for the same join, done with the
+     * specified algorithm. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.algorithm = a;
         return j2;
     }
     
@@ -69,7 +112,7 @@ public class LogicalJoinNode {
     }
     
     @Override public String toString() {
-        return t1Alias + ":" + t2Alias ;//+ ";" + f1 + " " + p + " " + f2;
+        return t1Alias + ":" + t2Alias + (algorithm == null ? "" : "(" + algorithm + ")");//+ ";" + f1 + " " + p + " " + f2;
     }
     
     @Override public int hashCode() {
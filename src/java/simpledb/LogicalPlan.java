@@ -2,9 +2,12 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
@@ -25,6 +28,7 @@ public class LogicalPlan {
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
+    private Vector<Expression> expressionFilters;
     private HashMap<String, OpIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
 
@@ -36,12 +40,26 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private int parallelism = 1;
+    private int numParameters = 0;
+    private Predicate[] parameterPredicates = new Predicate[0];
+    private boolean distinct = false;
+    private String setOp = null;
+    private LogicalPlan setPlan = null;
+    private ArrayList<CardinalityFeedback.Observation> observations =
+        new ArrayList<CardinalityFeedback.Observation>();
 //    private Query owner;
 
+    /** Heap files with fewer pages than this are never scanned in parallel */
+    static final int MIN_PARALLEL_PAGES = 64;
+
+    private static volatile boolean sampleEstimation = true;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
         filters = new Vector<LogicalFilterNode>();
+        expressionFilters = new Vector<Expression>();
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String, OpIterator>();
         tableMap = new HashMap<String,Integer>();
@@ -66,6 +84,202 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Adds a predicate on a table to its subplan: into the scan, where
+        heap pages evaluate it before decoding tuples, or into each worker
+        of a parallel scan.
+    */
+    private void applyFilter(String alias, Predicate p) {
+        OpIterator subplan = subplanMap.get(alias);
+        if (subplan instanceof SeqScan) {
+            // evaluated by the scan before tuples are decoded
+            ((SeqScan) subplan).addPredicate(p);
+        } else if (subplan instanceof Gather) {
+            // filter inside each worker rather than after the gather
+            OpIterator[] parts = ((Gather) subplan).getChildren();
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i] instanceof SeqScan)
+                    ((SeqScan) parts[i]).addPredicate(p);
+                else
+                    parts[i] = new Filter(p, parts[i]);
+            }
+            ((Gather) subplan).setChildren(parts);
+        } else {
+            subplanMap.put(alias, new Filter(p, subplan));
+        }
+    }
+
+    /** Chooses how to read a table.  If its subplan is a scan of a
+        {@link BTreeFile} and one of its predicates on the key field can be
+        looked up in the tree more cheaply than the whole table can be
+        scanned, the scan reads only the tuples that satisfy it through the
+        index (see {@link SeqScan#setIndexPredicate}).  Predicates on
+        statement parameters are not looked up, since their values change
+        after the plan is built.
+        @param alias the table to choose for
+        @param preds the predicates on the table, most selective first
+        @param selectivities the estimated selectivity of each predicate
+        @param s the statistics of the table
+        @param indexScanCosts the estimated cost of reading the table is put
+          here, under its alias, if it is read through its index
+        @return the predicate looked up in the index, which the scan need
+          not evaluate again, or null if the table is scanned
+    */
+    private Predicate chooseAccessPath(String alias, ArrayList<Predicate> preds,
+            Map<Predicate, Double> selectivities, TableStats s,
+            Map<String, Double> indexScanCosts) {
+        OpIterator subplan = subplanMap.get(alias);
+        if (!(subplan instanceof SeqScan) || s == null)
+            return null;
+        SeqScan scan = (SeqScan) subplan;
+        for (Predicate p : preds) {
+            if (!IndexNestedLoopJoin.canLookUp(p.getOp()) || !s.hasIndex(scan.getTableField(p.getField())))
+                continue;
+            if (Arrays.asList(parameterPredicates).contains(p))
+                continue;
+            // the most selective predicate on the key is the cheapest to look up
+            double cost = s.estimateIndexScanCost(selectivities.get(p));
+            if (cost >= s.estimateScanCost())
+                return null;
+            scan.setIndexPredicate(new IndexPredicate(p.getOp(), p.getOperand()));
+            indexScanCosts.put(alias, cost);
+            return p;
+        }
+        return null;
+    }
+
+    /** Adds a Filter for a bound expression on a table above its subplan,
+        or above each worker of a parallel scan.
+    */
+    private void applyFilter(String alias, Expression e) {
+        OpIterator subplan = subplanMap.get(alias);
+        if (subplan instanceof Gather) {
+            OpIterator[] parts = ((Gather) subplan).getChildren();
+            for (int i = 0; i < parts.length; i++)
+                parts[i] = new Filter(e, parts[i]);
+            ((Gather) subplan).setChildren(parts);
+        } else {
+            subplanMap.put(alias, new Filter(e, subplan));
+        }
+    }
+
+    /** Converts the text of a constant in a filter to a field of a column's type.
+        @throws ParsingException if the column is an int and c is not
+    */
+    static Field parseConstant(Type type, String c) throws ParsingException {
+        if (type == Type.STRING_TYPE)
+            return new StringField(c, Type.STRING_LEN);
+        try {
+            return new IntField(Integer.parseInt(c));
+        } catch (NumberFormatException e) {
+            throw new ParsingException("Expected an integer, got " + c);
+        }
+    }
+
+    /** @return the alias of the one table an expression filter refers to */
+    private static String expressionTable(Expression e) {
+        HashSet<String> names = new HashSet<String>();
+        e.getFields(names);
+        return names.iterator().next().split("[.]")[0];
+    }
+
+    /** Works out which columns of a table the query uses, so that its scan
+        only decodes those.
+
+        @param table the table to inspect
+        @return the indexes of the used columns, in table order, or null if
+          every column is used (or the select list contains a *)
+    */
+    private int[] referencedColumns(LogicalScanNode table) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (Expression e : expressionFilters)
+            e.getFields(names);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<Integer> used = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(table.alias + "." + td.getFieldName(i)))
+                used.add(i);
+        }
+        if (used.isEmpty() || used.size() == td.numFields())
+            return null;
+        int[] columns = new int[used.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = used.get(i);
+        return columns;
+    }
+
+    /** Set whether {@link #physicalPlan} estimates the combined selectivity
+        of several filters on one table by evaluating them together on the
+        table's sample of tuples (see
+        {@link TableStats#estimateSelectivity(Expression, double)}), rather
+        than by multiplying their selectivities, which underestimates
+        correlated filters.  Defaults to true.
+
+        @param enabled true to estimate filters on the sample
+    */
+    public static void setSampleEstimation(boolean enabled) {
+        sampleEstimation = enabled;
+    }
+
+    /** Get the flag set via {@link #setSampleEstimation}. */
+    public static boolean isSampleEstimation() {
+        return sampleEstimation;
+    }
+
+    /** @return the TupleDesc of a table with its field names qualified by
+        alias, as in the TupleDesc of a scan of all its columns
+    */
+    private static TupleDesc qualifiedTupleDesc(int table, String alias) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table);
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = alias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /** Set the number of worker threads {@link #physicalPlan} may use.
+        Scans of large heap files in queries without joins are split into page
+        ranges that run under a {@link Gather}, with the filters on that table
+        applied by each worker; an aggregate over such a scan aggregates each
+        range separately and merges the partial results.  Equality joins are
+        instantiated as {@link ParallelHashEquiJoin}s.  Defaults to 1 (no
+        parallelism).
+
+        @param degree the number of threads to use
+    */
+    public void setParallelism(int degree) {
+        this.parallelism = degree;
+        if (setPlan != null)
+            setPlan.setParallelism(degree);
+    }
+
+    /** Get the parallelism set via {@link #setParallelism}. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -76,9 +290,18 @@ public class LogicalPlan {
         return tableMap.get(alias);
     }
     
+    /** @return the table ids of the aliases of this plan and of the plans
+        combined with it by set operations; {@link #addSetOperation} ensures
+        that an alias names the same table in all of them
+    */
     public HashMap<String,Integer> getTableAliasToIdMapping()
     {
-        return this.tableMap;
+        if (setPlan == null)
+            return this.tableMap;
+        // the aliases of the plans combined with this one, too
+        HashMap<String,Integer> m = new HashMap<String,Integer>(setPlan.getTableAliasToIdMapping());
+        m.putAll(tableMap);
+        return m;
     }
 
     /** Add a new filter to the logical plan
@@ -105,6 +328,74 @@ public class LogicalPlan {
         filters.addElement(lf);
     }
 
+    /** Add a filter whose constant is a statement parameter (a ?), to be
+     *  supplied with {@link #setParameters} before the plan is built.
+     *   @param field the field to filter on, as in {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @return the index of the parameter; parameters are numbered from 0
+     *   in the order they are added
+     *   @throws ParsingException if field is unknown or ambiguous
+     */
+    public int addParameterFilter(String field, Predicate.Op p) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, null);
+        lf.parameter = numParameters++;
+        filters.addElement(lf);
+        return lf.parameter;
+    }
+
+    /** @return the number of filters added with {@link #addParameterFilter} */
+    public int getNumParameters() {
+        return numParameters;
+    }
+
+    /** Sets the values of the statement parameters, which the plan is
+     *  optimized for.
+     *   @param values the value of each parameter, in the form
+     *   {@link #addFilter} takes constants
+     */
+    public void setParameters(String[] values) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.parameter >= 0)
+                lf.c = values[lf.parameter];
+        }
+    }
+
+    /** @return the predicate that each parameter is the operand of in the
+     *  last plan built by {@link #physicalPlan}, indexed by parameter
+     */
+    public Predicate[] getParameterPredicates() {
+        return parameterPredicates;
+    }
+
+    /** Add a filter that is an arbitrary condition, such as an OR or an
+     *  IN-list, on the columns of one table.  All of a table's expression
+     *  filters are evaluated by a single {@link Filter}, most selective
+     *  first.
+     *   @param e The condition; its column names must be fully qualified
+     *   (alias.field)
+     *   @throws ParsingException if the condition refers to no columns,
+     *   or to columns of more than one table
+     */
+    public void addFilter(Expression e) throws ParsingException {
+        HashSet<String> names = new HashSet<String>();
+        e.getFields(names);
+        String table = null;
+        for (String name : names) {
+            String alias = name.split("[.]")[0];
+            if (table == null)
+                table = alias;
+            else if (!table.equals(alias))
+                throw new ParsingException("Conditions on more than one table are not supported: " + e);
+        }
+        if (table == null)
+            throw new ParsingException("Condition " + e + " does not refer to any column");
+        System.out.println("Added filter " + e);
+        expressionFilters.addElement(e);
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -216,6 +507,48 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Remove duplicate tuples from the result of this plan, as in SELECT
+        DISTINCT.  Duplicates are removed by a {@link Distinct} operator.
+        @param distinct true to remove duplicates
+    */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    /** Get the flag set via {@link #setDistinct}. */
+    public boolean isDistinct() {
+        return distinct;
+    }
+
+    /** Combine the result of this plan with the result of another plan by a
+        set operation.  The other plan may itself be combined with a third
+        one, and so on.  The plans must select the same number and types of
+        fields; this is checked by {@link #physicalPlan}.
+        @param op the operation: UNION, INTERSECT, or EXCEPT (or its synonym MINUS)
+        @param other the plan whose result is the right operand
+        @throws ParsingException if op is not a supported set operation, if
+          this plan is already combined with another plan, or if the plans
+          use the same alias for different tables
+    */
+    public void addSetOperation(String op, LogicalPlan other) throws ParsingException {
+        op = op.toUpperCase();
+        if (!op.equals("UNION") && !op.equals("INTERSECT") && !op.equals("EXCEPT")
+                && !op.equals("MINUS"))
+            throw new ParsingException("Unsupported set operation " + op);
+        if (setOp != null)
+            throw new ParsingException("Query is already combined by " + setOp);
+        // the plans share one alias map, see getTableAliasToIdMapping
+        for (Map.Entry<String,Integer> e : other.getTableAliasToIdMapping().entrySet()) {
+            Integer id = tableMap.get(e.getKey());
+            if (id != null && !id.equals(e.getValue()))
+                throw new ParsingException("Alias " + e.getKey()
+                        + " names different tables in queries combined by " + op);
+        }
+        setOp = op;
+        setPlan = other;
+        setPlan.setParallelism(parallelism);
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -292,9 +625,21 @@ public class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                int[] columns = referencedColumns(table);
+                if (parallelism > 1 && joins.isEmpty() && file instanceof HeapFile
+                        && ((HeapFile) file).numPages() >= MIN_PARALLEL_PAGES) {
+                    SeqScan[] parts = SeqScan.partition(t, file.getId(), table.alias, parallelism);
+                    for (SeqScan part : parts)
+                        part.setColumns(columns);
+                    ss = new Gather(parts);
+                } else {
+                    SeqScan scan = new SeqScan(t, file.getId(), table.alias);
+                    scan.setColumns(columns);
+                    ss = scan;
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -306,6 +651,11 @@ public class LogicalPlan {
 
         }
 
+        HashMap<String, ArrayList<Predicate>> tablePredicates = new HashMap<String, ArrayList<Predicate>>();
+        HashMap<Predicate, Double> predicateSelectivities = new HashMap<Predicate, Double>();
+        // every filter on each table, for estimating them together
+        HashMap<String, ArrayList<Expression>> tableConditions = new HashMap<String, ArrayList<Expression>>();
+        parameterPredicates = new Predicate[numParameters];
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -313,6 +663,9 @@ public class LogicalPlan {
             if (subplan == null) {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
+            if (lf.c == null) {
+                throw new ParsingException("No value for parameter " + (lf.parameter + 1));
+            }
 
             Field f;
             Type ftyp;
@@ -323,10 +676,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = parseConstant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -334,18 +684,120 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the stats are over every column of the table, not just the scanned ones
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            double sel= s.estimateSelectivity(tableTd.fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            predicateSelectivities.put(p, sel);
+            if (lf.parameter >= 0)
+                parameterPredicates[lf.parameter] = p;
+            if (!tablePredicates.containsKey(lf.tableAlias))
+                tablePredicates.put(lf.tableAlias, new ArrayList<Predicate>());
+            tablePredicates.get(lf.tableAlias).add(p);
+            if (!tableConditions.containsKey(lf.tableAlias))
+                tableConditions.put(lf.tableAlias, new ArrayList<Expression>());
+            tableConditions.get(lf.tableAlias).add(Expression.compare(lf.fieldQuantifiedName, lf.p, lf.c));
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
-        
+
+        // test the most selective predicates first; one may instead be
+        // looked up in the table's index
+        HashMap<String, Double> indexScanCosts = new HashMap<String, Double>();
+        for (Map.Entry<String, ArrayList<Predicate>> e : tablePredicates.entrySet()) {
+            ArrayList<Predicate> preds = e.getValue();
+            preds.sort((a, b) -> Double.compare(predicateSelectivities.get(a),
+                    predicateSelectivities.get(b)));
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(e.getKey())));
+            Predicate lookup = chooseAccessPath(e.getKey(), preds, predicateSelectivities, s, indexScanCosts);
+            for (Predicate p : preds) {
+                if (p != lookup)
+                    applyFilter(e.getKey(), p);
+            }
+        }
+
+        // all other conditions on a table are evaluated by one Filter
+        HashMap<String, ArrayList<Expression>> tableExpressions = new HashMap<String, ArrayList<Expression>>();
+        HashMap<Expression, Double> expressionSelectivities = new HashMap<Expression, Double>();
+        for (Expression e : expressionFilters) {
+            String alias = expressionTable(e);
+            if (subplanMap.get(alias) == null) {
+                throw new ParsingException("Unknown table in WHERE clause " + alias);
+            }
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(this.getTableId(alias));
+            double sel = e.estimateSelectivity(s, tableTd);
+            filterSelectivities.put(alias, filterSelectivities.get(alias) * sel);
+            expressionSelectivities.put(e, sel);
+            if (!tableExpressions.containsKey(alias))
+                tableExpressions.put(alias, new ArrayList<Expression>());
+            tableExpressions.get(alias).add(e);
+            if (!tableConditions.containsKey(alias))
+                tableConditions.put(alias, new ArrayList<Expression>());
+            tableConditions.get(alias).add(e);
+        }
+        for (Map.Entry<String, ArrayList<Expression>> e : tableExpressions.entrySet()) {
+            ArrayList<Expression> conjuncts = e.getValue();
+            conjuncts.sort((a, b) -> Double.compare(expressionSelectivities.get(a),
+                    expressionSelectivities.get(b)));
+            Expression cond = conjuncts.size() == 1 ? conjuncts.get(0) : Expression.and(conjuncts);
+            applyFilter(e.getKey(), cond.bind(subplanMap.get(e.getKey()).getTupleDesc()));
+        }
+
+        // filters on the same table are often correlated, so estimate their
+        // conjunction on the table's sample rather than multiplying
+        if (sampleEstimation) {
+            for (Map.Entry<String, ArrayList<Expression>> e : tableConditions.entrySet()) {
+                if (e.getValue().size() < 2)
+                    continue;
+                String alias = e.getKey();
+                TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+                Expression cond = Expression.and(e.getValue())
+                        .bind(qualifiedTupleDesc(this.getTableId(alias), alias));
+                filterSelectivities.put(alias, s.estimateSelectivity(cond, filterSelectivities.get(alias)));
+            }
+        }
+
+        // remember which operators produce the estimated results, so that
+        // the optimizer can correct them by what earlier runs produced
+        HashMap<String, String> tableSignatures = new HashMap<String, String>();
+        HashMap<String, CardinalityFeedback.Observation> produced =
+            new HashMap<String, CardinalityFeedback.Observation>();
+        observations = new ArrayList<CardinalityFeedback.Observation>();
+        if (CardinalityFeedback.isEnabled()) {
+            for (LogicalScanNode table : tables) {
+                ArrayList<String> conditions = new ArrayList<String>();
+                if (tableConditions.containsKey(table.alias)) {
+                    for (Expression e : tableConditions.get(table.alias))
+                        conditions.add(e.toString());
+                }
+                tableSignatures.put(table.alias, CardinalityFeedback.tableSignature(
+                        Database.getCatalog().getTableName(table.t), table.alias, conditions));
+            }
+            // tables joined with a subquery are not just filtered, and the
+            // filters on parameters change from run to run
+            for (LogicalJoinNode lj : joins) {
+                if (lj instanceof LogicalSubplanJoinNode || lj.t1Alias.equals(lj.t2Alias))
+                    tableSignatures.remove(lj.t1Alias);
+            }
+            for (LogicalFilterNode lf : filters) {
+                if (lf.parameter >= 0)
+                    tableSignatures.remove(lf.tableAlias);
+            }
+            for (Map.Entry<String, String> e : tableSignatures.entrySet()) {
+                String alias = e.getKey();
+                TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+                produced.put(alias, new CardinalityFeedback.Observation(subplanMap.get(alias),
+                        e.getValue(), s.estimateTableCardinality(filterSelectivities.get(alias))));
+            }
+        }
+
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
+            jo.setIndexScanCosts(indexScanCosts);
+            jo.setTableSignatures(tableSignatures);
 
             joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
@@ -357,6 +809,8 @@ public class LogicalPlan {
                 boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
                 String t1name, t2name;
 
+                // find the subplans that now hold the two tables; in a bushy
+                // plan both may already be joins of several tables
                 if (equivMap.get(lj.t1Alias)!=null)
                     t1name = equivMap.get(lj.t1Alias);
                 else
@@ -369,6 +823,18 @@ public class LogicalPlan {
 
                 plan1 = subplanMap.get(t1name);
 
+                if (!isSubqueryJoin && t1name.equals(t2name)) {
+                    // both sides were already joined by another predicate
+                    if (plan1 == null)
+                        throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
+                    Expression cond = Expression.compareColumns(lj.f1QuantifiedName, lj.p, lj.f2QuantifiedName);
+                    subplanMap.put(t1name, new Filter(cond.bind(plan1.getTupleDesc()), plan1));
+                    // the join result this filters is the one observed
+                    if (produced.containsKey(t1name))
+                        produced.get(t1name).node = subplanMap.get(t1name);
+                    continue;
+                }
+
                 if (isSubqueryJoin) {
                     plan2 = ((LogicalSubplanJoinNode)lj).subPlan;
                     if (plan2 == null) 
@@ -383,9 +849,20 @@ public class LogicalPlan {
                     throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
                 
                 OpIterator j;
-                j = jo.instantiateJoin(lj,plan1,plan2);
+                j = jo.instantiateJoin(lj,plan1,plan2,parallelism);
                 subplanMap.put(t1name, j);
 
+                // the inner side of an index join is read once per outer
+                // tuple, and a subquery join's result has no signature
+                if (produced.containsKey(t1name))
+                    observations.add(produced.remove(t1name));
+                if (!isSubqueryJoin && produced.containsKey(t2name)
+                        && !(j instanceof IndexNestedLoopJoin))
+                    observations.add(produced.get(t2name));
+                produced.remove(t2name);
+                if (lj.signature != null && !isSubqueryJoin)
+                    produced.put(t1name, new CardinalityFeedback.Observation(j, lj.signature, lj.estimate));
+
                 if (!isSubqueryJoin) {
                     subplanMap.remove(t2name);
                     equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
@@ -406,6 +883,7 @@ public class LogicalPlan {
         if (subplanMap.size() > 1) {
             throw new ParsingException("Query does not include join expressions joining all nodes!");
         }
+        observations.addAll(produced.values());
         
         OpIterator node =  (OpIterator)(subplanMap.entrySet().iterator().next().getValue());
 
@@ -463,10 +941,13 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                // stream the groups if the input already arrives grouped
                 aggNode = new Aggregate(node,
                                         td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                        gfield,
+                                getAggOp(aggOp),
+                                gfield != Aggregator.NO_GROUPING && isOrderedOn(node, gfield));
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,11 +956,76 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        // set operations and DISTINCT do not keep the order of their input,
+        // so their result is sorted on the projected field instead
+        int orderByOutput = -1;
+        if (hasOrderBy && (setOp != null || distinct)) {
+            orderByOutput = outFields.indexOf(node.getTupleDesc().fieldNameToIndex(oByField));
+            if (orderByOutput < 0)
+                throw new ParsingException("ORDER BY field " + oByField + " must appear in the SELECT list of a query with "
+                        + (setOp != null ? setOp : "DISTINCT"));
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        OpIterator result = new Project(outFields, outTypes, node);
+        if (setOp != null) {
+            // set operations remove duplicates themselves
+            OpIterator other = setPlan.physicalPlan(t, baseTableStats, explain);
+            if (!SetOperator.compatible(result.getTupleDesc(), other.getTupleDesc()))
+                throw new ParsingException("Queries combined by " + setOp
+                        + " must select the same number and types of fields");
+            if (setOp.equals("UNION"))
+                result = new Union(result, other);
+            else if (setOp.equals("INTERSECT"))
+                result = new Intersect(result, other);
+            else
+                result = new Except(result, other);
+        } else if (distinct) {
+            result = new Distinct(result);
+        }
+        if (orderByOutput >= 0)
+            result = new OrderBy(orderByOutput, oByAsc, result);
+        return result;
+    }
+
+    /** @return the results estimated by the optimizer in the last plan built
+        by {@link #physicalPlan}, and of the plans combined with it, whose
+        actual sizes are recorded by {@link CardinalityFeedback} once the
+        plan has run
+    */
+    List<CardinalityFeedback.Observation> getObservations() {
+        if (setPlan == null)
+            return observations;
+        ArrayList<CardinalityFeedback.Observation> all =
+            new ArrayList<CardinalityFeedback.Observation>(observations);
+        all.addAll(setPlan.getObservations());
+        return all;
+    }
+
+    /** Determine whether the tuples produced by a physical plan are known to
+        be ordered (ascending or descending) on the specified field.  Scans of a
+        {@link BTreeFile} are ordered on the key field; filters preserve the
+        order of their child, and an {@link OrderBy} is ordered on its field.
+        @param node the physical plan to inspect
+        @param field the index of the field in node's TupleDesc
+        @return true if the order is known, false if it is unknown
+    */
+    static boolean isOrderedOn(OpIterator node, int field) {
+        if (node instanceof Filter) {
+            return isOrderedOn(((Filter) node).getChildren()[0], field);
+        } else if (node instanceof OrderBy) {
+            return ((OrderBy) node).getOrderByField() == field;
+        } else if (node instanceof SeqScan) {
+            SeqScan scan = (SeqScan) node;
+            DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == scan.getTableField(field);
+        } else if (node instanceof BTreeScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(((BTreeScan) node).getTableName()));
+            return ((BTreeFile) f).keyField() == field;
+        }
+        return false;
     }
 
     public static void main(String argv[]) {
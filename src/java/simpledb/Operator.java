@@ -15,8 +15,11 @@ public abstract class Operator implements OpIterator {
         if (!this.open)
             throw new IllegalStateException("Operator not yet open");
         
-        if (next == null)
+        if (next == null) {
             next = fetchNext();
+            if (next == null)
+                endPass();
+        }
         return next != null;
     }
 
@@ -24,15 +27,28 @@ public abstract class Operator implements OpIterator {
             NoSuchElementException {
         if (next == null) {
             next = fetchNext();
-            if (next == null)
+            if (next == null) {
+                endPass();
                 throw new NoSuchElementException();
+            }
         }
 
         Tuple result = next;
         next = null;
+        passCardinality++;
+        passEnded = false;
         return result;
     }
 
+    // 一遍读完时记下这遍返回的元组数；被 rewind 的算子每遍都从头数
+    private void endPass() {
+        if (!passEnded) {
+            actualCardinality = passCardinality;
+            passCardinality = 0;
+            passEnded = true;
+        }
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -57,9 +73,15 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private long passCardinality = 0;
+    private long actualCardinality = -1;
+    private boolean passEnded = false;
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
+        this.passCardinality = 0;
+        this.actualCardinality = -1;
+        this.passEnded = false;
     }
 
     /**
@@ -104,4 +126,13 @@ public abstract class Operator implements OpIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return The number of tuples this operator returned the last time all
+     *         of them were read since it was opened, or -1 if they have not
+     *         all been read yet. Used by {@link CardinalityFeedback}.
+     * */
+    public long getActualCardinality() {
+        return this.actualCardinality;
+    }
+
 }
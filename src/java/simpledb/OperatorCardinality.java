@@ -1,6 +1,7 @@
 package simpledb;
 
 //import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 /**
@@ -27,11 +28,31 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof ParallelHashEquiJoin) {
+            ParallelHashEquiJoin j = (ParallelHashEquiJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof BlockNestedLoopJoin) {
+            BlockNestedLoopJoin j = (BlockNestedLoopJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) o;
+            return updateHashEquiJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof Union || o instanceof Intersect
+                || o instanceof Except) {
+            return updateSetOperationCardinality(o, tableAliasToId, tableStats);
         } else {
             OpIterator[] children = o.getChildren();
             int childC = 1;
@@ -42,9 +63,7 @@ public class OperatorCardinality {
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
                 } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                    childC = scanCardinality((SeqScan) children[0], tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -52,24 +71,56 @@ public class OperatorCardinality {
         }
     }
 
+    /**
+     * @return the estimated number of tuples returned by a scan, including
+     *         the effect of any predicates pushed into it or looked up in
+     *         its index
+     */
+    private static int scanCardinality(SeqScan s,
+            Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(s.getTableName());
+        double selectivity = 1.0;
+        for (Predicate p : s.getPredicates())
+            selectivity *= stats.estimateSelectivity(s.getTableField(p.getField()), p.getOp(),
+                    p.getOperand());
+        IndexPredicate ipred = s.getIndexPredicate();
+        if (ipred != null) {
+            BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(s.getTableId());
+            selectivity *= stats.estimateSelectivity(f.keyField(), ipred.getOp(), ipred.getField());
+        }
+        return stats.estimateTableCardinality(selectivity);
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
         Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
+        String tableAlias;
+        if (pred != null) {
+            tableAlias = child.getTupleDesc().getFieldName(pred.getField())
+                    .split("[.]")[0];
+        } else {
+            HashSet<String> names = new HashSet<String>();
+            f.getExpression().getFields(names);
+            tableAlias = names.isEmpty() ? null
+                    : names.iterator().next().split("[.]")[0];
+        }
         Integer tableId = tableAliasToId.get(tableAlias);
         double selectivity = 1.0;
         if (tableId != null) {
-            selectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .estimateSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            pred.getOp(), pred.getOperand());
+            TableStats stats = tableStats.get(
+                    Database.getCatalog().getTableName(tableId));
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+            if (pred != null) {
+                String pureFieldName = child.getTupleDesc()
+                        .getFieldName(pred.getField()).split("[.]")[1];
+                selectivity = stats.estimateSelectivity(
+                        tableTd.fieldNameToIndex(pureFieldName),
+                        pred.getOp(), pred.getOperand());
+            } else {
+                selectivity = f.getExpression().estimateSelectivity(stats, tableTd);
+            }
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -78,9 +129,8 @@ public class OperatorCardinality {
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
             } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                f.setEstimatedCardinality((int) (scanCardinality(
+                        (SeqScan) child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -88,6 +138,34 @@ public class OperatorCardinality {
         return false;
     }
 
+    /**
+     * Estimates a binary set operation from its inputs: a union returns at
+     * most both inputs, an intersection at most the smaller one, and a
+     * difference at most its first input. Duplicates are not accounted for.
+     */
+    private static boolean updateSetOperationCardinality(Operator o,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        OpIterator[] children = o.getChildren();
+        int[] card = new int[children.length];
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] instanceof Operator) {
+                updateOperatorCardinality((Operator) children[i],
+                        tableAliasToId, tableStats);
+                card[i] = ((Operator) children[i]).getEstimatedCardinality();
+            } else if (children[i] instanceof SeqScan) {
+                card[i] = scanCardinality((SeqScan) children[i], tableStats);
+            }
+        }
+        if (o instanceof Union)
+            o.setEstimatedCardinality(card[0] + card[1]);
+        else if (o instanceof Intersect)
+            o.setEstimatedCardinality(Math.min(card[0], card[1]));
+        else
+            o.setEstimatedCardinality(card[0]);
+        return false;
+    }
+
     private static boolean updateJoinCardinality(Join j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -121,8 +199,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -133,8 +210,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -144,7 +220,8 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
+    private static boolean updateHashEquiJoinCardinality(Operator j,
+            JoinPredicate pred, String joinField1Name, String joinField2Name,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
 
@@ -154,10 +231,10 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -178,8 +255,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -190,12 +266,11 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(
+                pred.getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
@@ -220,8 +295,7 @@ public class OperatorCardinality {
         }
 
         if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+            childCard = scanCardinality((SeqScan) child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
@@ -0,0 +1,457 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelHashEquiJoin is an equality join that splits both of its inputs by
+ * the hash of the join field and joins the partitions on the database worker
+ * pool.
+ * <p>
+ * Matching tuples always land in the same partition, so each worker builds
+ * and probes the hash table of its own partition without sharing any state
+ * with the others; a {@link Gather} merges the partition results. An input
+ * that is a {@link Gather} of page-range scans is read by one worker per
+ * range, each partitioning its own slice; any other input is read by a
+ * single worker.
+ * <p>
+ * The build (left) input is partitioned into memory when the operator is
+ * opened, and kept until it is closed. The probe (right) input is streamed:
+ * its workers hand each tuple to its partition through a bounded queue while
+ * the join runs, and {@link #rewind} reads it again. As in
+ * {@link HashEquiJoin}, a Bloom filter of the build-side keys is pushed to
+ * the probe-side scans.
+ */
+public class ParallelHashEquiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Capacity of the queue feeding probe tuples to each partition */
+    public static final int PROBE_QUEUE_SIZE = 1024;
+
+    /** How long a blocked worker waits before checking for cancellation */
+    private static final long POLL_MILLIS = 10;
+
+    /** Placed on every probe queue once the whole probe input is read */
+    private static final Tuple END_OF_INPUT = new Tuple(new TupleDesc(
+            new Type[] { Type.INT_TYPE }));
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final int degree;
+    private TupleDesc comboTD;
+    private transient List<List<Tuple>> build;
+    private transient List<BlockingQueue<Tuple>> probe;
+    private transient List<Future<?>> producers;
+    private transient ConcurrentLinkedQueue<Exception> failures;
+    private transient volatile boolean cancelled;
+    private transient Gather gather;
+    private transient List<SeqScan> probeScans;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left (build) relation to join
+     * @param child2
+     *            Iterator for the right (probe) relation to join
+     * @param degree
+     *            The number of partitions, and so the number of workers
+     */
+    public ParallelHashEquiJoin(JoinPredicate p, OpIterator child1,
+            OpIterator child2, int degree) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins need an equality predicate");
+        if (degree < 1)
+            throw new IllegalArgumentException("degree must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.degree = degree;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the number of partitions joined in parallel
+     */
+    public int getDegree() {
+        return degree;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * Maps a join value to a partition. The hash is scrambled first so that
+     * the partitions do not all share the low bits that HashMap uses to pick
+     * buckets.
+     */
+    private int partitionOf(Field f) {
+        int h = f.hashCode() * 0x9E3779B1;
+        return (h >>> 16) % degree;
+    }
+
+    /**
+     * @return the subplans reading an input: the page-range scans of a
+     *         {@link Gather}, or the input itself
+     */
+    private static OpIterator[] slices(OpIterator child) {
+        if (child instanceof Gather)
+            return ((Gather) child).getChildren();
+        return new OpIterator[] { child };
+    }
+
+    private List<List<Tuple>> newPartitions() {
+        List<List<Tuple>> parts = new ArrayList<List<Tuple>>(degree);
+        for (int i = 0; i < degree; i++)
+            parts.add(new ArrayList<Tuple>());
+        return parts;
+    }
+
+    /**
+     * Reads the build input on the worker pool, each slice into its own
+     * partitions, and concatenates them. Every slice is waited for, even
+     * after a failure, so that all of them are closed when this method
+     * returns.
+     */
+    private List<List<Tuple>> partitionBuild() throws DbException,
+            TransactionAbortedException {
+        List<Future<List<List<Tuple>>>> slices = new ArrayList<>();
+        for (OpIterator slice : slices(child1)) {
+            slices.add(Database.getWorkerPool().submit(() -> {
+                List<List<Tuple>> parts = newPartitions();
+                slice.open();
+                try {
+                    while (slice.hasNext()) {
+                        Tuple t = slice.next();
+                        parts.get(partitionOf(t.getField(pred.getField1()))).add(t);
+                    }
+                } finally {
+                    slice.close();
+                }
+                return parts;
+            }));
+        }
+
+        List<List<Tuple>> parts = newPartitions();
+        Throwable failure = null;
+        for (Future<List<List<Tuple>>> f : slices) {
+            try {
+                List<List<Tuple>> slice = f.get();
+                if (failure == null) {
+                    for (int i = 0; i < degree; i++)
+                        parts.get(i).addAll(slice.get(i));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null)
+                    failure = e;
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+        }
+        if (failure != null)
+            rethrow(failure);
+        return parts;
+    }
+
+    private static void rethrow(Throwable e) throws DbException,
+            TransactionAbortedException {
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        throw new DbException("parallel hash join failed: " + e);
+    }
+
+    /** @return a Bloom filter of every build-side key */
+    private BloomFilter buildFilter(List<List<Tuple>> build) {
+        int n = 0;
+        for (List<Tuple> part : build)
+            n += part.size();
+        BloomFilter filter = new BloomFilter(n);
+        for (List<Tuple> part : build) {
+            for (Tuple t : part)
+                filter.add(t.getField(pred.getField1()));
+        }
+        return filter;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        build = partitionBuild();
+        BloomFilter filter = buildFilter(build);
+        probeScans = new ArrayList<SeqScan>();
+        for (OpIterator slice : slices(child2)) {
+            SeqScan scan = HashEquiJoin.probeScan(slice);
+            if (scan != null) {
+                scan.setRuntimeFilter(pred.getField2(), filter);
+                probeScans.add(scan);
+            }
+        }
+        startProbe();
+        super.open();
+    }
+
+    /**
+     * Starts the workers reading the probe input, and the workers joining
+     * each partition with the probe tuples they are handed.
+     */
+    private void startProbe() throws DbException, TransactionAbortedException {
+        cancelled = false;
+        failures = new ConcurrentLinkedQueue<Exception>();
+        probe = new ArrayList<BlockingQueue<Tuple>>(degree);
+        OpIterator[] joins = new OpIterator[degree];
+        for (int i = 0; i < degree; i++) {
+            probe.add(new ArrayBlockingQueue<Tuple>(PROBE_QUEUE_SIZE));
+            joins[i] = new PartitionJoin(build.get(i), probe.get(i));
+        }
+        OpIterator[] slices = slices(child2);
+        AtomicInteger running = new AtomicInteger(slices.length);
+        producers = new ArrayList<Future<?>>();
+        for (OpIterator slice : slices)
+            producers.add(Database.getWorkerPool().submit(() -> partitionProbe(slice, running)));
+        gather = new Gather(joins);
+        gather.open();
+    }
+
+    /**
+     * Hands each tuple of one slice of the probe input to its partition. The
+     * last slice to finish ends every partition's input.
+     */
+    private void partitionProbe(OpIterator slice, AtomicInteger running) {
+        try {
+            slice.open();
+            try {
+                while (!cancelled && slice.hasNext()) {
+                    Tuple t = slice.next();
+                    if (!put(probe.get(partitionOf(t.getField(pred.getField2()))), t))
+                        return;
+                }
+            } finally {
+                slice.close();
+            }
+        } catch (Exception e) {
+            failures.add(e);
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                for (BlockingQueue<Tuple> q : probe)
+                    put(q, END_OF_INPUT);
+            }
+        }
+    }
+
+    /** Cancels the probe workers and waits until they have finished */
+    private void stopProbe() {
+        cancelled = true;
+        if (gather != null)
+            gather.close();
+        gather = null;
+        if (producers == null)
+            return;
+        for (Future<?> f : producers) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // recorded in failures
+            }
+        }
+        producers = null;
+    }
+
+    public void close() {
+        super.close();
+        stopProbe();
+        if (probeScans != null) {
+            for (SeqScan scan : probeScans)
+                scan.setRuntimeFilter(0, null);
+        }
+        probeScans = null;
+        build = null;
+        probe = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopProbe();
+        startProbe();
+    }
+
+    /**
+     * Blocks on a probe queue. The worker pool may start another thread
+     * while a worker waits, so that the partitions it waits for still get to
+     * run when every pool thread is blocked.
+     */
+    private class QueueBlocker implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<Tuple> queue;
+        private final boolean put;
+        Tuple tuple;
+        boolean done;
+
+        QueueBlocker(BlockingQueue<Tuple> queue, Tuple tuple) {
+            this.queue = queue;
+            this.tuple = tuple;
+            this.put = tuple != null;
+        }
+
+        public boolean isReleasable() {
+            if (!done) {
+                if (put)
+                    done = queue.offer(tuple);
+                else
+                    done = (tuple = queue.poll()) != null;
+            }
+            return done || cancelled;
+        }
+
+        public boolean block() throws InterruptedException {
+            if (put)
+                done = queue.offer(tuple, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            else
+                done = (tuple = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) != null;
+            return done || cancelled;
+        }
+
+        /** @return false if the join was closed before the queue was ready */
+        boolean run() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return done;
+        }
+    }
+
+    /** Queues t; returns false if the join was closed first */
+    private boolean put(BlockingQueue<Tuple> queue, Tuple t) {
+        return new QueueBlocker(queue, t).run();
+    }
+
+    /** @return the next tuple on the queue, or null if the join was closed first */
+    private Tuple take(BlockingQueue<Tuple> queue) {
+        QueueBlocker b = new QueueBlocker(queue, null);
+        return b.run() ? b.tuple : null;
+    }
+
+    /**
+     * Joins one partition: hashes its build tuples when opened, then probes
+     * them with the tuples handed to it until the probe input ends.
+     */
+    private class PartitionJoin extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final transient List<Tuple> build;
+        private final transient BlockingQueue<Tuple> queue;
+        private transient HashMap<Field, List<Tuple>> map;
+        private transient Tuple t2;
+        private transient Iterator<Tuple> matches;
+        private transient boolean ended;
+
+        PartitionJoin(List<Tuple> build, BlockingQueue<Tuple> queue) {
+            this.build = build;
+            this.queue = queue;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            map = new HashMap<Field, List<Tuple>>();
+            for (Tuple t : build)
+                map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<Tuple>()).add(t);
+            ended = false;
+            matches = null;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            map = null;
+            matches = null;
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("the probe input of a partition is streamed");
+        }
+
+        protected Tuple fetchNext() {
+            while (matches == null || !matches.hasNext()) {
+                if (ended)
+                    return null;
+                Tuple t = take(queue);
+                if (t == null || t == END_OF_INPUT) {
+                    ended = true;
+                    return null;
+                }
+                t2 = t;
+                List<Tuple> l = map.get(t.getField(pred.getField2()));
+                matches = l == null ? null : l.iterator();
+            }
+            Tuple t1 = matches.next();
+            int td1n = t1.getTupleDesc().numFields();
+            int td2n = t2.getTupleDesc().numFields();
+            Tuple t = new Tuple(comboTD);
+            for (int i = 0; i < td1n; i++)
+                t.setField(i, t1.getField(i));
+            for (int i = 0; i < td2n; i++)
+                t.setField(td1n + i, t2.getField(i));
+            return t;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return comboTD;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples are the concatenation of the joining tuples from
+     * the left and right relation, as in {@link HashEquiJoin}, but come out
+     * in no particular order.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (gather.hasNext())
+            return gather.next();
+        Exception e = failures.peek();
+        if (e != null)
+            rethrow(e);
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -4,6 +4,7 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +12,20 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static int parallelism = 1;
+    static QueryCache queryCache = null;
+
+    /**
+     * Sets the cache that SELECT statements are answered from, or null to
+     * run every statement. The cache is shared by all Parsers.
+     */
+    public static void setQueryCache(QueryCache cache) {
+        queryCache = cache;
+    }
+
+    public static QueryCache getQueryCache() {
+        return queryCache;
+    }
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -47,9 +62,17 @@ public class Parser {
                 processExpression(tid, newWx, lp);
 
             }
-        } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("OR")
+                || wx.getOperator().equals("NOT")
+                || wx.getOperator().equals("IN")
+                || wx.getOperator().equals("NOT IN")) {
+            // evaluated by a single Filter over the table's scan
+            lp.addFilter(parseExpression(wx, lp));
+        } else if (wx.getOperator().equals("BETWEEN")) {
+            // two range filters, which can be pushed into the scan
+            String column = columnName(wx.getOperand(0), lp);
+            addFilter(lp, column, Predicate.Op.GREATER_THAN_OR_EQ, wx.getOperand(1));
+            addFilter(lp, column, Predicate.Op.LESS_THAN_OR_EQ, wx.getOperand(2));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -62,6 +85,15 @@ public class Parser {
             boolean isJoin = false;
             Predicate.Op op = getOp(wx.getOperator());
 
+            if (isParameter(ops.elementAt(0)) || isParameter(ops.elementAt(1))) {
+                // a comparison of a column with a statement parameter
+                if (isColumn(ops.elementAt(0)))
+                    addFilter(lp, columnName(ops.elementAt(0), lp), op, ops.elementAt(1));
+                else
+                    addFilter(lp, columnName(ops.elementAt(1), lp), reverse(op), ops.elementAt(0));
+                return;
+            }
+
             boolean op1const = ops.elementAt(0) instanceof ZConstant; // otherwise
                                                                       // is a
                                                                       // Query
@@ -81,6 +113,18 @@ public class Parser {
             } else
                 isJoin = false;
 
+            if (isJoin && op1const && op2const) {
+                String alias1 = lp.disambiguateName(
+                        ((ZConstant) ops.elementAt(0)).getValue()).split("[.]")[0];
+                String alias2 = lp.disambiguateName(
+                        ((ZConstant) ops.elementAt(1)).getValue()).split("[.]")[0];
+                if (alias1.equals(alias2)) {
+                    // two columns of the same table: a filter, not a join
+                    lp.addFilter(parseExpression(wx, lp));
+                    return;
+                }
+            }
+
             if (isJoin) { // join node
 
                 String tab1field = "", tab2field = "";
@@ -123,6 +167,7 @@ public class Parser {
                 } else {
                     column = op2.getValue();
                     compValue = new String(op1.getValue());
+                    op = reverse(op);
                 }
 
                 lp.addFilter(column, op, compValue);
@@ -132,6 +177,114 @@ public class Parser {
 
     }
 
+    /**
+     * Converts a condition on the columns of a single table, built from
+     * AND, OR, NOT, IN, NOT IN, BETWEEN and comparisons of columns with
+     * constants or other columns, into an Expression.
+     */
+    Expression parseExpression(ZExp e, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        if (!(e instanceof ZExpression)) {
+            throw new simpledb.ParsingException("Unsupported condition " + e);
+        }
+        ZExpression wx = (ZExpression) e;
+        String op = wx.getOperator();
+        if (op.equals("AND") || op.equals("OR")) {
+            List<Expression> operands = new ArrayList<Expression>();
+            for (int i = 0; i < wx.nbOperands(); i++)
+                operands.add(parseExpression(wx.getOperand(i), lp));
+            return op.equals("AND") ? Expression.and(operands) : Expression.or(operands);
+        } else if (op.equals("NOT")) {
+            return Expression.not(parseExpression(wx.getOperand(0), lp));
+        } else if (op.equals("IN") || op.equals("NOT IN")) {
+            List<String> constants = new ArrayList<String>();
+            for (int i = 1; i < wx.nbOperands(); i++)
+                constants.add(constantValue(wx.getOperand(i)));
+            Expression in = Expression.in(columnName(wx.getOperand(0), lp), constants);
+            return op.equals("IN") ? in : Expression.not(in);
+        } else if (op.equals("BETWEEN")) {
+            String column = columnName(wx.getOperand(0), lp);
+            return Expression.and(Arrays.asList(
+                    Expression.compare(column, Predicate.Op.GREATER_THAN_OR_EQ,
+                            constantValue(wx.getOperand(1))),
+                    Expression.compare(column, Predicate.Op.LESS_THAN_OR_EQ,
+                            constantValue(wx.getOperand(2)))));
+        }
+
+        if (wx.nbOperands() != 2) {
+            throw new simpledb.ParsingException(
+                    "Only simple binary expresssions of the form A op B are currently supported.");
+        }
+        Predicate.Op pop = getOp(op);
+        ZExp left = wx.getOperand(0), right = wx.getOperand(1);
+        if (isColumn(left) && isColumn(right)) {
+            return Expression.compareColumns(columnName(left, lp), pop,
+                    columnName(right, lp));
+        } else if (isColumn(left)) {
+            return Expression.compare(columnName(left, lp), pop, constantValue(right));
+        } else if (isColumn(right)) {
+            return Expression.compare(columnName(right, lp), reverse(pop),
+                    constantValue(left));
+        }
+        throw new simpledb.ParsingException("Condition " + wx
+                + " does not refer to any column.");
+    }
+
+    /** Adds a filter comparing a column with a constant or a parameter */
+    private static void addFilter(LogicalPlan lp, String column, Predicate.Op op, ZExp value)
+            throws simpledb.ParsingException {
+        if (isParameter(value))
+            lp.addParameterFilter(column, op);
+        else
+            lp.addFilter(column, op, constantValue(value));
+    }
+
+    /** @return true if e is a statement parameter, written ? */
+    static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression
+                && ((ZExpression) e).getOperator().equals("?");
+    }
+
+    private static boolean isColumn(ZExp e) {
+        return e instanceof ZConstant
+                && ((ZConstant) e).getType() == ZConstant.COLUMNNAME;
+    }
+
+    private static String columnName(ZExp e, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        if (!isColumn(e)) {
+            throw new simpledb.ParsingException("Expected a column, got " + e);
+        }
+        return lp.disambiguateName(((ZConstant) e).getValue());
+    }
+
+    private static String constantValue(ZExp e) throws simpledb.ParsingException {
+        if (isParameter(e)) {
+            throw new simpledb.ParsingException(
+                    "Parameters are only supported in comparisons of a column with ? that are ANDed together");
+        }
+        if (!(e instanceof ZConstant) || isColumn(e)) {
+            throw new simpledb.ParsingException("Expected a constant, got " + e);
+        }
+        return ((ZConstant) e).getValue();
+    }
+
+    /** @return the operator op' such that (a op b) == (b op' a) */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -267,6 +420,25 @@ public class Parser {
             lp.addOrderBy(f.getValue(), oby.getAscOrder());
 
         }
+
+        if (q.isDistinct())
+            lp.setDistinct(true);
+
+        // UNION, INTERSECT or MINUS with the query that follows; ZQL nests
+        // any further set operations inside that query
+        ZExpression set = q.getSet();
+        if (set != null) {
+            if (!(set.getOperand(0) instanceof ZQuery)) {
+                throw new simpledb.ParsingException(
+                        "Set operations are only supported between SELECT statements.");
+            }
+            ZQuery other = (ZQuery) set.getOperand(0);
+            if (countParameters(other.getWhere()) > 0) {
+                throw new simpledb.ParsingException(
+                        "Parameters are only supported in the first query of a set operation.");
+            }
+            lp.addSetOperation(set.getOperator(), parseQueryLogicalPlan(tid, other));
+        }
         return lp;
     }
 
@@ -278,7 +450,27 @@ public class Parser {
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
+        // answer from the result cache if the statement's tables have not
+        // changed since it was last run
+        QueryCache cache = queryCache;
+        String cacheKey = null;
+        Set<Integer> tableIds = null;
+        Map<Integer, Long> versions = null;
+        if (cache != null) {
+            tableIds = cacheableTables(s, tId);
+            if (tableIds != null) {
+                cacheKey = QueryCache.normalize(s.toString());
+                OpIterator cached = cache.get(cacheKey, tableIds);
+                if (cached != null) {
+                    query.setPhysicalPlan(cached);
+                    return query;
+                }
+                versions = QueryCache.versions(tableIds);
+            }
+        }
+
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setParallelism(parallelism);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -317,9 +509,119 @@ public class Parser {
             }
         }
 
+        if (physicalPlan != null && versions != null)
+            query.setPhysicalPlan(cache.capture(cacheKey, versions, physicalPlan));
         return query;
     }
 
+    /**
+     * Finds the tables a SELECT statement reads, including those read by
+     * the subqueries in its WHERE clause and by the queries combined with it
+     * by set operations, if its result may come from the result cache.
+     *
+     * @return the ids of the tables, or null if a table is unknown or has
+     *         uncommitted changes made by transaction tid
+     */
+    private Set<Integer> cacheableTables(ZQuery s, TransactionId tid) {
+        Set<Integer> ids = new HashSet<Integer>();
+        @SuppressWarnings("unchecked")
+        Vector<ZFromItem> from = s.getFrom();
+        for (ZFromItem item : from) {
+            int id;
+            try {
+                id = Database.getCatalog().getTableId(item.getTable());
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+            if (Database.getBufferPool().hasModified(tid, id))
+                return null;
+            ids.add(id);
+        }
+        if (s.getWhere() != null && !addSubqueryTables(s.getWhere(), ids, tid))
+            return null;
+        if (s.getSet() != null && s.getSet().getOperand(0) instanceof ZQuery) {
+            Set<Integer> other = cacheableTables((ZQuery) s.getSet().getOperand(0), tid);
+            if (other == null)
+                return null;
+            ids.addAll(other);
+        }
+        return ids;
+    }
+
+    /**
+     * Adds the tables read by the subqueries in a WHERE clause expression to
+     * ids.
+     *
+     * @return false if a subquery's result may not come from the result
+     *         cache
+     */
+    private boolean addSubqueryTables(ZExp e, Set<Integer> ids, TransactionId tid) {
+        if (e instanceof ZQuery) {
+            Set<Integer> other = cacheableTables((ZQuery) e, tid);
+            if (other == null)
+                return false;
+            ids.addAll(other);
+        } else if (e instanceof ZExpression) {
+            ZExpression wx = (ZExpression) e;
+            for (int i = 0; i < wx.nbOperands(); i++) {
+                if (!addSubqueryTables(wx.getOperand(i), ids, tid))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private final ConcurrentHashMap<String, PreparedStatement.Template> prepared = new ConcurrentHashMap<String, PreparedStatement.Template>();
+
+    /**
+     * Prepares a SELECT statement whose WHERE clause may compare columns with
+     * parameters, written ?, for repeated execution. Preparing the same
+     * statement again reuses its parsed form, but always returns a new
+     * PreparedStatement, so callers never share parameter values or plans.
+     *
+     * @param sql the statement
+     * @throws simpledb.ParsingException if the statement is not a valid
+     *             SELECT statement
+     */
+    public PreparedStatement prepare(String sql) throws simpledb.ParsingException {
+        ZStatement s;
+        try {
+            s = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8"))).readStatement();
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid SQL expression: \n \t " + e);
+        } catch (Zql.TokenMgrError e) {
+            throw new simpledb.ParsingException("Invalid SQL expression: \n \t " + e);
+        } catch (UnsupportedEncodingException e) {
+            throw new simpledb.ParsingException(e);
+        }
+        if (!(s instanceof ZQuery)) {
+            throw new simpledb.ParsingException("Only SELECT statements can be prepared");
+        }
+        ZQuery q = (ZQuery) s;
+        String key = QueryCache.normalize(q.toString());
+        PreparedStatement.Template t = prepared.get(key);
+        if (t == null) {
+            t = new PreparedStatement.Template(q, countParameters(q.getWhere()));
+            PreparedStatement.Template old = prepared.putIfAbsent(key, t);
+            if (old != null)
+                t = old;
+        }
+        return new PreparedStatement(this, t);
+    }
+
+    /** @return the number of parameters in a WHERE clause */
+    private static int countParameters(ZExp e) {
+        if (isParameter(e))
+            return 1;
+        int n = 0;
+        if (e instanceof ZExpression) {
+            ZExpression wx = (ZExpression) e;
+            for (int i = 0; i < wx.nbOperands(); i++)
+                n += countParameters(wx.getOperand(i));
+        }
+        return n;
+    }
+
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -585,7 +887,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 12) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +897,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel numThreads] [-cache bytes] [-dptables count] [-planbudget millis] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -616,6 +918,38 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of threads after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    parallelism = Integer.parseInt(argv[i]);
+                    System.out.println("Parallel plans use " + parallelism + " threads.");
+                } else if (argv[i].equals("-cache")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected cache size in bytes after -cache\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    queryCache = new QueryCache(Long.parseLong(argv[i]));
+                    System.out.println("Query results are cached in " + argv[i] + " bytes.");
+                } else if (argv[i].equals("-dptables")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of tables after -dptables\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    JoinOptimizer.setMaxDpTables(Integer.parseInt(argv[i]));
+                    System.out.println("Joins of more than " + argv[i] + " tables are ordered heuristically.");
+                } else if (argv[i].equals("-planbudget")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected milliseconds after -planbudget\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    JoinOptimizer.setPlanningBudget(Long.parseLong(argv[i]));
+                    System.out.println("Join ordering stops after " + argv[i] + " ms.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -89,6 +89,19 @@ public class Predicate implements Serializable {
         // some code goes here
         return operand;
     }
+
+    /**
+     * Replaces the operand. Prepared statements use this to run a cached
+     * plan with new parameter values; it must not be called while an
+     * operator that evaluates this predicate is open.
+     *
+     * @param operand
+     *            field value to compare passed in tuples to
+     */
+    public void setOperand(Field operand)
+    {
+        this.operand=operand;
+    }
     
     /**
      * Compares the field number of t specified in the constructor to the
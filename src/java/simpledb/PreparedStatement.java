@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.util.Arrays;
+
+import Zql.ZQuery;
+
+/**
+ * A PreparedStatement is a SELECT statement that is parsed once and planned
+ * once, and can then be run many times with different values for its
+ * parameters. Parameters are written ? and may appear wherever the WHERE
+ * clause compares a column with a constant, including in BETWEEN, but not
+ * inside OR, NOT or IN. They are numbered from 1 in the order they appear.
+ * <p>
+ * The first execution builds and optimizes a plan for the values it is
+ * given. Later executions reuse that plan and only replace the operands of
+ * the predicates the parameters appear in. The plan is rebuilt when the
+ * catalog, the table statistics or the corrections recorded by
+ * {@link CardinalityFeedback} have changed since it was built.
+ * <p>
+ * Statements are created by {@link Parser#prepare}. Every call returns a
+ * new statement with its own parameter values and plan; statements prepared
+ * from the same SQL share only its parsed {@link Template}. A statement runs
+ * one execution at a time: the Query returned by {@link #execute} must be
+ * closed before the statement is executed again.
+ */
+public class PreparedStatement {
+
+    /**
+     * The parsed form of a prepared SELECT statement, which is never
+     * modified and so can be shared by every statement prepared from it.
+     */
+    static final class Template {
+        final ZQuery query;
+        final int numParameters;
+
+        Template(ZQuery query, int numParameters) {
+            this.query = query;
+            this.numParameters = numParameters;
+        }
+    }
+
+    private final Parser parser;
+    private final Template template;
+    private final String[] values;
+
+    private LogicalPlan logicalPlan;
+    private OpIterator plan;
+    private Predicate[] parameterPredicates;
+    private Catalog catalog;
+    private long catalogVersion;
+    private long statsVersion;
+    private long feedbackVersion;
+    private int parallelism;
+    private int plansBuilt = 0;
+
+    PreparedStatement(Parser parser, Template template) {
+        this.parser = parser;
+        this.template = template;
+        this.values = new String[template.numParameters];
+    }
+
+    /** @return the number of parameters of this statement */
+    public int getParameterCount() {
+        return values.length;
+    }
+
+    /**
+     * Sets the value of a parameter.
+     *
+     * @param index the parameter, numbered from 1
+     * @param value the value, which must be an int if the parameter is
+     *            compared with an int column
+     */
+    public void setString(int index, String value) {
+        if (index < 1 || index > values.length)
+            throw new IndexOutOfBoundsException("No parameter " + index);
+        values[index - 1] = value;
+    }
+
+    /**
+     * Sets the value of a parameter.
+     *
+     * @param index the parameter, numbered from 1
+     */
+    public void setInt(int index, int value) {
+        setString(index, Integer.toString(value));
+    }
+
+    /** Unsets all parameters */
+    public void clearParameters() {
+        Arrays.fill(values, null);
+    }
+
+    /**
+     * @return the number of times a plan has been built for this statement
+     */
+    public int getPlansBuilt() {
+        return plansBuilt;
+    }
+
+    /**
+     * Runs the statement with the current parameter values, reusing the
+     * cached plan if it is still valid.
+     *
+     * @param tid the transaction to run the statement in
+     * @return the statement's Query, which has not been started
+     * @throws ParsingException if a parameter is not set or has the wrong
+     *             type, or the statement is invalid
+     */
+    public Query execute(TransactionId tid) throws ParsingException,
+            TransactionAbortedException, DbException {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null)
+                throw new ParsingException("No value for parameter " + (i + 1));
+        }
+        if (plan == null || catalog != Database.getCatalog()
+                || catalogVersion != catalog.getVersion()
+                || statsVersion != TableStats.getVersion()
+                || feedbackVersion != CardinalityFeedback.getVersion()
+                || parallelism != Parser.parallelism) {
+            buildPlan(tid);
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                Predicate p = parameterPredicates[i];
+                p.setOperand(LogicalPlan.parseConstant(p.getOperand().getType(), values[i]));
+            }
+            setTransaction(plan, tid);
+        }
+        Query q = new Query(plan, tid);
+        q.setLogicalPlan(logicalPlan);
+        return q;
+    }
+
+    private void buildPlan(TransactionId tid) throws ParsingException {
+        catalog = Database.getCatalog();
+        catalogVersion = catalog.getVersion();
+        statsVersion = TableStats.getVersion();
+        feedbackVersion = CardinalityFeedback.getVersion();
+        parallelism = Parser.parallelism;
+        plan = null;
+        LogicalPlan lp;
+        try {
+            lp = parser.parseQueryLogicalPlan(tid, template.query);
+        } catch (java.io.IOException e) {
+            throw new ParsingException(e);
+        } catch (Zql.ParseException e) {
+            throw new ParsingException(e);
+        }
+        if (lp.getNumParameters() != values.length) {
+            throw new ParsingException(
+                    "Parameters are only supported in comparisons of a column with ? that are ANDed together");
+        }
+        lp.setParameters(values);
+        lp.setParallelism(parallelism);
+        OpIterator pp = lp.physicalPlan(tid, TableStats.getStatsMap(), Parser.explain);
+        logicalPlan = lp;
+        parameterPredicates = lp.getParameterPredicates();
+        plan = pp;
+        plansBuilt++;
+    }
+
+    /** Makes every scan in a plan run as part of transaction tid */
+    private static void setTransaction(OpIterator op, TransactionId tid) {
+        if (op instanceof SeqScan) {
+            ((SeqScan) op).setTransactionId(tid);
+        } else if (op instanceof Operator) {
+            OpIterator[] children = ((Operator) op).getChildren();
+            if (children != null) {
+                for (OpIterator child : children)
+                    setTransaction(child, tid);
+            }
+        }
+    }
+}
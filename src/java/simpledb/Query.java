@@ -20,6 +20,7 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
+    transient private boolean observed = false;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -53,6 +54,7 @@ public class Query implements Serializable {
     public void start() throws IOException, DbException,
             TransactionAbortedException {
         op.open();
+        observed = false;
 
         started = true;
     }
@@ -61,9 +63,16 @@ public class Query implements Serializable {
         return this.op.getTupleDesc();
     }
 
-    /** @return true if there are more tuples remaining. */
+    /** @return true if there are more tuples remaining. Once there are
+        none, the sizes of the results the optimizer estimated are recorded
+        by {@link CardinalityFeedback}. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        boolean more = op.hasNext();
+        if (!more && !observed && logicalPlan != null) {
+            observed = true;
+            CardinalityFeedback.observe(logicalPlan.getObservations());
+        }
+        return more;
     }
 
     /**
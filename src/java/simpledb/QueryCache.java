@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * QueryCache keeps the results of recently run SELECT statements so that a
+ * repeated statement is answered without planning or running it.
+ * <p>
+ * Results are keyed on the normalized text of the statement. Each entry
+ * also records the version of every table the statement reads, as given by
+ * {@link BufferPool#getTableVersion}, when it started running; an entry is
+ * only used while all of those tables still have the same versions, that
+ * is, while no transaction that modified one of them has committed since.
+ * <p>
+ * The cache holds at most a given number of bytes of results, measured
+ * approximately from the tuples' on-disk size, and evicts the least recently
+ * used entries to stay within it. Results larger than the whole budget are
+ * not cached.
+ * <p>
+ * Answers from the cache take no page locks. They are always the result of
+ * running the statement over committed data, but a transaction that reads
+ * a result from the cache does not prevent other transactions from
+ * modifying the tables it read.
+ *
+ * @Threadsafe
+ */
+public class QueryCache {
+
+    /** Approximate bytes of bookkeeping per cached tuple and per entry */
+    private static final int TUPLE_OVERHEAD = 16;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static class Entry {
+        final TupleDesc td;
+        final List<Tuple> tuples;
+        final Map<Integer, Long> versions;
+        final long bytes;
+
+        Entry(TupleDesc td, List<Tuple> tuples, Map<Integer, Long> versions, long bytes) {
+            this.td = td;
+            this.tuples = tuples;
+            this.versions = versions;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxBytes the number of bytes of results the cache may hold
+     */
+    public QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Normalizes the text of a statement, so that statements that differ
+     * only in whitespace share an entry.
+     *
+     * @param sql the text of a statement, for instance ZQuery.toString()
+     * @return the cache key of the statement
+     */
+    public static String normalize(String sql) {
+        String s = sql.trim().replaceAll("\\s+", " ");
+        if (s.endsWith(";"))
+            s = s.substring(0, s.length() - 1).trim();
+        return s;
+    }
+
+    /**
+     * @param tableIds the tables a statement reads
+     * @return the current version of each of the tables
+     */
+    public static Map<Integer, Long> versions(Collection<Integer> tableIds) {
+        Map<Integer, Long> versions = new HashMap<Integer, Long>();
+        for (int id : tableIds)
+            versions.put(id, BufferPool.getTableVersion(id));
+        return versions;
+    }
+
+    /**
+     * Looks up the result of a statement. An entry whose tables have been
+     * modified since it was computed is dropped.
+     *
+     * @param key the normalized statement
+     * @param tableIds the tables the statement reads
+     * @return an iterator over the cached result, or null if there is no
+     *         valid entry
+     */
+    public synchronized OpIterator get(String key, Collection<Integer> tableIds) {
+        Entry e = entries.get(key);
+        if (e != null && !e.versions.equals(versions(tableIds))) {
+            remove(key);
+            invalidations++;
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new CachedResult(e.td, e.tuples);
+    }
+
+    /**
+     * Adds the result of a statement, evicting least recently used entries
+     * to make room. Does nothing if the result alone exceeds the budget, or
+     * if a table changed while the statement ran.
+     *
+     * @param key the normalized statement
+     * @param versions the versions of the statement's tables, taken before
+     *            it started running
+     * @param td the TupleDesc of the result
+     * @param tuples the result
+     */
+    public synchronized void put(String key, Map<Integer, Long> versions,
+            TupleDesc td, List<Tuple> tuples) {
+        if (!versions.equals(versions(versions.keySet())))
+            return;
+        long size = size(key, td, tuples.size());
+        if (size > maxBytes)
+            return;
+        remove(key);
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes + size > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+        entries.put(key, new Entry(td, new ArrayList<Tuple>(tuples), versions, size));
+        bytes += size;
+    }
+
+    /**
+     * Wraps the plan of a statement so that its result is added to the cache
+     * once the plan has been read to the end.
+     *
+     * @param key the normalized statement
+     * @param versions the versions of the statement's tables, taken before
+     *            the plan was built
+     * @param plan the plan of the statement
+     * @return an iterator that returns the same tuples as plan
+     */
+    public OpIterator capture(String key, Map<Integer, Long> versions, OpIterator plan) {
+        return new Capture(key, versions, plan);
+    }
+
+    /** Drops every entry */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null)
+            bytes -= old.bytes;
+    }
+
+    private static long size(String key, TupleDesc td, int tuples) {
+        return ENTRY_OVERHEAD + 2L * key.length()
+                + (long) tuples * (td.getSize() + TUPLE_OVERHEAD);
+    }
+
+    /** @return the number of lookups answered from the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that found no valid entry */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of entries evicted to make room for others */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** @return the number of entries dropped because a table changed */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /** @return the approximate number of bytes the cached results take */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** @return the number of cached results */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache: " + entries.size() + " entries, " + bytes + "/" + maxBytes
+                + " bytes, " + hits + " hits, " + misses + " misses, " + evictions
+                + " evictions, " + invalidations + " invalidations";
+    }
+
+    /** Iterates over a cached result */
+    private static class CachedResult extends Operator {
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private final List<Tuple> tuples;
+        private int pos;
+
+        CachedResult(TupleDesc td, List<Tuple> tuples) {
+            this.td = td;
+            this.tuples = tuples;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            pos = 0;
+        }
+
+        public void rewind() {
+            pos = 0;
+        }
+
+        protected Tuple fetchNext() {
+            return pos < tuples.size() ? tuples.get(pos++) : null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    /** Collects the result of a plan and caches it at the end */
+    private class Capture extends Operator {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final Map<Integer, Long> versions;
+        private OpIterator child;
+        private ArrayList<Tuple> tuples;
+        private boolean done;
+
+        Capture(String key, Map<Integer, Long> versions, OpIterator child) {
+            this.key = key;
+            this.versions = versions;
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+            tuples = new ArrayList<Tuple>();
+            done = false;
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            tuples = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            tuples = new ArrayList<Tuple>();
+            done = false;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (child.hasNext()) {
+                Tuple t = child.next();
+                if (tuples != null) {
+                    tuples.add(t);
+                    // stop collecting a result that cannot be cached anyway
+                    if (size(key, child.getTupleDesc(), tuples.size()) > maxBytes)
+                        tuples = null;
+                }
+                return t;
+            }
+            if (!done && tuples != null)
+                put(key, versions, child.getTupleDesc(), tuples);
+            done = true;
+            return null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+}
@@ -9,12 +9,21 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String BLOCK_JOIN = "⨝(block)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "scan(index)";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String GATHER = "gather";
+    static final String SPOOL = "spool";
+    static final String DISTINCT = "δ";
+    static final String UNION = "∪";
+    static final String INTERSECT = "∩";
+    static final String EXCEPT = "−";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -26,7 +35,11 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin
+                || o instanceof ParallelHashEquiJoin
+                || o instanceof BlockNestedLoopJoin
+                || o instanceof IndexNestedLoopJoin
+                || (o instanceof SetOperator && children.length == 2)) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -76,6 +89,18 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            TupleDesc td = s.getTupleDesc();
+            IndexPredicate ipred = s.getIndexPredicate();
+            if (ipred != null) {
+                // the predicate looked up in the index
+                BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(s.getTableId());
+                thisNode.text = String.format("%1$s(%2$s)", INDEX_SCAN, tableName + alias);
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT, s.getAlias() + "."
+                        + f.getTupleDesc().getFieldName(f.keyField()) + ipred.getOp() + ipred.getField());
+            }
+            for (Predicate p : s.getPredicates())
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+                        td.getFieldName(p.getField()) + p.getOp() + p.getOperand());
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -136,18 +161,57 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin
+                    || plan instanceof ParallelHashEquiJoin
+                    || plan instanceof BlockNestedLoopJoin
+                    || plan instanceof IndexNestedLoopJoin) {
+                JoinPredicate jp;
+                String op = HASH_JOIN;
+                if (plan instanceof HashEquiJoin)
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                else if (plan instanceof ParallelHashEquiJoin)
+                    jp = ((ParallelHashEquiJoin) plan).getJoinPredicate();
+                else if (plan instanceof BlockNestedLoopJoin) {
+                    jp = ((BlockNestedLoopJoin) plan).getJoinPredicate();
+                    op = BLOCK_JOIN;
+                } else {
+                    jp = ((IndexNestedLoopJoin) plan).getJoinPredicate();
+                    op = INDEX_JOIN;
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", op, field1
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (op.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = op.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - op.length() / 2;
+                thisNode.width = Math.max(
+                        left.width + right.width + SPACE.length(),
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
+            }
+            else if (plan instanceof SetOperator && children.length == 2) {
+                String op = plan instanceof Union ? UNION
+                        : plan instanceof Intersect ? INTERSECT : EXCEPT;
+                thisNode.text = String.format("%1$s,card:%2$d", op,
+                        plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (op.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = op.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -156,7 +220,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - op.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -173,13 +237,15 @@ public class QueryPlanVisualizer {
                 int gfield = a.groupField();
 
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s(%2$s),card:%3$d%4$s",
+                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality(),
+                            a.isParallel() ? ",parallel" : "");
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
+                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d%6$s",
                             GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                            a.aggregateFieldName(),a.getEstimatedCardinality(),
+                            a.isStreaming() ? ",streaming" : a.isParallel() ? ",parallel" : "");
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -199,10 +265,11 @@ public class QueryPlanVisualizer {
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
                 Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                String cond = p == null ? f.getExpression().toString()
+                        : children[0].getTupleDesc().getFieldName(p.getField())
+                                + p.getOp() + p.getOperand();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        cond, f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -261,6 +328,45 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
+            else if (plan instanceof Gather) {
+                // all partitions share one shape, so draw only the first
+                Gather g = (Gather) plan;
+                thisNode.text = String.format("%1$s(%2$d),card:%3$d", GATHER,
+                        g.getDegree(), g.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (GATHER.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = GATHER.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - GATHER.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
+            else if (plan instanceof Spool || plan instanceof Distinct) {
+                String name = plan instanceof Spool ? SPOOL : DISTINCT;
+                thisNode.text = String.format("%1$s,card:%2$d", name,
+                        plan.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
             else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
@@ -5,9 +5,10 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk). A scan of a {@link BTreeFile} can instead read only the tuples whose
+ * key satisfies an {@link IndexPredicate}; see {@link #setIndexPredicate}.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements IndexOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -33,10 +34,79 @@ public class SeqScan implements OpIterator {
         this.tableId=tableid;
         this.tableAlias=tableAlias;
     }
+
+    /**
+     * Creates a sequential scan over a contiguous range of pages of a heap
+     * file. Parallel plans give each worker one such scan; see
+     * {@link #partition}.
+     *
+     * @param startPage
+     *            the first page to scan
+     * @param endPage
+     *            one past the last page to scan, or -1 to scan to the end of
+     *            the file
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+        this(tid, tableid, tableAlias);
+        this.startPage=startPage;
+        this.endPage=endPage;
+    }
+
+    /**
+     * Splits a scan of the specified heap file into page-range scans of
+     * roughly equal size. The last range is left open so that it also covers
+     * pages appended after planning.
+     *
+     * @param n
+     *            the number of scans to create
+     * @return n scans which together read every page of the table once
+     */
+    public static SeqScan[] partition(TransactionId tid, int tableid, String tableAlias, int n) {
+        int numPages=((HeapFile)Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        SeqScan[] scans=new SeqScan[n];
+        for(int i=0;i<n;i++){
+            int start=(int)((long)numPages*i/n);
+            int end=i==n-1?-1:(int)((long)numPages*(i+1)/n);
+            scans[i]=new SeqScan(tid,tableid,tableAlias,start,end);
+        }
+        return scans;
+    }
+
     private TransactionId transactionId;
     private int tableId;
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    private int startPage=0;
+    private int endPage=-1;
+    //下推到扫描中的谓词，由DbFile在构造tuple之前求值
+    private Predicate[] predicates=new Predicate[0];
+    //扫描输出的列在表中的下标，null表示输出全部列
+    private int[] columns;
+    private transient TupleDesc tupleDesc;
+    //非HeapFile的表不能只解码部分列，由扫描自己投影
+    private boolean projectInScan;
+    //由上层hash join下推的运行时过滤器，field列上不可能匹配的tuple在扫描中直接丢弃
+    private BloomFilter runtimeFilter;
+    private int runtimeFilterField;
+    private long runtimeFilterRejected;
+    private Tuple lookahead;
+    //B+树表上按索引键查找时的谓词，null表示读整个表
+    private IndexPredicate indexPredicate;
+    //索引谓词变了，下次rewind要重新打开文件迭代器
+    private boolean reopen;
+    //这一遍扫描读出的满足谓词的元组数（包括被运行时过滤器丢掉的），这一遍是否已经读完，
+    //上一次读完的那一遍的元组数（还没读完过时为 -1）
+    private long passCardinality;
+    private boolean exhausted;
+    private long actualCardinality=-1;
+    /**
+     * Makes this scan read as part of another transaction, so that a cached
+     * plan can be run again. Takes effect at the next open.
+     */
+    public void setTransactionId(TransactionId tid) {
+        this.transactionId=tid;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -46,6 +116,13 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     * */
+    public int getTableId() {
+        return tableId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -70,6 +147,7 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableId=tableid;
         this.tableAlias=tableAlias;
+        this.tupleDesc=null;
         // some code goes here
     }
 
@@ -77,12 +155,178 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Restricts this scan to some of the table's columns; the TupleDesc is
+     * narrowed to match. Heap files decode only these columns. Predicates
+     * that were already pushed into this scan must be re-pushed, as field
+     * indexes change.
+     *
+     * @param columns
+     *            the indexes in the table of the columns to return, in the
+     *            order to return them, or null to return every column
+     */
+    public void setColumns(int[] columns) {
+        this.columns=columns;
+        this.tupleDesc=null;
+    }
+
+    /**
+     * @return the indexes in the table of the columns this scan returns, or
+     *         null if it returns every column
+     */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param field
+     *            the index of a field in this scan's TupleDesc
+     * @return the index of the same field in the table
+     */
+    public int getTableField(int field) {
+        return columns==null?field:columns[field];
+    }
+
+    /**
+     * Pushes a predicate into this scan: only tuples that satisfy it are
+     * returned. The file evaluates pushed predicates while reading its pages
+     * (see {@link DbFile#iterator(TransactionId, Predicate[])}), which is
+     * cheaper than a {@link Filter} above the scan. Takes effect on the next
+     * open.
+     *
+     * @param p
+     *            a predicate over this scan's TupleDesc
+     */
+    public void addPredicate(Predicate p) {
+        predicates=Arrays.copyOf(predicates,predicates.length+1);
+        predicates[predicates.length-1]=p;
+    }
+
+    /**
+     * @return the predicates pushed into this scan
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Makes this scan read only the tuples whose index key satisfies ipred,
+     * looking them up in the table's B+ tree instead of reading every page.
+     * Predicates pushed into the scan are still applied to those tuples.
+     * Takes effect on the next open or rewind.
+     *
+     * @param ipred
+     *            the predicate on the key field of the table's
+     *            {@link BTreeFile}, or null to scan the whole table
+     */
+    public void setIndexPredicate(IndexPredicate ipred) {
+        this.indexPredicate=ipred;
+        this.reopen=true;
+    }
+
+    /**
+     * @return the predicate this scan looks up in the table's index, or null
+     *         if it reads the whole table
+     */
+    public IndexPredicate getIndexPredicate() {
+        return indexPredicate;
+    }
+
+    public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        setIndexPredicate(ipred);
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        setIndexPredicate(ipred);
+        rewind();
+    }
+
+    /**
+     * Installs a runtime filter on this scan: from now on, tuples whose value
+     * in the given field is not in the filter are skipped. A hash join sets
+     * this on its probe-side scan once its build side is known; replacing the
+     * filter takes effect from the next tuple read.
+     *
+     * @param field
+     *            the index of the filtered field in this scan's TupleDesc
+     * @param filter
+     *            the values that may match, or null to remove the filter
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtimeFilterField=field;
+        this.runtimeFilter=filter;
+    }
+
+    /**
+     * @return the number of tuples skipped by runtime filters since this
+     *         scan was created
+     */
+    public long getRuntimeFilterRejected() {
+        return runtimeFilterRejected;
+    }
+
+    /**
+     * @return the number of tuples satisfying the predicates pushed into
+     *         this scan that it read the last time it read all of them since
+     *         it was opened, including those then skipped by a runtime
+     *         filter; -1 if it has not read them all yet. Used by
+     *         {@link CardinalityFeedback}.
+     */
+    public long getActualCardinality() {
+        return actualCardinality;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        dbFileIterator=Database.getCatalog().getDatabaseFile(tableId).iterator(transactionId);
+        DbFile file=Database.getCatalog().getDatabaseFile(tableId);
+        //文件按表中的列下标求值谓词
+        Predicate[] tablePredicates=new Predicate[predicates.length];
+        for(int i=0;i<predicates.length;i++)
+            tablePredicates[i]=new Predicate(getTableField(predicates[i].getField()),
+                    predicates[i].getOp(),predicates[i].getOperand());
+
+        projectInScan=false;
+        reopen=false;
+        passCardinality=0;
+        exhausted=false;
+        actualCardinality=-1;
+        if(indexPredicate!=null){
+            if(!(file instanceof BTreeFile))
+                throw new DbException("index scans are only supported on B+ tree files");
+            if(startPage!=0||endPage>=0)
+                throw new DbException("page range scans are only supported on heap files");
+            dbFileIterator=((BTreeFile)file).indexIterator(transactionId,indexPredicate);
+            if(predicates.length>0)
+                dbFileIterator=DbFile.filter(dbFileIterator,tablePredicates);
+            projectInScan=columns!=null;
+        } else if(file instanceof HeapFile)
+            dbFileIterator=((HeapFile)file).iterator(transactionId,startPage,endPage,
+                    tablePredicates,columns,getTupleDesc());
+        else if(startPage!=0||endPage>=0)
+            throw new DbException("page range scans are only supported on heap files");
+        else {
+            if(predicates.length==0)
+                dbFileIterator=file.iterator(transactionId);
+            else
+                dbFileIterator=file.iterator(transactionId,tablePredicates);
+            projectInScan=columns!=null;
+        }
         dbFileIterator.open();
     }
 
+    /** Reads the next tuple from the file, keeping only this scan's columns */
+    private Tuple readTuple() throws TransactionAbortedException, DbException {
+        Tuple t=dbFileIterator.next();
+        if(!projectInScan)
+            return t;
+        Tuple projected=new Tuple(getTupleDesc());
+        for(int i=0;i<columns.length;i++)
+            projected.setField(i,t.getField(columns[i]));
+        projected.setRecordId(t.getRecordId());
+        return projected;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -95,8 +339,18 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        //String fullname=this.tableAlias+"."+this.getTableName();
-        return Database.getCatalog().getTupleDesc(tableId);
+        if(tupleDesc!=null)
+            return tupleDesc;
+        TupleDesc td=Database.getCatalog().getTupleDesc(tableId);
+        int n=columns==null?td.numFields():columns.length;
+        Type[] types=new Type[n];
+        String[] names=new String[n];
+        for(int i=0;i<n;i++){
+            types[i]=td.getFieldType(getTableField(i));
+            names[i]=tableAlias+"."+td.getFieldName(getTableField(i));
+        }
+        tupleDesc=new TupleDesc(types,names);
+        return tupleDesc;
         //return null;
     }
 
@@ -104,32 +358,73 @@ public class SeqScan implements OpIterator {
         // some code goes here
         if(dbFileIterator==null)
             throw new DbException("not open yet");
-        return dbFileIterator.hasNext();
+        if(runtimeFilter==null&&lookahead==null){
+            if(!dbFileIterator.hasNext()){
+                endPass();
+                return false;
+            }
+            return true;
+        }
+        //有运行时过滤器时，预读下一个能通过过滤器的tuple
+        while (lookahead==null&&dbFileIterator.hasNext()){
+            Tuple t=readTuple();
+            passCardinality++;
+            if(runtimeFilter==null||runtimeFilter.mightContain(t.getField(runtimeFilterField)))
+                lookahead=t;
+            else
+                runtimeFilterRejected++;
+        }
+        if(lookahead==null)
+            endPass();
+        return lookahead!=null;
+    }
+
+    private void endPass() {
+        if(!exhausted){
+            exhausted=true;
+            actualCardinality=passCardinality;
+        }
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
 
-        if(!dbFileIterator.hasNext())
-            throw new NoSuchElementException();
-
         if(dbFileIterator==null)
             throw new IllegalArgumentException();
 
-        return dbFileIterator.next();
+        if(!hasNext())
+            throw new NoSuchElementException();
+
+        if(lookahead!=null){
+            //预读时已经计过数
+            Tuple t=lookahead;
+            lookahead=null;
+            return t;
+        }
+        passCardinality++;
+        return readTuple();
         //return null;
     }
 
     public void close() {
         // some code goes here
         dbFileIterator.close();
+        lookahead=null;
         //dbFileIterator=null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        lookahead=null;
+        if(reopen){
+            dbFileIterator.close();
+            open();
+            return;
+        }
+        passCardinality=0;
+        exhausted=false;
         dbFileIterator.rewind();
     }
 }
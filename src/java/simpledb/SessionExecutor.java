@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+
+/**
+ * SessionExecutor runs the statements of many client sessions on a shared
+ * executor, so that an idle session does not hold a thread.
+ * <p>
+ * Each {@link Session} has its own {@link Parser}, and therefore its own
+ * transaction state, and runs its statements one at a time in submission
+ * order. A thread is only taken from the executor while a statement is
+ * running. On a JVM with virtual threads every statement runs on a new
+ * virtual thread, so sessions that block on a page lock or on disk I/O park
+ * instead of holding an OS thread; elsewhere statements run on a cached pool
+ * of daemon platform threads.
+ */
+public class SessionExecutor {
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * Creates a SessionExecutor that uses virtual threads if the JVM
+     * supports them, and a cached thread pool otherwise.
+     */
+    public SessionExecutor() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            this.executor = virtual;
+            this.virtualThreads = true;
+        } else {
+            this.executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "simpledb-session");
+                t.setDaemon(true);
+                return t;
+            });
+            this.virtualThreads = false;
+        }
+    }
+
+    /**
+     * Creates a SessionExecutor that runs statements on the given executor.
+     *
+     * @param executor
+     *            the executor to run statements on; it is shut down by
+     *            {@link #shutdown}
+     */
+    public SessionExecutor(ExecutorService executor) {
+        this.executor = executor;
+        this.virtualThreads = false;
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which only exists
+     * on JDK 21 and later.
+     *
+     * @return a virtual-thread-per-task executor, or null if unavailable
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if statements run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return a new session with no transaction in progress
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Stops accepting statements. Statements that are already running
+     * finish; statements still queued behind them in a session are
+     * cancelled.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until every submitted statement has finished after a
+     * {@link #shutdown}.
+     *
+     * @return true if all statements finished, false on timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * A client session. Tasks submitted to a session run one after the
+     * other, in the order they were submitted, but never on the submitting
+     * thread.
+     */
+    public class Session {
+        private final Parser parser = new Parser();
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+        private boolean running = false;
+
+        /**
+         * Runs a SQL statement (or a BEGIN/COMMIT/ROLLBACK) in this session,
+         * as {@link Parser#processNextStatement(String)} does. Results and
+         * errors are printed to standard output.
+         *
+         * @return a Future that completes when the statement has finished
+         */
+        public Future<Void> execute(String statement) {
+            return submit(() -> {
+                parser.processNextStatement(statement);
+                return null;
+            });
+        }
+
+        /**
+         * Runs an arbitrary task in this session, after every task submitted
+         * before it. The task may use {@link #getTransaction} to take part in
+         * the session's current transaction.
+         *
+         * @return a Future for the task's result
+         */
+        public <T> Future<T> submit(Callable<T> task) {
+            FutureTask<T> f = new FutureTask<T>(task);
+            synchronized (this) {
+                pending.add(f);
+                if (running)
+                    return f;
+                running = true;
+            }
+            schedule();
+            return f;
+        }
+
+        /**
+         * @return the transaction started by a BEGIN statement in this
+         *         session, or null if none is in progress
+         */
+        public Transaction getTransaction() {
+            return parser.getTransaction();
+        }
+
+        /**
+         * Aborts the session's transaction, if one is in progress, once
+         * the tasks already submitted have run. The session must not be
+         * used afterwards.
+         *
+         * @return a Future that completes when the session is closed
+         */
+        public Future<Void> close() {
+            return submit(() -> {
+                Transaction t = parser.getTransaction();
+                if (t != null) {
+                    t.abort();
+                    parser.setTransaction(null);
+                }
+                return null;
+            });
+        }
+
+        /** Hands the next pending task to the executor */
+        private void schedule() {
+            Runnable next;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    running = false;
+                    return;
+                }
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        next.run();
+                    } finally {
+                        schedule();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                cancelPending(next);
+            }
+        }
+
+        /** Cancels every queued task once the executor has shut down */
+        private void cancelPending(Runnable next) {
+            synchronized (this) {
+                ((Future<?>) next).cancel(false);
+                for (Runnable r : pending)
+                    ((Future<?>) r).cancel(false);
+                pending.clear();
+                running = false;
+            }
+        }
+    }
+}
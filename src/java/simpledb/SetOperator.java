@@ -0,0 +1,417 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SetOperator is the base class of the hash-based operators that remove
+ * duplicate tuples: {@link Distinct}, {@link Union}, {@link Intersect} and
+ * {@link Except}. Two tuples are duplicates if all their fields are equal;
+ * field names are ignored, so the inputs of a binary set operation only need
+ * the same field types. Output tuples have the TupleDesc of the first child.
+ * <p>
+ * The operators stream: a tuple is returned as soon as it is known not to be
+ * a duplicate. Each operator keeps at most its memory budget's worth of
+ * tuples in hash tables. When the tuples seen so far do not fit, the new
+ * ones are hash partitioned into {@link SpillFile}s and deduplicated one
+ * partition at a time once the input is exhausted; a tuple and all its
+ * duplicates land in the same partition. Partitions that still do not fit
+ * are partitioned again with a different hash function, up to
+ * {@link #MAX_DEPTH} times.
+ * <p>
+ * Intersect and Except first load the distinct tuples of their second child
+ * into a hash table and then stream their first child against it. If the
+ * second child does not fit, both inputs are partitioned and each pair of
+ * partitions is processed on its own.
+ */
+public abstract class SetOperator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages' worth of tuples kept in memory */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** Number of partitions an input is split into when it does not fit in memory */
+    static final int PARTITIONS = 16;
+
+    /** Number of times a partition is split again before it is kept in memory anyway */
+    static final int MAX_DEPTH = 4;
+
+    /** Estimated per-tuple overhead of a hash table entry, on top of its fields */
+    private static final int ENTRY_OVERHEAD = 48;
+
+    private OpIterator[] children;
+    private final long memoryBytes;
+
+    private transient ArrayDeque<Pass> pending;
+    private transient Pass pass;
+    private transient int spilled;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the inputs of the operation
+     * @param memoryBytes
+     *            the number of bytes of tuples to keep in hash tables before
+     *            partitioning the input into temporary files
+     * @throws IllegalArgumentException
+     *             if the children do not have the same field types
+     */
+    protected SetOperator(OpIterator[] children, long memoryBytes) {
+        for (int i = 1; i < children.length; i++) {
+            if (!compatible(children[0].getTupleDesc(), children[i].getTupleDesc()))
+                throw new IllegalArgumentException("inputs of " + getClass().getSimpleName()
+                        + " must have the same number and types of fields");
+        }
+        this.children = children;
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * @return the default memory budget: {@link #DEFAULT_MEMORY_PAGES}
+     *         pages' worth of tuples
+     */
+    static long defaultMemoryBytes() {
+        return (long) DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+    }
+
+    /**
+     * @return true if tuples of the two TupleDescs have the same field types
+     */
+    public static boolean compatible(TupleDesc td1, TupleDesc td2) {
+        if (td1.numFields() != td2.numFields())
+            return false;
+        for (int i = 0; i < td1.numFields(); i++) {
+            if (td1.getFieldType(i) != td2.getFieldType(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of leading children whose tuples are returned; the
+     *         remaining child, if any, is the one they are matched against
+     */
+    protected abstract int outputChildren();
+
+    /**
+     * @return true to return tuples that occur in the last child, false to
+     *         return tuples that do not; only called if there is such a child
+     */
+    protected boolean keepMatches() {
+        return false;
+    }
+
+    /**
+     * @return the number of tuples written to temporary files so far
+     */
+    public int getSpilledTuples() {
+        return spilled;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        for (OpIterator child : children)
+            child.open();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        discard();
+        for (OpIterator child : children)
+            child.close();
+    }
+
+    /**
+     * Starts over from the beginning of the children; tuples are
+     * deduplicated again rather than remembered across passes.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        discard();
+        for (OpIterator child : children)
+            child.rewind();
+        start();
+    }
+
+    /**
+     * Returns the next tuple that passes the operation and has not been
+     * returned before.
+     *
+     * @return the next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (pass != null) {
+            if (pass.build != null && pass.matches == null && !build(pass)) {
+                // both inputs were partitioned instead
+                pass = pending.poll();
+                continue;
+            }
+            Tuple t = pass.input.next();
+            if (t == null) {
+                finish(pass);
+                pass = pending.poll();
+                continue;
+            }
+            List<Field> key = key(t);
+            if (pass.matches != null && pass.matches.contains(key) != keepMatches())
+                continue;
+            if (pass.seen.contains(key))
+                continue;
+            long size = entrySize(t.getTupleDesc());
+            if (pass.partitions == null
+                    && (pass.used + size <= memoryBytes || pass.depth >= MAX_DEPTH)) {
+                pass.seen.add(key);
+                pass.used += size;
+                return t;
+            }
+            // the tuples seen so far fill the budget, so this one is new;
+            // its duplicates will follow it into the same partition
+            if (pass.partitions == null)
+                pass.partitions = new SpillFile[PARTITIONS];
+            spill(pass.partitions, getTupleDesc(), t, key, pass.depth);
+        }
+        return null;
+    }
+
+    /**
+     * Loads the tuples of a pass's second input into its hash table.
+     *
+     * @return true if they fit; false if instead both inputs were
+     *         partitioned and a pass for each pair of partitions was queued
+     */
+    private boolean build(Pass p) throws DbException, TransactionAbortedException {
+        TupleDesc td = children[children.length - 1].getTupleDesc();
+        HashSet<List<Field>> matches = new HashSet<List<Field>>();
+        Tuple t;
+        while ((t = p.build.next()) != null) {
+            List<Field> key = key(t);
+            if (matches.contains(key))
+                continue;
+            if (p.used + entrySize(td) <= memoryBytes || p.depth >= MAX_DEPTH) {
+                matches.add(key);
+                p.used += entrySize(td);
+                continue;
+            }
+            SpillFile[] right = new SpillFile[PARTITIONS];
+            for (List<Field> k : matches)
+                spill(right, td, toTuple(k, td), k, p.depth);
+            matches = null;
+            spill(right, td, t, key, p.depth);
+            while ((t = p.build.next()) != null)
+                spill(right, td, t, key(t), p.depth);
+            SpillFile[] left = new SpillFile[PARTITIONS];
+            while ((t = p.input.next()) != null)
+                spill(left, getTupleDesc(), t, key(t), p.depth);
+            p.close();
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (left[i] == null) {
+                    if (right[i] != null)
+                        right[i].delete();
+                } else {
+                    if (right[i] == null)
+                        right[i] = new SpillFile(td);
+                    pending.add(new Pass(new SpillSource(left[i]), new SpillSource(right[i]),
+                            p.depth + 1));
+                }
+            }
+            return false;
+        }
+        p.matches = matches;
+        return true;
+    }
+
+    /**
+     * Ends a pass whose input is exhausted, and queues a pass for each
+     * partition it spilled.
+     */
+    private void finish(Pass p) throws DbException {
+        p.close();
+        if (p.partitions == null)
+            return;
+        for (SpillFile f : p.partitions) {
+            if (f != null)
+                pending.add(new Pass(new SpillSource(f), null, p.depth + 1));
+        }
+    }
+
+    private void start() {
+        pending = new ArrayDeque<Pass>();
+        spilled = 0;
+        int n = outputChildren();
+        pass = new Pass(new ChildSource(Arrays.copyOf(children, n)),
+                n < children.length ? new ChildSource(new OpIterator[] { children[n] }) : null,
+                0);
+    }
+
+    /** Deletes the temporary files of the current and all queued passes */
+    private void discard() {
+        if (pass != null) {
+            pass.close();
+            pass.deletePartitions();
+            pass = null;
+        }
+        if (pending != null) {
+            for (Pass p : pending)
+                p.close();
+            pending = null;
+        }
+    }
+
+    /** Adds a tuple to its partition, creating the partition's file if needed */
+    private void spill(SpillFile[] partitions, TupleDesc td, Tuple t, List<Field> key,
+            int depth) throws DbException {
+        int i = partition(key, depth);
+        if (partitions[i] == null)
+            partitions[i] = new SpillFile(td);
+        partitions[i].add(t);
+        spilled++;
+    }
+
+    /**
+     * @return the partition of a tuple at the given depth; each depth uses a
+     *         different hash function, so that a partition is split again
+     */
+    private static int partition(List<Field> key, int depth) {
+        int h = key.hashCode() + depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % PARTITIONS;
+    }
+
+    private static List<Field> key(Tuple t) {
+        int n = t.getTupleDesc().numFields();
+        ArrayList<Field> key = new ArrayList<Field>(n);
+        for (int i = 0; i < n; i++)
+            key.add(t.getField(i));
+        return key;
+    }
+
+    private static Tuple toTuple(List<Field> key, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < key.size(); i++)
+            t.setField(i, key.get(i));
+        return t;
+    }
+
+    private static long entrySize(TupleDesc td) {
+        return td.getSize() + ENTRY_OVERHEAD;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children;
+    }
+
+    /** A stream of tuples that a pass reads */
+    private interface Source {
+        /** @return the next tuple, or null at the end */
+        Tuple next() throws DbException, TransactionAbortedException;
+
+        void close();
+    }
+
+    /**
+     * Reads some of the children one after the other, giving their tuples
+     * the TupleDesc of the operator.
+     */
+    private class ChildSource implements Source {
+        private final OpIterator[] inputs;
+        private int current = 0;
+
+        ChildSource(OpIterator[] inputs) {
+            this.inputs = inputs;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            while (current < inputs.length) {
+                if (inputs[current].hasNext()) {
+                    Tuple t = inputs[current].next();
+                    if (current == 0)
+                        return t;
+                    return toTuple(key(t), getTupleDesc());
+                }
+                current++;
+            }
+            return null;
+        }
+
+        public void close() {
+            // the children are closed with the operator
+        }
+    }
+
+    /** Reads a partition, and deletes it when done */
+    private static class SpillSource implements Source {
+        private final SpillFile file;
+        private SpillFile.Reader reader;
+
+        SpillSource(SpillFile file) {
+            this.file = file;
+        }
+
+        public Tuple next() throws DbException {
+            if (reader == null)
+                reader = file.reader();
+            return reader.next();
+        }
+
+        public void close() {
+            if (reader != null)
+                reader.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Deduplicates one input, optionally against the tuples of a second one:
+     * the children at the start, a pair of partitions afterwards.
+     */
+    private static class Pass {
+        final Source input;
+        final Source build;
+        final int depth;
+        /** the distinct tuples of the second input, once loaded */
+        HashSet<List<Field>> matches;
+        /** the tuples returned so far */
+        final HashSet<List<Field>> seen = new HashSet<List<Field>>();
+        long used = 0;
+        /** where the input goes once the budget is used up */
+        SpillFile[] partitions;
+
+        Pass(Source input, Source build, int depth) {
+            this.input = input;
+            this.build = build;
+            this.depth = depth;
+        }
+
+        void close() {
+            input.close();
+            if (build != null)
+                build.close();
+        }
+
+        void deletePartitions() {
+            if (partitions != null) {
+                for (SpillFile f : partitions) {
+                    if (f != null)
+                        f.delete();
+                }
+                partitions = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * SharedScanManager lets concurrent full scans of the same {@link HeapFile}
+ * share their page reads. It remembers the page each open scan is reading;
+ * a new scan starts at the page another scan has just read instead of at
+ * page 0, reads to the end of the file and then wraps around to the pages
+ * before its starting point. Scans that run at about the same speed then
+ * read each page at about the same time, so all but the first find it in
+ * the {@link BufferPool}, and N concurrent scans cost close to one scan's
+ * worth of I/O instead of thrashing the buffer pool with N.
+ * <p>
+ * Only scans of the whole file of tables with at least {@link #MIN_PAGES}
+ * pages are shared; smaller tables fit in a buffer pool anyway, and are
+ * always read from page 0, in the order the pages are stored. A shared scan
+ * returns every tuple exactly once, but not in page order.
+ */
+public class SharedScanManager {
+
+    /** Tables with fewer pages than this are never scanned from the middle */
+    public static final int MIN_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** The page each open scan read last; scans that are never closed are forgotten */
+    private final Map<Object, Integer> positions = new WeakHashMap<Object, Integer>();
+    private WeakReference<Object> lastReporter = new WeakReference<Object>(null);
+
+    /**
+     * Registers a new scan of a table and chooses where it starts.
+     *
+     * @param scan the scan
+     * @param numPages the number of pages of the table
+     * @return the page the scan should read first: the page the most
+     *         recently active other scan read last, or 0 if there is none
+     */
+    public synchronized int attach(Object scan, int numPages) {
+        int start = 0;
+        if (numPages >= MIN_PAGES) {
+            Object last = lastReporter.get();
+            Integer p = last == null ? null : positions.get(last);
+            if (p == null && !positions.isEmpty())
+                p = positions.values().iterator().next();
+            if (p != null && p < numPages)
+                start = p;
+        }
+        positions.put(scan, start);
+        return start;
+    }
+
+    /**
+     * Records the page a scan is reading.
+     */
+    public synchronized void report(Object scan, int page) {
+        if (positions.containsKey(scan)) {
+            positions.put(scan, page);
+            lastReporter = new WeakReference<Object>(scan);
+        }
+    }
+
+    /**
+     * Unregisters a scan that has finished or been closed.
+     */
+    public synchronized void detach(Object scan) {
+        positions.remove(scan);
+        if (lastReporter.get() == scan)
+            lastReporter.clear();
+    }
+
+    /**
+     * @return the number of scans currently registered
+     */
+    public synchronized int activeScans() {
+        return positions.size();
+    }
+}
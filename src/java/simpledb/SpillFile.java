@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in the memory it is allowed to use. Tuples are appended
+ * with {@link #add} and read back, in the order they were added, by any
+ * number of {@link Reader}s. Only the fields of the tuples are stored, not
+ * their {@link RecordId}s. The file is deleted by {@link #delete}, or when
+ * the JVM exits if it is never deleted.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * Creates an empty spill file for tuples of the given TupleDesc.
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".tmp");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the tuples in this file
+     */
+    TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added to this file
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     */
+    void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+            size++;
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return a reader positioned on the first tuple of the file; it sees
+     *         the tuples added so far
+     */
+    Reader reader() throws DbException {
+        try {
+            out.flush();
+            return new Reader(new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file))), size);
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the file. It may not be used afterwards.
+     */
+    void delete() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads the tuples of a spill file back in the order they were added.
+     */
+    class Reader {
+        private final DataInputStream in;
+        private final int count;
+        private int read = 0;
+
+        private Reader(DataInputStream in, int count) {
+            this.in = in;
+            this.count = count;
+        }
+
+        /**
+         * @return the next tuple, or null if all tuples have been read, in
+         *         which case the reader is closed
+         */
+        Tuple next() throws DbException {
+            if (read == count) {
+                close();
+                return null;
+            }
+            try {
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+                read++;
+                return t;
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Closes the reader before all tuples have been read.
+         */
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing more will be read from it
+            }
+        }
+    }
+}
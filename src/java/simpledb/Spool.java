@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Spool is an operator that materializes the output of its child the first
+ * time it is read, and answers every later {@link #rewind} from the copy
+ * instead of re-running the child. It is placed under the inner side of a
+ * nested-loops {@link Join}, which rewinds its inner input once per outer
+ * tuple; without it an inner {@link Filter} or {@link Join} subtree would be
+ * executed again for every outer tuple.
+ * <p>
+ * Tuples are kept in memory until they take up more than the spool's memory
+ * budget; the rest are written to a temporary file, which is read back from
+ * the beginning on every pass and deleted when the spool is closed. The
+ * first pass streams the child's tuples through as they are produced, so a
+ * spool does not delay its parent's first tuple. Spooled tuples carry their
+ * fields but not their {@link RecordId}s.
+ */
+public class Spool extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages' worth of tuples kept in memory */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** Estimated per-tuple overhead of the in-memory copy, on top of its fields */
+    private static final int TUPLE_OVERHEAD = 16;
+
+    private OpIterator child;
+    private final long memoryBytes;
+
+    private transient ArrayList<Tuple> memory;
+    private transient long memoryUsed;
+    private transient SpillFile spill;
+    private transient SpillFile.Reader spillReader;
+    /** true once the child has been read to the end */
+    private transient boolean complete;
+    /** position of the current pass in the in-memory tuples */
+    private transient int pos;
+    /** true once the current pass has started reading the spill file */
+    private transient boolean readingSpill;
+
+    /**
+     * Constructor. Keeps up to {@link #DEFAULT_MEMORY_PAGES} pages' worth of
+     * tuples in memory.
+     *
+     * @param child
+     *            the subtree to materialize
+     */
+    public Spool(OpIterator child) {
+        this(child, (long) DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the subtree to materialize
+     * @param memoryBytes
+     *            the number of bytes of tuples to keep in memory before
+     *            writing the rest to a temporary file
+     */
+    public Spool(OpIterator child, long memoryBytes) {
+        this.child = child;
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * @return the number of tuples written to the temporary file so far
+     */
+    public int getSpilledTuples() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    /**
+     * @return true if the child has been read to the end, and all further
+     *         passes are served from the spool
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        discard();
+        child.open();
+        memory = new ArrayList<Tuple>();
+        memoryUsed = 0;
+        complete = false;
+        pos = 0;
+        readingSpill = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        discard();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!complete) {
+            // finish the first pass so that every later one sees all tuples
+            while (child.hasNext())
+                add(child.next());
+            complete = true;
+        }
+        pos = 0;
+        readingSpill = false;
+        closeSpillReader();
+    }
+
+    /**
+     * Returns the next tuple of the child, reading it from the child on the
+     * first pass and from the spool on later ones.
+     *
+     * @return the next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!complete) {
+            if (child.hasNext()) {
+                Tuple t = child.next();
+                add(t);
+                return t;
+            }
+            complete = true;
+            // this pass has returned everything already
+            pos = memory.size();
+            readingSpill = true;
+            return null;
+        }
+        if (pos < memory.size())
+            return memory.get(pos++);
+        if (spill == null)
+            return null;
+        if (!readingSpill) {
+            spillReader = spill.reader();
+            readingSpill = true;
+        }
+        if (spillReader == null)
+            return null;
+        Tuple t = spillReader.next();
+        if (t == null)
+            spillReader = null;
+        return t;
+    }
+
+    /** Appends a tuple of the child to the spool */
+    private void add(Tuple t) throws DbException {
+        TupleDesc td = getTupleDesc();
+        if (spill == null && memoryUsed + td.getSize() + TUPLE_OVERHEAD <= memoryBytes) {
+            memory.add(t);
+            memoryUsed += td.getSize() + TUPLE_OVERHEAD;
+            return;
+        }
+        if (spill == null)
+            spill = new SpillFile(td);
+        spill.add(t);
+    }
+
+    private void closeSpillReader() {
+        if (spillReader != null) {
+            spillReader.close();
+            spillReader = null;
+        }
+    }
+
+    /** Drops the spooled tuples and deletes the temporary file */
+    private void discard() {
+        memory = null;
+        closeSpillReader();
+        if (spill != null) {
+            spill.delete();
+            spill = null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
@@ -62,6 +62,25 @@ public class StringAggregator implements Aggregator {
 
     }
 
+    /**
+     * Merge the counts of another StringAggregator into this one.
+     * @param other a StringAggregator with the same fields
+     */
+    public void mergePartial(Aggregator other) {
+        StringAggregator partial=(StringAggregator)other;
+        if(fieldNames[1]==null){
+            fieldNames[0]=partial.fieldNames[0];
+            fieldNames[1]=partial.fieldNames[1];
+        }
+        for(Field gbField:partial.hashMap.keySet()){
+            int count=partial.hashMap.get(gbField);
+            if(!hashMap.containsKey(gbField))
+                hashMap.put(gbField,count);
+            else
+                hashMap.put(gbField,hashMap.get(gbField)+count);
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
@@ -1,15 +1,39 @@
 package simpledb;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query. 
  * 
  * This class is not needed in implementing lab1 and lab2.
+ * <p>
+ * The statistics of a heap file are gathered in a single scan, split into
+ * page ranges that are summarized in parallel on the database worker pool
+ * and then merged. They are persisted in a side file next to the heap file,
+ * named after it with a ".stats" suffix, and reloaded instead of scanning
+ * the table again as long as the heap file has not been written since.
+ * <p>
+ * The statistics in the stats map are kept up to date as transactions
+ * commit: the {@link BufferPool} records the tuples each transaction inserts
+ * and deletes in a {@link Delta}, which is applied to the table's statistics
+ * on commit. Incremental updates drift from what a fresh scan would find, so
+ * once the number of tuples modified since the statistics were gathered
+ * exceeds {@link #REFRESH_BASE_THRESHOLD} plus {@link #REFRESH_SCALE_FACTOR}
+ * of the table, they are gathered again in the background.
  */
 public class TableStats {
 
@@ -17,12 +41,24 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /** Incremented whenever the statistics of a table are replaced */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * @return a counter that changes whenever the statistics of a table are
+     *         set, so that plans built from older statistics can be redone
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        version.incrementAndGet();
     }
     
     public static void setStatsMap(HashMap<String,TableStats> s)
@@ -31,6 +67,7 @@ public class TableStats {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
             statsMapF.set(null, s);
+            version.incrementAndGet();
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -66,6 +103,36 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of rows sampled from each table, from which the most common
+     * values and the histograms of its columns are built
+     */
+    static final int SAMPLE_SIZE = 10000;
+
+    /** Number of modified tuples past which statistics are always refreshed */
+    static final int REFRESH_BASE_THRESHOLD = 50;
+
+    /** Fraction of a table that may be modified before its statistics are refreshed */
+    static final double REFRESH_SCALE_FACTOR = 0.1;
+
+    /** Identifies a statistics side file */
+    private static final int MAGIC = 0x53544154;
+
+    /** The layout of the side file, changed whenever the statistics kept change */
+    private static final int FORMAT = 2;
+
+    private final int tableid;
+    private final int ioCostPerPage;
+    private volatile int numPages;
+    private final Summary summary;
+    //提交时整体替换，估计时不用加锁
+    private volatile ColumnStats[] columns;
+    private final boolean loaded;
+    private final long analyzedTuples;
+    /** 收集统计信息以后插入和删除的元组数 */
+    private long modifications=0;
+    private boolean refreshing=false;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -77,6 +144,14 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
+        this(tableid,ioCostPerPage,true);
+    }
+
+    /**
+     * @param useSideFile whether to load the statistics from the side file
+     *            if it is up to date, rather than scanning the table
+     */
+    private TableStats(int tableid, int ioCostPerPage, boolean useSideFile) {
         // For this function, you'll have to get the
         // DbFile for the table in question,
         // then scan through its tuples and calculate
@@ -85,6 +160,260 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.tableid=tableid;
+        this.ioCostPerPage=ioCostPerPage;
+        DbFile file=Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td=file.getTupleDesc();
+        if(file instanceof HeapFile){
+            HeapFile hf=(HeapFile)file;
+            numPages=hf.numPages();
+            File side=statsFile(hf.getFile());
+            Summary s=useSideFile?load(side,hf.getFile(),td):null;
+            loaded=s!=null;
+            if(s==null){
+                s=scan(hf,td);
+                persist(s,side,hf.getFile(),td);
+            }
+            summary=s;
+        }else{
+            numPages=file instanceof BTreeFile?((BTreeFile)file).numPages():0;
+            Summary s=new Summary(td,0);
+            TransactionId tid=new TransactionId();
+            summarize(file.iterator(tid),tid,s);
+            summary=s;
+            loaded=false;
+        }
+        columns=summary.columns();
+        analyzedTuples=summary.tuples;
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from the table
+     *         by committed transactions since these statistics were gathered
+     */
+    public synchronized long getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Applies the changes of a committed transaction to the statistics of
+     * the tables it modified, and starts a refresh of those that have been
+     * modified too much since their statistics were gathered. Tables
+     * without statistics in the stats map are skipped.
+     *
+     * @param deltas the changes, by table id
+     */
+    static void transactionCommitted(Map<Integer, Delta> deltas) {
+        for(Map.Entry<Integer,Delta> e:deltas.entrySet()){
+            String name=Database.getCatalog().getTableName(e.getKey());
+            TableStats s=name==null?null:statsMap.get(name);
+            if(s!=null&&s.tableid==e.getKey()&&s.apply(e.getValue()))
+                s.refresh(name);
+        }
+    }
+
+    /**
+     * 把一个事务的修改加到统计信息里
+     *
+     * @return true if the statistics should be gathered again
+     */
+    private synchronized boolean apply(Delta d) {
+        DbFile file=Database.getCatalog().getDatabaseFile(tableid);
+        if(file instanceof HeapFile)
+            numPages=((HeapFile)file).numPages();
+        else if(file instanceof BTreeFile)
+            numPages=((BTreeFile)file).numPages();
+        for(Tuple t:d.inserted)
+            summary.add(t);
+        summary.tuples=Math.max(0,summary.tuples-d.deleted.size()+d.otherInserted-d.otherDeleted);
+        ColumnStats[] c=columns.clone();
+        for(int i=0;i<c.length;i++){
+            int[] added=new int[d.inserted.size()];
+            for(int j=0;j<added.length;j++)
+                added[j]=ColumnStats.code(d.inserted.get(j).getField(i));
+            int[] removed=new int[d.deleted.size()];
+            for(int j=0;j<removed.length;j++)
+                removed[j]=ColumnStats.code(d.deleted.get(j).getField(i));
+            c[i]=c[i].update(added,removed,d.otherInserted-d.otherDeleted,
+                    summary.distinct[i].estimate());
+        }
+        columns=c;
+        modifications+=d.inserted.size()+d.deleted.size()+d.otherInserted+d.otherDeleted;
+        if(refreshing||modifications<=REFRESH_BASE_THRESHOLD+REFRESH_SCALE_FACTOR*analyzedTuples)
+            return false;
+        refreshing=true;
+        return true;
+    }
+
+    /**
+     * 在工作线程池上重新扫描整张表；新的统计信息替换掉这一个，除非期间已经被换掉了
+     */
+    private void refresh(String name) {
+        Database.getWorkerPool().execute(()->{
+            try {
+                TableStats fresh=new TableStats(tableid,ioCostPerPage,false);
+                if(statsMap.replace(name,this,fresh))
+                    version.incrementAndGet();
+            } catch (RuntimeException e) {
+                //下次提交时再试
+                synchronized (this) {
+                    refreshing=false;
+                }
+            }
+        });
+    }
+
+    /**
+     * The changes a transaction has made to a table, recorded by the
+     * {@link BufferPool} as tuples are inserted and deleted. The values of up
+     * to {@link #SAMPLE_SIZE} inserted and deleted tuples are kept; only the
+     * number of further ones is.
+     */
+    static class Delta {
+        final ArrayList<Tuple> inserted=new ArrayList<Tuple>();
+        final ArrayList<Tuple> deleted=new ArrayList<Tuple>();
+        long otherInserted=0;
+        long otherDeleted=0;
+
+        synchronized void insert(Tuple t) {
+            if(inserted.size()<SAMPLE_SIZE)
+                inserted.add(copy(t));
+            else
+                otherInserted++;
+        }
+
+        synchronized void delete(Tuple t) {
+            if(deleted.size()<SAMPLE_SIZE)
+                deleted.add(copy(t));
+            else
+                otherDeleted++;
+        }
+
+        /** 调用者可能会复用元组对象 */
+        private static Tuple copy(Tuple t) {
+            Tuple c=new Tuple(t.getTupleDesc());
+            for(int i=0;i<t.getTupleDesc().numFields();i++)
+                c.setField(i,t.getField(i));
+            return c;
+        }
+    }
+
+    /**
+     * @return the side file the statistics of a heap file are persisted in
+     */
+    public static File statsFile(File dataFile) {
+        return new File(dataFile.getPath()+".stats");
+    }
+
+    /**
+     * @return true if these statistics were read from the side file rather
+     *         than by scanning the table
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 一次扫描收集统计信息：把页分成几段，在工作线程池上并行汇总，再合并
+     */
+    private static Summary scan(HeapFile file,TupleDesc td) {
+        int pages=file.numPages();
+        int n=Math.max(1,Math.min(Database.getWorkerPool().getParallelism(),
+                pages/LogicalPlan.MIN_PARALLEL_PAGES));
+        List<Future<Summary>> parts=new ArrayList<>();
+        for(int i=0;i<n;i++){
+            int start=(int)((long)pages*i/n);
+            int end=(int)((long)pages*(i+1)/n);
+            parts.add(Database.getWorkerPool().submit(()->{
+                //每段用自己的事务读，读完释放锁
+                TransactionId tid=new TransactionId();
+                Summary part=new Summary(td,start);
+                summarize(file.iterator(tid,start,end),tid,part);
+                return part;
+            }));
+        }
+        Summary s=new Summary(td,0);
+        Throwable failure=null;
+        for(Future<Summary> f:parts){
+            try {
+                Summary part=f.get();
+                if(failure==null)
+                    s.merge(part);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if(failure==null)
+                    failure=e;
+            } catch (ExecutionException e) {
+                if(failure==null)
+                    failure=e.getCause();
+            }
+        }
+        if(failure!=null)
+            throw new RuntimeException("could not compute statistics of "+file.getFile()+": "+failure,failure);
+        return s;
+    }
+
+    private static void summarize(DbFileIterator it,TransactionId tid,Summary s) {
+        try {
+            it.open();
+            try {
+                while(it.hasNext())
+                    s.add(it.next());
+            } finally {
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } catch (DbException|TransactionAbortedException|IOException e) {
+            throw new RuntimeException("could not compute table statistics: "+e.getMessage(),e);
+        }
+    }
+
+    /**
+     * 读取side file；文件不存在、比数据文件旧、或和数据文件对不上时返回null
+     */
+    private static Summary load(File side,File dataFile,TupleDesc td) {
+        if(!side.exists()||side.lastModified()<dataFile.lastModified())
+            return null;
+        try (DataInputStream in=new DataInputStream(new BufferedInputStream(
+                new FileInputStream(side)))) {
+            if(in.readInt()!=MAGIC||in.readInt()!=FORMAT||in.readLong()!=dataFile.length()
+                    ||in.readInt()!=td.numFields())
+                return null;
+            for(int i=0;i<td.numFields();i++){
+                if(in.readInt()!=td.getFieldType(i).ordinal())
+                    return null;
+            }
+            return Summary.read(in,td);
+        } catch (IOException e) {
+            //读不了就重新扫描
+            return null;
+        }
+    }
+
+    /**
+     * 写side file；先写临时文件再改名，避免留下写了一半的文件
+     */
+    private static void persist(Summary s,File side,File dataFile,TupleDesc td) {
+        if(!dataFile.exists())
+            return;
+        File tmp=new File(side.getPath()+".tmp");
+        try {
+            try (DataOutputStream out=new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(dataFile.length());
+                out.writeInt(td.numFields());
+                for(int i=0;i<td.numFields();i++)
+                    out.writeInt(td.getFieldType(i).ordinal());
+                s.write(out);
+            }
+            Files.move(tmp.toPath(),side.toPath(),StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //没写成只是下次要重新扫描
+            tmp.delete();
+        }
     }
 
     /**
@@ -101,7 +430,43 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double)numPages*ioCostPerPage;
+    }
+
+    /**
+     * @return true if the table is a {@link BTreeFile} keyed on the field,
+     *         so that the tuples satisfying a predicate on it can be looked
+     *         up rather than scanned for
+     */
+    public boolean hasIndex(int field) {
+        DbFile file=Database.getCatalog().getDatabaseFile(tableid);
+        return file instanceof BTreeFile&&((BTreeFile)file).keyField()==field;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples whose key satisfies a
+     * predicate through the table's B+ tree index: one page for each
+     * internal level of the tree, plus the leaf pages holding the matching
+     * tuples, at the same cost per page as a scan. The tree is assumed to
+     * be full, so that almost all of its pages are leaves.
+     * 
+     * @param selectivity
+     *            the fraction of the table's tuples that satisfy the predicate
+     * @return the estimated cost of the lookup; for a table without an index
+     *         (see {@link #hasIndex}) the cost of scanning it
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        DbFile file=Database.getCatalog().getDatabaseFile(tableid);
+        if(!(file instanceof BTreeFile))
+            return estimateScanCost();
+        TupleDesc td=file.getTupleDesc();
+        //每个内部页的扇出
+        int keySize=td.getFieldType(((BTreeFile)file).keyField()).getLen();
+        int fanout=Math.max(2,BufferPool.getPageSize()/(keySize+BTreeInternalPage.INDEX_SIZE));
+        int leaves=Math.max(1,numPages);
+        int levels=(int)Math.ceil(Math.log(leaves)/Math.log(fanout));
+        double leafPages=Math.max(1.0,Math.ceil(Math.min(1.0,selectivity)*leaves));
+        return (levels+leafPages)*ioCostPerPage;
     }
 
     /**
@@ -115,7 +480,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int)Math.round(summary.tuples*selectivityFactor);
     }
 
     /**
@@ -130,7 +495,7 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        return columns[field].avgSelectivity(op);
     }
 
     /**
@@ -148,7 +513,79 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        if(constant.getType()!=summary.td.getFieldType(field))
+            return 1.0;
+        if(op==Predicate.Op.LIKE&&constant instanceof StringField){
+            //LIKE是子串匹配，直接在样本上数
+            synchronized (this) {
+                if(summary.sample.isEmpty())
+                    return 1.0;
+                int n=0;
+                for(Tuple t:summary.sample){
+                    if(t.getField(field).compare(op,constant))
+                        n++;
+                }
+                return Math.max((double)n/summary.sample.size(),summary.tuples==0?0:1.0/summary.tuples);
+            }
+        }
+        return columns[field].estimateSelectivity(op,ColumnStats.code(constant));
+    }
+
+    /**
+     * Estimate the selectivity of a condition on several columns of the
+     * table, such as a conjunction of filters, by evaluating it on the
+     * random sample of tuples kept with the statistics. Unlike multiplying
+     * the selectivities of its parts, this accounts for correlations between
+     * the columns. The cost is bounded by the size of the sample, at most
+     * {@link #SAMPLE_SIZE} tuples.
+     *
+     * @param condition
+     *            the condition, bound to a TupleDesc with the table's fields
+     *            in table order
+     * @param independent
+     *            the estimate that assumes the parts of the condition are
+     *            independent, used if there is no sample
+     * @return The estimated selectivity of the condition. If no sampled
+     *         tuple satisfies it, and the sample is not the whole table, at
+     *         most the share of the table that one sampled tuple stands for.
+     */
+    public double estimateSelectivity(Expression condition, double independent) {
+        synchronized (this) {
+            int n=summary.sample.size();
+            if(n==0)
+                return independent;
+            int hits=0;
+            for(Tuple t:summary.sample){
+                if(condition.eval(t))
+                    hits++;
+            }
+            if(hits>0||n>=summary.tuples)
+                return (double)hits/n;
+            //样本里一个都没有，只知道比一个样本元组代表的份额小
+            return Math.min(independent,1.0/n);
+        }
+    }
+
+    /**
+     * @return the statistics of one column of the table
+     */
+    public ColumnStats getColumnStats(int field) {
+        return columns[field];
+    }
+
+    /**
+     * Estimate the selectivity of the join predicate <tt>field1 op field2</tt>
+     * over the cross product of two tables, from the most common values,
+     * histograms and distinct counts of the two columns.
+     *
+     * @return The estimated fraction of pairs of tuples that satisfy the
+     *         predicate, or -1 if the fields have different types
+     */
+    public static double estimateJoinSelectivity(TableStats stats1, int field1,
+            Predicate.Op op, TableStats stats2, int field2) {
+        if(stats1.summary.td.getFieldType(field1)!=stats2.summary.td.getFieldType(field2))
+            return -1;
+        return ColumnStats.joinSelectivity(stats1.columns[field1],op,stats2.columns[field2]);
     }
 
     /**
@@ -156,7 +593,132 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return (int)summary.tuples;
+    }
+
+    /**
+     * The statistics gathered from some of the tuples of a table: their
+     * number, the range and a distinct-count sketch of each column, and a
+     * random sample of the tuples. Summaries of disjoint parts of a table
+     * are merged into the summary of the whole table.
+     */
+    private static class Summary {
+        final TupleDesc td;
+        volatile long tuples=0;
+        final int[] min;
+        final int[] max;
+        final HyperLogLog[] distinct;
+        /** 蓄水池抽样：每个元组进入样本的概率都是SAMPLE_SIZE/tuples */
+        final ArrayList<Tuple> sample=new ArrayList<Tuple>();
+        final Random random;
+
+        Summary(TupleDesc td,long seed) {
+            this.td=td;
+            int n=td.numFields();
+            min=new int[n];
+            max=new int[n];
+            distinct=new HyperLogLog[n];
+            for(int i=0;i<n;i++){
+                min[i]=Integer.MAX_VALUE;
+                max[i]=Integer.MIN_VALUE;
+                distinct[i]=new HyperLogLog();
+            }
+            random=new Random(seed);
+        }
+
+        void add(Tuple t) {
+            tuples++;
+            for(int i=0;i<min.length;i++){
+                Field f=t.getField(i);
+                int v=ColumnStats.code(f);
+                if(v<min[i]) min[i]=v;
+                if(v>max[i]) max[i]=v;
+                distinct[i].add(HyperLogLog.hash(f));
+            }
+            if(sample.size()<SAMPLE_SIZE){
+                sample.add(copy(t));
+            }else{
+                long j=(long)(random.nextDouble()*tuples);
+                if(j<SAMPLE_SIZE)
+                    sample.set((int)j,copy(t));
+            }
+        }
+
+        /** 页上的元组对象会被改写，样本里放一份拷贝 */
+        private Tuple copy(Tuple t) {
+            Tuple c=new Tuple(td);
+            for(int i=0;i<min.length;i++)
+                c.setField(i,t.getField(i));
+            return c;
+        }
+
+        void merge(Summary other) {
+            for(int i=0;i<min.length;i++){
+                min[i]=Math.min(min[i],other.min[i]);
+                max[i]=Math.max(max[i],other.max[i]);
+                distinct[i].merge(other.distinct[i]);
+            }
+            if(sample.size()+other.sample.size()>SAMPLE_SIZE){
+                //按两边元组数的比例各取一部分，保持样本均匀
+                int mine=(int)Math.round((double)SAMPLE_SIZE*tuples/(tuples+other.tuples));
+                mine=Math.max(SAMPLE_SIZE-other.sample.size(),Math.min(sample.size(),mine));
+                Collections.shuffle(sample,random);
+                ArrayList<Tuple> theirs=new ArrayList<Tuple>(other.sample);
+                Collections.shuffle(theirs,random);
+                sample.subList(mine,sample.size()).clear();
+                sample.addAll(theirs.subList(0,SAMPLE_SIZE-mine));
+            }else{
+                sample.addAll(other.sample);
+            }
+            tuples+=other.tuples;
+        }
+
+        ColumnStats[] columns() {
+            ColumnStats[] c=new ColumnStats[min.length];
+            for(int i=0;i<c.length;i++){
+                int[] values=new int[sample.size()];
+                for(int j=0;j<values.length;j++)
+                    values[j]=ColumnStats.code(sample.get(j).getField(i));
+                c[i]=new ColumnStats(values,tuples,distinct[i].estimate(),min[i],max[i],NUM_HIST_BINS);
+            }
+            return c;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(tuples);
+            for(int i=0;i<min.length;i++){
+                out.writeInt(min[i]);
+                out.writeInt(max[i]);
+                distinct[i].write(out);
+            }
+            out.writeInt(sample.size());
+            for(Tuple t:sample){
+                for(int i=0;i<min.length;i++)
+                    t.getField(i).serialize(out);
+            }
+        }
+
+        static Summary read(DataInputStream in,TupleDesc td) throws IOException {
+            Summary s=new Summary(td,0);
+            s.tuples=in.readLong();
+            for(int i=0;i<td.numFields();i++){
+                s.min[i]=in.readInt();
+                s.max[i]=in.readInt();
+                s.distinct[i]=HyperLogLog.read(in);
+            }
+            int n=in.readInt();
+            try {
+                for(int j=0;j<n;j++){
+                    Tuple t=new Tuple(td);
+                    for(int i=0;i<td.numFields();i++)
+                        t.setField(i,td.getFieldType(i).parse(in));
+                    s.sample.add(t);
+                }
+            } catch (java.text.ParseException e) {
+                throw new IOException(e);
+            }
+            return s;
+        }
     }
 
 }
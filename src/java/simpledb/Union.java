@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * Union is an operator that implements a relational UNION: the distinct
+ * tuples that occur in either of its children. The children must have the
+ * same field types; see {@link SetOperator}.
+ */
+public class Union extends SetOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor. Keeps up to {@link #DEFAULT_MEMORY_PAGES} pages' worth of
+     * tuples in memory.
+     *
+     * @param child1
+     *            the first input
+     * @param child2
+     *            the second input
+     * @throws IllegalArgumentException
+     *             if the children do not have the same field types
+     */
+    public Union(OpIterator child1, OpIterator child2) {
+        this(child1, child2, defaultMemoryBytes());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child1
+     *            the first input
+     * @param child2
+     *            the second input
+     * @param memoryBytes
+     *            the number of bytes of tuples to keep in memory
+     * @throws IllegalArgumentException
+     *             if the children do not have the same field types
+     */
+    public Union(OpIterator child1, OpIterator child2, long memoryBytes) {
+        super(new OpIterator[] { child1, child2 }, memoryBytes);
+    }
+
+    protected int outputChildren() {
+        return 2;
+    }
+}
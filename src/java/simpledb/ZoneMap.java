@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every int column on each
+ * page of a {@link HeapFile}, so that scans with range predicates can skip
+ * pages that cannot hold a matching tuple without reading them.
+ * <p>
+ * The ranges are a superset of what a page holds: inserting a tuple widens
+ * its page's ranges at once, deleting one leaves them as they are, and the
+ * exact ranges are recomputed from the page's contents whenever the page is
+ * written to disk. A page the zone map knows nothing about, for instance in
+ * a file written by {@link HeapFileEncoder}, is summarized the first time
+ * it is read.
+ * <p>
+ * Ranges are persisted in a side file next to the heap file, named after it
+ * with a ".zm" suffix, holding one fixed-size record per page. The side file
+ * is written after the heap file, so a side file older than its heap file is
+ * out of date and is thrown away.
+ * <p>
+ * Skipped pages are not locked, so a scan can miss a tuple that a concurrent
+ * transaction inserts into a page it skipped, as it could if the tuple went
+ * to a new page at the end of the file.
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5a4d4150;
+    private static final int HEADER_SIZE = 8;
+
+    private final File dataFile;
+    private final File file;
+    /** The indexes of the int columns of the table */
+    private final int[] intFields;
+    /** Maps a field index to its position in intFields, or -1 */
+    private final int[] slotOf;
+    private final int recordSize;
+
+    private boolean loaded = false;
+    private boolean[] known = new boolean[0];
+    private int[][] min = new int[0][];
+    private int[][] max = new int[0][];
+    private final AtomicLong pagesSkipped = new AtomicLong();
+
+    /**
+     * Creates the zone map of a heap file. Nothing is read until it is
+     * first used.
+     *
+     * @param dataFile the file backing the heap file
+     * @param td the TupleDesc of the heap file
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.dataFile = dataFile;
+        this.file = new File(dataFile.getPath() + ".zm");
+        int n = 0;
+        slotOf = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++)
+            slotOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        intFields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (slotOf[i] >= 0)
+                intFields[slotOf[i]] = i;
+        }
+        recordSize = 1 + 8 * n;
+    }
+
+    /**
+     * @return the side file the ranges are persisted in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of pages scans have skipped using this zone map
+     */
+    public long getPagesSkipped() {
+        return pagesSkipped.get();
+    }
+
+    /**
+     * @return true if the ranges of a page are known
+     */
+    public synchronized boolean isKnown(int page) {
+        load();
+        return page < known.length && known[page];
+    }
+
+    /**
+     * Tests whether a page may hold a tuple that satisfies every predicate.
+     * Predicates on columns that are not ints are ignored.
+     *
+     * @param page the page number
+     * @param predicates predicates over the fields of the heap file
+     * @return false if no tuple on the page can satisfy all of the
+     *         predicates, true otherwise
+     */
+    public synchronized boolean mightMatch(int page, Predicate[] predicates) {
+        load();
+        if (page >= known.length || !known[page])
+            return true;
+        for (Predicate p : predicates) {
+            int slot = slotOf[p.getField()];
+            if (slot < 0)
+                continue;
+            int lo = min[page][slot], hi = max[page][slot];
+            int c = ((IntField) p.getOperand()).getValue();
+            boolean overlaps;
+            if (lo > hi) {
+                overlaps = false; // no tuples on the page
+            } else {
+                switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    overlaps = lo <= c && c <= hi;
+                    break;
+                case NOT_EQUALS:
+                    overlaps = lo != c || hi != c;
+                    break;
+                case GREATER_THAN:
+                    overlaps = hi > c;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    overlaps = hi >= c;
+                    break;
+                case LESS_THAN:
+                    overlaps = lo < c;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    overlaps = lo <= c;
+                    break;
+                default:
+                    overlaps = true;
+                }
+            }
+            if (!overlaps) {
+                pagesSkipped.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Widens the ranges of a page to include a tuple inserted into it. Does
+     * nothing if the page's ranges are not known.
+     */
+    public synchronized void widen(int page, Tuple t) {
+        load();
+        if (page >= known.length || !known[page])
+            return;
+        for (int j = 0; j < intFields.length; j++) {
+            int v = ((IntField) t.getField(intFields[j])).getValue();
+            min[page][j] = Math.min(min[page][j], v);
+            max[page][j] = Math.max(max[page][j], v);
+        }
+    }
+
+    /**
+     * Sets the ranges of a page to exactly those of its contents.
+     *
+     * @param persist whether to write the ranges to the side file
+     */
+    public synchronized void update(HeapPage page, boolean persist) throws IOException {
+        load();
+        int pgNo = page.getId().getPageNumber();
+        ensureCapacity(pgNo + 1);
+        page.intRanges(intFields, min[pgNo], max[pgNo]);
+        known[pgNo] = true;
+        if (persist)
+            persist(pgNo);
+    }
+
+    /**
+     * Updates the ranges of a page that has just been read from disk, if
+     * they are not known yet. The side file is only written if it already
+     * exists, so that scanning a read-only table does not create one.
+     */
+    public synchronized void observe(HeapPage page) throws IOException {
+        if (!isKnown(page.getId().getPageNumber()))
+            update(page, file.exists());
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages <= known.length)
+            return;
+        int n = Math.max(pages, known.length * 2);
+        boolean[] k = new boolean[n];
+        int[][] lo = new int[n][];
+        int[][] hi = new int[n][];
+        System.arraycopy(known, 0, k, 0, known.length);
+        System.arraycopy(min, 0, lo, 0, min.length);
+        System.arraycopy(max, 0, hi, 0, max.length);
+        for (int i = known.length; i < n; i++) {
+            lo[i] = new int[intFields.length];
+            hi[i] = new int[intFields.length];
+        }
+        known = k;
+        min = lo;
+        max = hi;
+    }
+
+    /** Reads the side file, or deletes it if it is out of date */
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!file.exists())
+            return;
+        if (file.lastModified() < dataFile.lastModified()) {
+            file.delete();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != intFields.length) {
+                file.delete();
+                return;
+            }
+            int pages = (int) ((file.length() - HEADER_SIZE) / recordSize);
+            ensureCapacity(pages);
+            for (int p = 0; p < pages; p++) {
+                known[p] = in.readBoolean();
+                for (int j = 0; j < intFields.length; j++) {
+                    min[p][j] = in.readInt();
+                    max[p][j] = in.readInt();
+                }
+            }
+        } catch (IOException e) {
+            // an unreadable zone map only means no pages are skipped
+            known = new boolean[0];
+            min = new int[0][];
+            max = new int[0][];
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes the record of one page to the side file. A new side file gets
+     * the records of every page known so far.
+     */
+    private void persist(int page) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < HEADER_SIZE) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(intFields.length);
+                for (int p = 0; p < known.length; p++) {
+                    if (known[p] && p != page)
+                        writeRecord(raf, p);
+                }
+            }
+            writeRecord(raf, page);
+        }
+    }
+
+    private void writeRecord(RandomAccessFile raf, int page) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeBoolean(known[page]);
+        for (int j = 0; j < intFields.length; j++) {
+            out.writeInt(min[page][j]);
+            out.writeInt(max[page][j]);
+        }
+        raf.seek(HEADER_SIZE + (long) page * recordSize);
+        raf.write(baos.toByteArray());
+    }
+}
@@ -176,6 +176,126 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() in streaming mode, where the child is
+   * ordered on the group-by field
+   */
+  @Test public void streamingSumAggregate() throws Exception {
+    Aggregate op = new Aggregate(scan1, 1, 0,
+        Aggregator.Op.SUM, true);
+    assertTrue(op.isStreaming());
+    op.open();
+    sum.open();
+    TestUtil.compareDbIterators(sum, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() in streaming mode using an avg aggregate
+   * grouped on a string field
+   */
+  @Test public void streamingAvgStringGroupBy() throws Exception {
+    Aggregate op = new Aggregate(scan3, 1, 0,
+        Aggregator.Op.AVG, true);
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(width1,
+        new Object[] { "a", 4,
+                    "b", 4,
+                    "c", 7 });
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.rewind() in streaming mode
+   */
+  @Test public void streamingRewind() throws Exception {
+    Aggregate op = new Aggregate(scan1, 1, 0,
+        Aggregator.Op.MIN, true);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op.rewind();
+    min.open();
+    TestUtil.compareDbIterators(min, op);
+  }
+
+  /**
+   * Splits scan1 into two partitions under a Gather, so that no group lies
+   * entirely in one partition
+   */
+  private Gather partitionedScan1() {
+    return new Gather(new OpIterator[] {
+        TestUtil.createTupleList(width1,
+            new int[] { 1, 2,
+                        3, 2,
+                        3, 4 }),
+        TestUtil.createTupleList(width1,
+            new int[] { 1, 4,
+                        1, 6,
+                        3, 6,
+                        5, 7 }) });
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() in parallel mode using an avg aggregate;
+   * averaging the per-partition averages would give the wrong answer
+   */
+  @Test public void parallelAvgAggregate() throws Exception {
+    Aggregate op = new Aggregate(partitionedScan1(), 1, 0,
+        Aggregator.Op.AVG);
+    assertTrue(op.isParallel());
+    op.open();
+    avg.open();
+    TestUtil.matchAllTuples(avg, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() in parallel mode using sum, count, min
+   * and max aggregates
+   */
+  @Test public void parallelAggregates() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+        Aggregator.Op.MIN, Aggregator.Op.MAX };
+    OpIterator[] expected = { sum, count, min, max };
+    for (int i = 0; i < ops.length; i++) {
+      Aggregate op = new Aggregate(partitionedScan1(), 1, 0, ops[i]);
+      op.open();
+      expected[i].open();
+      TestUtil.matchAllTuples(expected[i], op);
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() in parallel mode without grouping
+   */
+  @Test public void parallelNoGrouping() throws Exception {
+    Aggregate op = new Aggregate(partitionedScan1(), 1,
+        Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(1, new int[] { 31 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.rewind() in parallel mode
+   */
+  @Test public void parallelRewind() throws Exception {
+    Aggregate op = new Aggregate(partitionedScan1(), 1, 0,
+        Aggregator.Op.SUM);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    op.rewind();
+    sum.open();
+    TestUtil.matchAllTuples(sum, op);
+  }
+
   /**
    * JUnit suite target
    */
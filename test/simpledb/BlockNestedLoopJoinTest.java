@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+  OpIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() using a &gt; predicate, with
+   * blocks that hold all, some and one of the outer tuples
+   */
+  @Test public void gtJoin() throws Exception {
+    for (int blockSize : new int[] { BlockNestedLoopJoin.BLOCK_SIZE, 3, 1 }) {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+      BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2, blockSize);
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      op.rewind();
+      assertEquals(11, count(op));
+      op.close();
+      gtJoin.close();
+    }
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    for (int blockSize : new int[] { BlockNestedLoopJoin.BLOCK_SIZE, 2 }) {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2, blockSize);
+      op.open();
+      eqJoin.open();
+      TestUtil.matchAllTuples(eqJoin, op);
+      op.close();
+      eqJoin.close();
+    }
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2, 3);
+    op.open();
+    assertEquals(3, count(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(3, count(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
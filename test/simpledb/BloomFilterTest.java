@@ -0,0 +1,60 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Every added field is reported as present.
+   */
+  @Test public void noFalseNegatives() {
+    BloomFilter f = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++)
+      f.add(new IntField(i * 7));
+    for (int i = 0; i < 1000; i++)
+      assertTrue(f.mightContain(new IntField(i * 7)));
+
+    BloomFilter s = new BloomFilter(3);
+    s.add(new StringField("a", Type.STRING_LEN));
+    s.add(new StringField("bb", Type.STRING_LEN));
+    assertTrue(s.mightContain(new StringField("a", Type.STRING_LEN)));
+    assertTrue(s.mightContain(new StringField("bb", Type.STRING_LEN)));
+  }
+
+  /**
+   * The false positive rate stays close to the requested one, including on
+   * consecutive integer keys.
+   */
+  @Test public void falsePositiveRate() {
+    BloomFilter f = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++)
+      f.add(new IntField(i));
+    int falsePositives = 0;
+    for (int i = 10000; i < 110000; i++) {
+      if (f.mightContain(new IntField(i)))
+        falsePositives++;
+    }
+    assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+  }
+
+  /**
+   * An empty filter rejects everything.
+   */
+  @Test public void empty() {
+    BloomFilter f = new BloomFilter(0);
+    for (int i = 0; i < 100; i++)
+      assertTrue(!f.mightContain(new IntField(i)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
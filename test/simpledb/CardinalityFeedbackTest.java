@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CardinalityFeedbackTest extends SimpleDbTestBase {
+
+    private static final int MAX_VALUE = 1000;
+
+    HashMap<String, TableStats> stats;
+    String nameA, nameB, nameC;
+    int idA, idB, idC;
+    TableStats staleStatsC;
+
+    private int createTable(int rows, String name) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, MAX_VALUE,
+                null, new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f, name);
+        return f.getId();
+    }
+
+    /**
+     * Set up three tables joined in a chain a - b - c. The statistics of c
+     * are those of a table a hundredth of its size, as if it had grown since
+     * they were computed.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        nameA = SystemTestUtil.getUUID();
+        nameB = SystemTestUtil.getUUID();
+        nameC = SystemTestUtil.getUUID();
+        idA = createTable(100, nameA);
+        idB = createTable(2000, nameB);
+        idC = createTable(2000, nameC);
+        int idStale = createTable(20, SystemTestUtil.getUUID());
+
+        stats = new HashMap<String, TableStats>();
+        stats.put(nameA, new TableStats(idA, 1));
+        stats.put(nameB, new TableStats(idB, 1));
+        staleStatsC = new TableStats(idStale, 1);
+        stats.put(nameC, staleStatsC);
+    }
+
+    private LogicalPlan chain() throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(idA, "a");
+        lp.addScan(idB, "b");
+        lp.addScan(idC, "c");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addJoin("b.c1", "c.c1", Predicate.Op.EQUALS);
+        lp.addProjectField("a.c1", null);
+        lp.addProjectField("c.c0", null);
+        return lp;
+    }
+
+    /** Plan and run the query to completion, returning the plan */
+    private OpIterator run(LogicalPlan lp) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        Query q = new Query(plan, tid);
+        q.setLogicalPlan(lp);
+        q.start();
+        while (q.hasNext())
+            q.next();
+        q.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return plan;
+    }
+
+    /** @return the aliases of the tables joined first in a plan */
+    private static Set<String> firstJoin(OpIterator plan) {
+        Set<String> found = new HashSet<String>();
+        if (plan instanceof SeqScan) {
+            found.add(((SeqScan) plan).getAlias());
+            return found;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                Set<String> s = firstJoin(child);
+                if (s.size() > 1)
+                    return s;
+                found.addAll(s);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Corrections replace each other, and only a large change invalidates
+     * the plans built before it.
+     */
+    @Test public void recordTest() {
+        long v = CardinalityFeedback.getVersion();
+        Assert.assertNull(CardinalityFeedback.getCorrection("t"));
+        CardinalityFeedback.record("t", 100, 1000);
+        Assert.assertEquals(10.0, CardinalityFeedback.getCorrection("t"), 1e-9);
+        Assert.assertTrue(CardinalityFeedback.getVersion() > v);
+
+        v = CardinalityFeedback.getVersion();
+        CardinalityFeedback.record("t", 100, 1500);
+        Assert.assertEquals(15.0, CardinalityFeedback.getCorrection("t"), 1e-9);
+        Assert.assertEquals(v, CardinalityFeedback.getVersion());
+
+        // nothing produced still counts as one tuple
+        CardinalityFeedback.record("t", 0, 0);
+        Assert.assertEquals(1.0, CardinalityFeedback.getCorrection("t"), 1e-9);
+        Assert.assertTrue(CardinalityFeedback.getVersion() > v);
+
+        CardinalityFeedback.clear();
+        Assert.assertNull(CardinalityFeedback.getCorrection("t"));
+    }
+
+    /**
+     * Running a query records the actual size of each table and join result
+     * it estimated.
+     */
+    @Test public void observeTest() throws Exception {
+        LogicalPlan lp = chain();
+        run(lp);
+
+        String sigC = CardinalityFeedback.tableSignature(nameC, "c", Collections.<String>emptyList());
+        Assert.assertEquals(2000.0 / staleStatsC.estimateTableCardinality(1.0),
+                CardinalityFeedback.getCorrection(sigC), 1e-9);
+        String sigA = CardinalityFeedback.tableSignature(nameA, "a", Collections.<String>emptyList());
+        Assert.assertEquals(1.0, CardinalityFeedback.getCorrection(sigA), 1e-9);
+
+        // both joins are observed, so the whole result is known exactly
+        int joins = 0;
+        for (CardinalityFeedback.Observation o : lp.getObservations()) {
+            if (o.signature.contains(" ON "))
+                joins++;
+        }
+        Assert.assertEquals(2, joins);
+    }
+
+    /**
+     * Once the size of c is known the optimizer no longer joins it first.
+     */
+    @Test public void correctedOrderTest() throws Exception {
+        OpIterator first = run(chain());
+        Assert.assertEquals(new HashSet<String>(java.util.Arrays.asList("b", "c")), firstJoin(first));
+
+        OpIterator second = run(chain());
+        Assert.assertEquals(new HashSet<String>(java.util.Arrays.asList("a", "b")), firstJoin(second));
+    }
+
+    /**
+     * Without feedback nothing is recorded and the plan does not change.
+     */
+    @Test public void disabledTest() throws Exception {
+        CardinalityFeedback.setEnabled(false);
+        try {
+            run(chain());
+            OpIterator second = run(chain());
+            Assert.assertEquals(new HashSet<String>(java.util.Arrays.asList("b", "c")), firstJoin(second));
+        } finally {
+            CardinalityFeedback.setEnabled(true);
+        }
+        Assert.assertTrue(CardinalityFeedback.isEmpty());
+    }
+}
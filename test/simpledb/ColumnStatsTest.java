@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+
+public class ColumnStatsTest {
+
+  private static final int ROWS = 100000;
+  private static final int SAMPLE = 10000;
+
+  /** Summarizes a column the way TableStats does, from a sample of its values */
+  private static ColumnStats summarize(int[] column) {
+    Random r = new Random(1);
+    int[] sample = new int[Math.min(SAMPLE, column.length)];
+    for (int i = 0; i < sample.length; i++)
+      sample[i] = column[r.nextInt(column.length)];
+    HyperLogLog distinct = new HyperLogLog();
+    int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+    for (int v : column) {
+      distinct.add(HyperLogLog.hash(new IntField(v)));
+      min = Math.min(min, v);
+      max = Math.max(max, v);
+    }
+    return new ColumnStats(sample, column.length, distinct.estimate(), min, max, 100);
+  }
+
+  private static double fraction(int[] column, Op op, int v) {
+    int n = 0;
+    for (int x : column) {
+      if (new IntField(x).compare(op, new IntField(v)))
+        n++;
+    }
+    return (double) n / column.length;
+  }
+
+  /**
+   * HyperLogLog counts distinct values within a few percent, and merging
+   * sketches of overlapping streams counts their union.
+   */
+  @Test public void hyperLogLog() {
+    HyperLogLog a = new HyperLogLog();
+    HyperLogLog b = new HyperLogLog();
+    for (int i = 0; i < 60000; i++) {
+      a.add(HyperLogLog.hash(new IntField(i)));
+      b.add(HyperLogLog.hash(new IntField(i + 40000)));
+    }
+    assertEquals(60000, a.estimate(), 60000 * 0.05);
+    a.merge(b);
+    assertEquals(100000, a.estimate(), 100000 * 0.05);
+
+    HyperLogLog small = new HyperLogLog();
+    for (int i = 0; i < 1000; i++)
+      small.add(HyperLogLog.hash(new StringField("s" + (i % 37), Type.STRING_LEN)));
+    assertEquals(37, small.estimate(), 1);
+  }
+
+  /**
+   * A value that makes up half of a column is estimated from the list of
+   * most common values, and does not distort the other values' estimates.
+   */
+  @Test public void skewedColumn() {
+    Random r = new Random(2);
+    int[] column = new int[ROWS];
+    for (int i = 0; i < ROWS; i++)
+      column[i] = i % 2 == 0 ? 7 : r.nextInt(10000);
+    ColumnStats s = summarize(column);
+
+    assertEquals(0.5, s.estimateSelectivity(Op.EQUALS, 7), 0.02);
+    assertEquals(fraction(column, Op.EQUALS, 1234), s.estimateSelectivity(Op.EQUALS, 1234), 0.0005);
+    assertEquals(0.5, s.estimateSelectivity(Op.NOT_EQUALS, 7), 0.02);
+    assertEquals(fraction(column, Op.LESS_THAN, 7), s.estimateSelectivity(Op.LESS_THAN, 7), 0.01);
+    assertEquals(fraction(column, Op.LESS_THAN_OR_EQ, 7), s.estimateSelectivity(Op.LESS_THAN_OR_EQ, 7), 0.02);
+    assertEquals(fraction(column, Op.GREATER_THAN, 5000), s.estimateSelectivity(Op.GREATER_THAN, 5000), 0.02);
+    assertEquals(0.0, s.estimateSelectivity(Op.EQUALS, 20000), 0.0);
+    HashSet<Integer> distinct = new HashSet<Integer>();
+    for (int v : column)
+      distinct.add(v);
+    assertEquals(distinct.size(), s.distinctValues(), distinct.size() * 0.05);
+  }
+
+  /**
+   * Range estimates follow a column whose values are packed at one end,
+   * where a fixed-width histogram would put nearly all rows in one bucket.
+   */
+  @Test public void equiDepth() {
+    Random r = new Random(3);
+    int[] column = new int[ROWS];
+    for (int i = 0; i < ROWS; i++)
+      column[i] = (int) Math.pow(r.nextInt(1000), 3);
+    ColumnStats s = summarize(column);
+    for (int v : new int[] { 1000, 27000, 1000000, 125000000, 900000000 }) {
+      assertEquals(fraction(column, Op.LESS_THAN, v), s.estimateSelectivity(Op.LESS_THAN, v), 0.02);
+      assertEquals(fraction(column, Op.GREATER_THAN_OR_EQ, v),
+          s.estimateSelectivity(Op.GREATER_THAN_OR_EQ, v), 0.02);
+    }
+  }
+
+  /**
+   * Join selectivities account for values that are common on both sides.
+   */
+  @Test public void joinSelectivity() {
+    Random r = new Random(4);
+    int[] a = new int[ROWS];
+    int[] b = new int[ROWS / 10];
+    for (int i = 0; i < a.length; i++)
+      a[i] = i % 4 == 0 ? 1 : r.nextInt(5000);
+    for (int i = 0; i < b.length; i++)
+      b[i] = i % 2 == 0 ? 1 : r.nextInt(5000);
+    int[] countA = new int[5000], countB = new int[5000];
+    for (int v : a)
+      countA[v]++;
+    for (int v : b)
+      countB[v]++;
+    double matches = 0;
+    for (int v = 0; v < 5000; v++)
+      matches += (double) countA[v] * countB[v];
+    double expected = matches / ((double) a.length * b.length);
+
+    double est = ColumnStats.joinSelectivity(summarize(a), Op.EQUALS, summarize(b));
+    assertTrue("estimated " + est + ", expected " + expected,
+        est > expected * 0.9 && est < expected * 1.1);
+
+    // about half of the pairs of two uniform columns satisfy a < b
+    int[] u = new int[ROWS];
+    for (int i = 0; i < u.length; i++)
+      u[i] = r.nextInt(1000);
+    ColumnStats su = summarize(u);
+    assertEquals(0.5, ColumnStats.joinSelectivity(su, Op.LESS_THAN, su), 0.02);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ColumnStatsTest.class);
+  }
+}
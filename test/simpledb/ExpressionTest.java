@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExpressionTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+
+    @Before public void setUp() {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "t.a", "t.b", "t.s" });
+    }
+
+    private Tuple tuple(int a, int b, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        t.setField(2, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Unit test for comparisons of a column with a constant
+     */
+    @Test public void compare() throws Exception {
+        Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.EQUALS,
+            Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            Expression e = Expression.compare("t.a", op, "0").bind(td);
+            Predicate p = new Predicate(0, op, new IntField(0));
+            for (int v = -2; v <= 2; v++)
+                assertEquals(p.filter(tuple(v, 0, "")), e.eval(tuple(v, 0, "")));
+        }
+
+        Expression e = Expression.compare("t.s", Predicate.Op.LIKE, "ell").bind(td);
+        assertTrue(e.eval(tuple(0, 0, "hello")));
+        assertFalse(e.eval(tuple(0, 0, "help")));
+    }
+
+    /**
+     * Unit test for AND, OR and NOT
+     */
+    @Test public void junctions() throws Exception {
+        Expression e = Expression.or(Arrays.asList(
+                Expression.compare("t.a", Predicate.Op.LESS_THAN, "0"),
+                Expression.and(Arrays.asList(
+                        Expression.compare("t.b", Predicate.Op.EQUALS, "1"),
+                        Expression.not(Expression.compare("t.s", Predicate.Op.EQUALS, "x"))))))
+                .bind(td);
+        assertTrue(e.eval(tuple(-1, 0, "x")));
+        assertTrue(e.eval(tuple(1, 1, "y")));
+        assertFalse(e.eval(tuple(1, 1, "x")));
+        assertFalse(e.eval(tuple(1, 2, "y")));
+    }
+
+    /**
+     * Ranges on the same int column under an AND are merged into one test
+     */
+    @Test public void mergedRanges() throws Exception {
+        Expression e = Expression.and(Arrays.asList(
+                Expression.compare("t.a", Predicate.Op.GREATER_THAN, "10"),
+                Expression.compare("t.b", Predicate.Op.EQUALS, "3"),
+                Expression.compare("t.a", Predicate.Op.LESS_THAN_OR_EQ, "20")))
+                .bind(td);
+        assertEquals("(t.a BETWEEN 11 AND 20 AND t.b=3)", e.toString());
+        assertFalse(e.eval(tuple(10, 3, "")));
+        assertTrue(e.eval(tuple(11, 3, "")));
+        assertTrue(e.eval(tuple(20, 3, "")));
+        assertFalse(e.eval(tuple(21, 3, "")));
+        assertFalse(e.eval(tuple(15, 4, "")));
+
+        Expression empty = Expression.and(Arrays.asList(
+                Expression.compare("t.a", Predicate.Op.GREATER_THAN, "5"),
+                Expression.compare("t.a", Predicate.Op.LESS_THAN, "5"))).bind(td);
+        for (int v = 0; v < 10; v++)
+            assertFalse(empty.eval(tuple(v, 0, "")));
+    }
+
+    /**
+     * Unit test for IN-lists and column-to-column comparisons
+     */
+    @Test public void inAndColumns() throws Exception {
+        Expression in = Expression.in("t.a", Arrays.asList("7", "3", "5", "3")).bind(td);
+        for (int v = 0; v < 10; v++)
+            assertEquals(v == 3 || v == 5 || v == 7, in.eval(tuple(v, 0, "")));
+
+        Expression strIn = Expression.not(Expression.in("t.s", Arrays.asList("a", "b")))
+                .bind(td);
+        assertFalse(strIn.eval(tuple(0, 0, "a")));
+        assertTrue(strIn.eval(tuple(0, 0, "c")));
+
+        Expression cols = Expression.compareColumns("t.a", Predicate.Op.LESS_THAN, "t.b")
+                .bind(td);
+        assertTrue(cols.eval(tuple(1, 2, "")));
+        assertFalse(cols.eval(tuple(2, 2, "")));
+
+        HashSet<String> names = new HashSet<String>();
+        cols.getFields(names);
+        assertEquals(new HashSet<String>(Arrays.asList("t.a", "t.b")), names);
+    }
+
+    /**
+     * Binding fails on unknown columns and mismatched types
+     */
+    @Test public void bindErrors() {
+        try {
+            Expression.compare("t.z", Predicate.Op.EQUALS, "1").bind(td);
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+        }
+        try {
+            Expression.compare("t.a", Predicate.Op.EQUALS, "abc").bind(td);
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+        }
+        try {
+            Expression.compareColumns("t.a", Predicate.Op.EQUALS, "t.s").bind(td);
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+        }
+        try {
+            Expression.compare("t.a", Predicate.Op.EQUALS, "1").eval(tuple(1, 1, ""));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExpressionTest.class);
+    }
+}
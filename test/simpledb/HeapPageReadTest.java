@@ -99,6 +99,72 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[]), both on tuples that have
+     * not been decoded and on tuples that have
+     */
+    @Test public void testIteratorWithPredicates() throws Exception {
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947))
+        };
+        int expected = 0;
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 20000 && tuple[1] <= 44947)
+                expected++;
+        }
+
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int pass = 0; pass < 2; pass++) {
+            Iterator<Tuple> it = page.iterator(preds);
+            int count = 0;
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                assertTrue(preds[0].filter(tup) && preds[1].filter(tup));
+                count++;
+            }
+            assertEquals(expected, count);
+            // the second pass mixes decoded and undecoded tuples
+        }
+
+        // partially decoded pages still serialize to the bytes they came from
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator() returning only some of the columns
+     */
+    @Test public void testProjectedIterator() throws Exception {
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000))
+        };
+        int[] columns = new int[] { 1 };
+        TupleDesc outTd = new TupleDesc(new Type[] { Type.INT_TYPE });
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 20000)
+                expected.add(tuple[1]);
+        }
+
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int pass = 0; pass < 2; pass++) {
+            Iterator<Tuple> it = page.iterator(preds, columns, outTd);
+            int row = 0;
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                assertEquals(outTd, tup.getTupleDesc());
+                assertEquals(expected.get(row), (Integer) ((IntField) tup.getField(0)).getValue());
+                assertEquals(pid, tup.getRecordId().getPageId());
+                row++;
+            }
+            assertEquals(expected.size(), row);
+            // decode the page fully before the second pass
+            Iterator<Tuple> all = page.iterator();
+            while (all.hasNext())
+                all.next();
+        }
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private static final int[] OUTER = { 5, 17, 250, 251, 600 };
+
+  ArrayList<ArrayList<Integer>> tuples;
+  BTreeFile index;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createIndex() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    index = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, tuples, 0);
+    tid = new TransactionId();
+  }
+
+  /** @return the number of pairs of outer values and indexed tuples for which op holds */
+  private int expected(Predicate.Op op, int minField1) {
+    int n = 0;
+    for (int v : OUTER) {
+      for (ArrayList<Integer> t : tuples) {
+        if (new IntField(v).compare(op, new IntField(t.get(0))) && t.get(1) >= minField1)
+          n++;
+      }
+    }
+    return n;
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(3, t.getTupleDesc().numFields());
+      n++;
+    }
+    return n;
+  }
+
+  private IndexNestedLoopJoin join(Predicate.Op op, OpIterator inner) {
+    return new IndexNestedLoopJoin(new JoinPredicate(0, op, 0),
+        TestUtil.createTupleList(1, OUTER), inner);
+  }
+
+  /**
+   * Equality and range predicates look up the matching tuples
+   */
+  @Test public void lookUp() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      SeqScan scan = new SeqScan(tid, index.getId(), "i");
+      IndexNestedLoopJoin j = join(op, scan);
+      j.open();
+      assertEquals(op.toString(), expected(op, 0), count(j));
+      j.close();
+      assertNull(scan.getIndexPredicate());
+    }
+  }
+
+  /**
+   * Predicates pushed into the inner scan, and filters above it, apply to
+   * the tuples looked up
+   */
+  @Test public void filteredInner() throws Exception {
+    SeqScan scan = new SeqScan(tid, index.getId(), "i");
+    scan.addPredicate(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)));
+    OpIterator inner = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(200)), scan);
+    IndexNestedLoopJoin j = join(Predicate.Op.LESS_THAN_OR_EQ, inner);
+    j.open();
+    assertEquals(expected(Predicate.Op.LESS_THAN_OR_EQ, 200), count(j));
+    j.close();
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    IndexNestedLoopJoin j = join(Predicate.Op.EQUALS, new SeqScan(tid, index.getId(), "i"));
+    j.open();
+    int n = count(j);
+    assertEquals(expected(Predicate.Op.EQUALS, 0), n);
+    assertTrue(TestUtil.checkExhausted(j));
+    j.rewind();
+    assertEquals(n, count(j));
+    j.close();
+  }
+
+  /**
+   * The inner side must be a scan of an index on the join field
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsUnindexedField() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        TestUtil.createTupleList(1, OUTER), new SeqScan(tid, index.getId(), "i"));
+  }
+
+  /**
+   * An index cannot look up the tuples that differ from a value
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsNotEquals() {
+    join(Predicate.Op.NOT_EQUALS, new SeqScan(tid, index.getId(), "i"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
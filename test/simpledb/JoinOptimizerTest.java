@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -621,4 +622,337 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * A star query joining a fact table to eleven dimension tables should be
+     * planned without enumerating the subsets that are not connected
+     */
+    @Test(timeout = 10000)
+    public void starOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        final int IO_COST = 103;
+        final int DIMENSIONS = 11;
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        TransactionId tid = new TransactionId();
+
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(DIMENSIONS, 1000,
+                100, null, null, "c");
+        Database.getCatalog().addTable(fact, "fact");
+        stats.put("fact", new TableStats(fact.getId(), IO_COST));
+        filterSelectivities.put("fact", 1.0);
+        StringBuilder sql = new StringBuilder("SELECT COUNT(fact.c0) FROM fact");
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < DIMENSIONS; i++) {
+            String dim = "dim" + i;
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, 100,
+                    null, null, "c");
+            Database.getCatalog().addTable(f, dim);
+            stats.put(dim, new TableStats(f.getId(), IO_COST));
+            filterSelectivities.put(dim, 1.0);
+            nodes.add(new LogicalJoinNode("fact", dim, "c" + i, "c0",
+                    Predicate.Op.EQUALS));
+            sql.append(", ").append(dim);
+            where.append(i == 0 ? " WHERE " : " AND ").append("fact.c")
+                    .append(i).append(" = ").append(dim).append(".c0");
+        }
+        Collections.shuffle(nodes);
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                sql.append(where).append(";").toString()), nodes);
+
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> result = j.orderJoins(stats,
+                filterSelectivities, false);
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("planning took " + elapsed + " ms", elapsed < 1000);
+
+        // every join is in the plan once, and each one after the first
+        // joins a table to the tables already joined
+        Assert.assertEquals(nodes.size(), result.size());
+        HashSet<String> joined = new HashSet<String>();
+        for (LogicalJoinNode n : result) {
+            Assert.assertTrue(nodes.contains(n));
+            Assert.assertTrue(joined.isEmpty() || joined.contains(n.t1Alias)
+                    || joined.contains(n.t2Alias));
+            joined.add(n.t1Alias);
+            joined.add(n.t2Alias);
+        }
+        Assert.assertEquals(DIMENSIONS + 1, joined.size());
+    }
+
+    /**
+     * When the join graph has a cycle, the predicate that closes it is
+     * applied to tables that were already joined
+     */
+    @Test
+    public void cyclicJoinTest() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 200, 20, null,
+                tuples, "c");
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(f, name);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "x");
+        lp.addScan(f.getId(), "y");
+        lp.addScan(f.getId(), "z");
+        lp.addJoin("x.c1", "y.c0", Predicate.Op.EQUALS);
+        lp.addJoin("y.c1", "z.c0", Predicate.Op.EQUALS);
+        lp.addJoin("z.c1", "x.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("x.c0", null);
+
+        int expected = 0;
+        for (ArrayList<Integer> x : tuples)
+            for (ArrayList<Integer> y : tuples)
+                if (x.get(1).equals(y.get(0)))
+                    for (ArrayList<Integer> z : tuples)
+                        if (y.get(1).equals(z.get(0)) && z.get(1).equals(x.get(0)))
+                            expected++;
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        Assert.assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Queries joining more tables than dynamic programming is allowed to
+     * handle are ordered heuristically within the planning budget, and still
+     * keep the one big table out of the intermediate results
+     */
+    @Test(timeout = 20000)
+    public void heuristicOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        final int IO_COST = 103;
+        final int TABLES = 30;
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        TransactionId tid = new TransactionId();
+
+        ArrayList<ArrayList<Integer>> smallHeapFileTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100,
+                Integer.MAX_VALUE, null, smallHeapFileTuples, "c");
+        ArrayList<ArrayList<Integer>> bigHeapFileTuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100000; i++) {
+            bigHeapFileTuples.add(smallHeapFileTuples.get(i % 100));
+        }
+        HeapFile big = createDuplicateHeapFile(bigHeapFileTuples, 2, "c");
+        Database.getCatalog().addTable(big, "bigTable");
+        stats.put("bigTable", new TableStats(big.getId(), IO_COST));
+        filterSelectivities.put("bigTable", 1.0);
+
+        StringBuilder sql = new StringBuilder("SELECT COUNT(t0.c0) FROM bigTable");
+        StringBuilder where = new StringBuilder(" WHERE bigTable.c0 = t"
+                + (TABLES - 1) + ".c0");
+        for (int i = 0; i < TABLES; i++) {
+            String name = "t" + i;
+            HeapFile f = i == 0 ? small : createDuplicateHeapFile(
+                    smallHeapFileTuples, 2, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), IO_COST));
+            filterSelectivities.put(name, 1.0);
+            sql.append(", ").append(name);
+            if (i > 0) {
+                nodes.add(new LogicalJoinNode("t" + (i - 1), name, "c" + (i % 2),
+                        "c" + (i % 2), Predicate.Op.EQUALS));
+                where.append(" AND t").append(i - 1).append(".c").append(i % 2)
+                        .append(" = ").append(name).append(".c").append(i % 2);
+            }
+        }
+        nodes.add(new LogicalJoinNode("t" + (TABLES - 1), "bigTable", "c0",
+                "c0", Predicate.Op.EQUALS));
+        Collections.shuffle(nodes);
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                sql.append(where).append(";").toString()), nodes);
+
+        JoinOptimizer.setMaxDpTables(10);
+        JoinOptimizer.setPlanningBudget(100);
+        Vector<LogicalJoinNode> result;
+        long elapsed;
+        try {
+            long start = System.currentTimeMillis();
+            result = j.orderJoins(stats, filterSelectivities, false);
+            elapsed = System.currentTimeMillis() - start;
+        } finally {
+            JoinOptimizer.setMaxDpTables(JoinOptimizer.DEFAULT_MAX_DP_TABLES);
+            JoinOptimizer.setPlanningBudget(JoinOptimizer.DEFAULT_PLANNING_BUDGET);
+        }
+        Assert.assertTrue("planning took " + elapsed + " ms", elapsed < 1000);
+
+        Assert.assertEquals(nodes.size(), result.size());
+        // the plan may be bushy: every join combines two separate subplans,
+        // and the last one leaves a single plan of all the tables
+        HashMap<String, HashSet<String>> subplans = new HashMap<String, HashSet<String>>();
+        for (LogicalJoinNode n : result) {
+            Assert.assertTrue(nodes.contains(n));
+            HashSet<String> s1 = subplans.get(n.t1Alias), s2 = subplans.get(n.t2Alias);
+            if (s1 == null)
+                s1 = new HashSet<String>(Collections.singleton(n.t1Alias));
+            if (s2 == null)
+                s2 = new HashSet<String>(Collections.singleton(n.t2Alias));
+            Assert.assertNotSame(s1, s2);
+            s1.addAll(s2);
+            for (String alias : s1)
+                subplans.put(alias, s1);
+        }
+        Assert.assertEquals(TABLES + 1, subplans.get("bigTable").size());
+        LogicalJoinNode last = result.get(result.size() - 1);
+        Assert.assertTrue(last.t1Alias.equals("bigTable")
+                || last.t2Alias.equals("bigTable"));
+    }
+
+    /**
+     * Two selective joins at either end of a chain should be done first and
+     * then joined to each other, rather than carrying the cross product of
+     * the middle join through the rest of a left-deep plan; the bushy plan
+     * must also be instantiated correctly
+     */
+    @Test
+    public void bushyOrderJoinsTest() throws Exception {
+        // c0 is unique, c1 is the same in every row
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(0);
+            tuples.add(t);
+        }
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        LogicalPlan lp = new LogicalPlan();
+        for (String name : new String[] { "a", "b", "c", "d" }) {
+            HeapFile f = createDuplicateHeapFile(tuples, 2, "c");
+            String table = SystemTestUtil.getUUID();
+            Database.getCatalog().addTable(f, table);
+            stats.put(table, new TableStats(f.getId(), 1));
+            filterSelectivities.put(name, 1.0);
+            lp.addScan(f.getId(), name);
+        }
+        filterSelectivities.put("a", 0.001);
+        filterSelectivities.put("d", 0.001);
+        lp.addFilter("a.c0", Predicate.Op.EQUALS, "5");
+        lp.addFilter("d.c0", Predicate.Op.EQUALS, "7");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addJoin("b.c1", "c.c1", Predicate.Op.EQUALS);
+        lp.addJoin("c.c0", "d.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("a.c0", null);
+        lp.addProjectField("d.c0", null);
+
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("b", "c", "c1", "c1", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("c", "d", "c0", "c0", Predicate.Op.EQUALS));
+        Vector<LogicalJoinNode> result = new JoinOptimizer(lp, nodes)
+                .orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(3, result.size());
+        Assert.assertTrue(result.get(2).equals(nodes.get(1)));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(5);
+        row.add(7);
+        expected.add(row);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Each join is done with its cheapest algorithm: a hash join for
+     * equality, a block nested-loops join for other predicates, and an index
+     * nested-loops join when a few outer tuples can look up their matches in
+     * the index of the inner table
+     */
+    @Test
+    public void joinAlgorithmTest() throws Exception {
+        final int IO_COST = 1000;
+        ArrayList<ArrayList<Integer>> aTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, aTuples, "c");
+        Database.getCatalog().addTable(a, "ha");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null, "c");
+        Database.getCatalog().addTable(b, "hb");
+        ArrayList<ArrayList<Integer>> iTuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, 20000, 1000, null, iTuples, 0);
+        BTreeFile index = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(index, "idx");
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ha", new TableStats(a.getId(), IO_COST));
+        stats.put("hb", new TableStats(b.getId(), IO_COST));
+        stats.put("idx", new TableStats(index.getId(), IO_COST));
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put("ha", 1.0);
+        filterSelectivities.put("hb", 1.0);
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("ha", "hb", "c0", "c0", Predicate.Op.EQUALS));
+        Vector<LogicalJoinNode> result = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM ha, hb WHERE ha.c0 = hb.c0;"), nodes).orderJoins(
+                stats, filterSelectivities, false);
+        Assert.assertEquals(LogicalJoinNode.Algorithm.HASH, result.get(0).algorithm);
+
+        nodes.set(0, new LogicalJoinNode("ha", "hb", "c0", "c0", Predicate.Op.LESS_THAN));
+        result = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM ha, hb WHERE ha.c0 < hb.c0;"), nodes).orderJoins(
+                stats, filterSelectivities, false);
+        Assert.assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP,
+                result.get(0).algorithm);
+
+        // about two tuples of ha look up idx
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "ha");
+        lp.addScan(index.getId(), "idx");
+        lp.addFilter("ha.c1", Predicate.Op.EQUALS, "7");
+        lp.addJoin("ha.c0", "idx.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("ha.c0", null);
+        lp.addProjectField("idx.c1", null);
+        filterSelectivities.put("ha", 0.001);
+        filterSelectivities.put("idx", 1.0);
+        nodes.set(0, new LogicalJoinNode("ha", "idx", "c0", "c0", Predicate.Op.EQUALS));
+        result = new JoinOptimizer(lp, nodes).orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP,
+                result.get(0).algorithm);
+        Assert.assertEquals("idx", result.get(0).t2Alias);
+
+        int expected = 0;
+        for (ArrayList<Integer> t : aTuples) {
+            if (t.get(1) == 7) {
+                for (ArrayList<Integer> u : iTuples)
+                    if (u.get(0).equals(t.get(0)))
+                        expected++;
+            }
+        }
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator join = plan;
+        while (join instanceof Operator && !(join instanceof IndexNestedLoopJoin))
+            join = ((Operator) join).getChildren()[0];
+        Assert.assertTrue(join instanceof IndexNestedLoopJoin);
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        Assert.assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
 }
@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParallelHashEquiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    5, 9,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7,
+                    5, 9, 5, 6, 7 });
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for ParallelHashEquiJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashEquiJoin op = new ParallelHashEquiJoin(pred, scan1, scan2, 4);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for ParallelHashEquiJoin.getNext() with several partitions
+   */
+  @Test public void eqJoin() throws Exception {
+    for (int degree = 1; degree <= 8; degree *= 2) {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      ParallelHashEquiJoin op = new ParallelHashEquiJoin(pred, scan1, scan2, degree);
+      op.open();
+      eqJoin.open();
+      TestUtil.matchAllTuples(eqJoin, op);
+      op.rewind();
+      assertEquals(4, count(op));
+      op.close();
+      eqJoin.close();
+    }
+  }
+
+  /**
+   * Unit test for ParallelHashEquiJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashEquiJoin op = new ParallelHashEquiJoin(pred, scan1, scan2, 3);
+    op.open();
+    assertEquals(4, count(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(4, count(op));
+    op.close();
+  }
+
+  /**
+   * Inputs that are Gathers are read one slice per worker
+   */
+  @Test public void gatherInputs() throws Exception {
+    OpIterator build = new Gather(new OpIterator[] {
+        TestUtil.createTupleList(width1, new int[] { 1, 2, 3, 4 }),
+        TestUtil.createTupleList(width1, new int[] { 5, 6, 5, 9, 7, 8 }) });
+    OpIterator probe = new Gather(new OpIterator[] {
+        TestUtil.createTupleList(width2, new int[] { 1, 2, 3, 2, 3, 4 }),
+        TestUtil.createTupleList(width2, new int[] { 3, 4, 5 }),
+        TestUtil.createTupleList(width2, new int[] { 4, 5, 6, 5, 6, 7 }) });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashEquiJoin op = new ParallelHashEquiJoin(pred, build, probe, 3);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.rewind();
+    assertEquals(4, count(op));
+    op.close();
+  }
+
+  /**
+   * A probe input much larger than the partition queues is streamed through
+   * them, even with more partitions than worker threads
+   */
+  @Test public void streamsProbe() throws Exception {
+    int rows = ParallelHashEquiJoin.PROBE_QUEUE_SIZE * 20;
+    int[] probeData = new int[rows];
+    for (int i = 0; i < rows; i++)
+      probeData[i] = i % 100;
+    int[] buildData = new int[100];
+    for (int i = 0; i < 100; i++)
+      buildData[i] = i;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    int degree = Runtime.getRuntime().availableProcessors() * 4;
+    ParallelHashEquiJoin op = new ParallelHashEquiJoin(pred,
+        TestUtil.createTupleList(1, buildData), TestUtil.createTupleList(1, probeData), degree);
+    op.open();
+    assertEquals(rows, count(op));
+    // closing before the probe input is read stops its workers
+    op.rewind();
+    op.next();
+    op.close();
+  }
+
+  /**
+   * Only equality predicates can be hashed
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsInequality() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    new ParallelHashEquiJoin(pred, scan1, scan2, 2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelHashEquiJoinTest.class);
+  }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SetOperatorTest extends SimpleDbTestBase {
+
+  private static final int WIDTH = 2;
+  /** Room for about 50 tuples, far fewer than the distinct tuples of the inputs */
+  private static final long SMALL = 50 * (Utility.getTupleDesc(WIDTH).getSize() + 48);
+
+  int[] left;
+  int[] right;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    Random r = new Random(42);
+    left = new int[2000 * WIDTH];
+    right = new int[1500 * WIDTH];
+    for (int i = 0; i < left.length; i++)
+      left[i] = r.nextInt(30);
+    for (int i = 0; i < right.length; i++)
+      right[i] = r.nextInt(30) + 10;
+  }
+
+  private static Set<List<Integer>> toSet(int[] data) {
+    Set<List<Integer>> s = new HashSet<List<Integer>>();
+    for (int i = 0; i < data.length; i += WIDTH)
+      s.add(Arrays.asList(data[i], data[i + 1]));
+    return s;
+  }
+
+  /** Reads an operator, checking that it returns no tuple twice */
+  private static Set<List<Integer>> run(OpIterator op) throws Exception {
+    Set<List<Integer>> out = new HashSet<List<Integer>>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(Utility.getTupleDesc(WIDTH), t.getTupleDesc());
+      List<Integer> v = Arrays.asList(((IntField) t.getField(0)).getValue(),
+          ((IntField) t.getField(1)).getValue());
+      assertTrue("duplicate " + v, out.add(v));
+    }
+    return out;
+  }
+
+  private void check(SetOperator op, Set<List<Integer>> expected, boolean spills)
+      throws Exception {
+    op.open();
+    assertEquals(expected, run(op));
+    assertEquals(spills, op.getSpilledTuples() > 0);
+    op.rewind();
+    assertEquals(expected, run(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for Distinct
+   */
+  @Test public void distinct() throws Exception {
+    Set<List<Integer>> expected = toSet(left);
+    check(new Distinct(TestUtil.createTupleList(WIDTH, left)), expected, false);
+    check(new Distinct(TestUtil.createTupleList(WIDTH, left), SMALL), expected, true);
+    // every partition is split again until the deepest level
+    check(new Distinct(TestUtil.createTupleList(WIDTH, left), 0), expected, true);
+  }
+
+  /**
+   * Unit test for Distinct returning tuples in the order they first occur
+   */
+  @Test public void distinctStreams() throws Exception {
+    Distinct op = new Distinct(TestUtil.createTupleList(1,
+        new int[] { 3, 1, 3, 2, 1, 3, 4 }));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 3, 1, 2, 4 }), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Union
+   */
+  @Test public void union() throws Exception {
+    Set<List<Integer>> expected = toSet(left);
+    expected.addAll(toSet(right));
+    check(new Union(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right)), expected, false);
+    check(new Union(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right), SMALL), expected, true);
+  }
+
+  /**
+   * Unit test for Intersect
+   */
+  @Test public void intersect() throws Exception {
+    Set<List<Integer>> expected = toSet(left);
+    expected.retainAll(toSet(right));
+    check(new Intersect(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right)), expected, false);
+    check(new Intersect(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right), SMALL), expected, true);
+    check(new Intersect(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right), 0), expected, true);
+  }
+
+  /**
+   * Unit test for Except
+   */
+  @Test public void except() throws Exception {
+    Set<List<Integer>> expected = toSet(left);
+    expected.removeAll(toSet(right));
+    check(new Except(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right)), expected, false);
+    check(new Except(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right), SMALL), expected, true);
+    check(new Except(TestUtil.createTupleList(WIDTH, left),
+        TestUtil.createTupleList(WIDTH, right), 0), expected, true);
+  }
+
+  /**
+   * Unit test for the check that both inputs have the same field types
+   */
+  @Test public void incompatibleInputs() {
+    try {
+      new Union(TestUtil.createTupleList(WIDTH, left), TestUtil.createTupleList(1, new int[] { 1 }));
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SetOperatorTest.class);
+  }
+}
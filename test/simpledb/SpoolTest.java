@@ -0,0 +1,128 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SpoolTest extends SimpleDbTestBase {
+
+  /** A MockScan that counts the tuples it produces */
+  private static class CountingScan extends TestUtil.MockScan {
+    private static final long serialVersionUID = 1L;
+    int produced = 0;
+
+    CountingScan(int low, int high, int width) {
+      super(low, high, width);
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+      produced++;
+      return super.next();
+    }
+  }
+
+  private static void checkPass(OpIterator it, int low, int high) throws Exception {
+    for (int i = low; i < high; i++) {
+      assertTrue(it.hasNext());
+      assertEquals(new IntField(i), it.next().getField(0));
+    }
+    assertTrue(TestUtil.checkExhausted(it));
+  }
+
+  /**
+   * Unit test for Spool.rewind() with every tuple kept in memory
+   */
+  @Test public void rewindInMemory() throws Exception {
+    CountingScan child = new CountingScan(0, 100, 2);
+    Spool spool = new Spool(child);
+    assertEquals(Utility.getTupleDesc(2), spool.getTupleDesc());
+    spool.open();
+    for (int pass = 0; pass < 3; pass++) {
+      checkPass(spool, 0, 100);
+      spool.rewind();
+    }
+    assertEquals(100, child.produced);
+    assertEquals(0, spool.getSpilledTuples());
+    spool.close();
+  }
+
+  /**
+   * Unit test for Spool.rewind() when the tuples do not fit in memory
+   */
+  @Test public void rewindSpilled() throws Exception {
+    CountingScan child = new CountingScan(0, 1000, 3);
+    Spool spool = new Spool(child, 100 * (Utility.getTupleDesc(3).getSize() + 16));
+    spool.open();
+    for (int pass = 0; pass < 3; pass++) {
+      checkPass(spool, 0, 1000);
+      spool.rewind();
+    }
+    assertEquals(1000, child.produced);
+    assertEquals(900, spool.getSpilledTuples());
+    spool.close();
+
+    // reopening starts over from the child
+    spool.open();
+    checkPass(spool, 0, 1000);
+    assertEquals(2000, child.produced);
+    spool.close();
+  }
+
+  /**
+   * Unit test for Spool.rewind() in the middle of the first pass
+   */
+  @Test public void rewindEarly() throws Exception {
+    CountingScan child = new CountingScan(0, 50, 1);
+    Spool spool = new Spool(child, 10 * (Utility.getTupleDesc(1).getSize() + 16));
+    spool.open();
+    for (int i = 0; i < 20; i++)
+      spool.next();
+    spool.rewind();
+    assertTrue(spool.isComplete());
+    checkPass(spool, 0, 50);
+    assertEquals(50, child.produced);
+    spool.close();
+  }
+
+  /**
+   * Unit test for a nested-loops Join whose inner side is spooled: the inner
+   * subtree runs once instead of once per outer tuple
+   */
+  @Test public void spooledJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Predicate even = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20));
+
+    CountingScan plainInner = new CountingScan(0, 40, 2);
+    Join plain = new Join(pred, new TestUtil.MockScan(0, 30, 2),
+        new Filter(even, plainInner));
+    CountingScan spooledInner = new CountingScan(0, 40, 2);
+    Join spooled = new Join(pred, new TestUtil.MockScan(0, 30, 2),
+        new Spool(new Filter(even, spooledInner)));
+
+    plain.open();
+    spooled.open();
+    TestUtil.matchAllTuples(plain, spooled);
+    spooled.rewind();
+    int n = 0;
+    while (spooled.hasNext()) {
+      spooled.next();
+      n++;
+    }
+    assertEquals(20, n);
+    assertEquals(40, spooledInner.produced);
+    assertTrue(plainInner.produced >= 30 * 40);
+    plain.close();
+    spooled.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SpoolTest.class);
+  }
+}
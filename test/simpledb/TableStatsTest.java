@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -151,4 +152,83 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+	
+	/**
+	 * Verify that statistics are persisted next to the heap file and reloaded
+	 * instead of rescanning it, until the heap file is written again
+	 */
+	@Test public void persistedStatsTest() {
+		File side = TableStats.statsFile(f.getFile());
+		side.delete();
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		Assert.assertFalse(s.isLoaded());
+		Assert.assertTrue(side.exists());
+		
+		TableStats reloaded = new TableStats(this.tableId, IO_COST);
+		Assert.assertTrue(reloaded.isLoaded());
+		Assert.assertEquals(s.totalTuples(), reloaded.totalTuples());
+		Assert.assertEquals(s.estimateScanCost(), reloaded.estimateScanCost(), 0.0);
+		for (Predicate.Op op : Predicate.Op.values()) {
+			Assert.assertEquals(s.estimateSelectivity(3, op, new IntField(11)),
+					reloaded.estimateSelectivity(3, op, new IntField(11)), 0.0);
+		}
+		
+		// a write to the heap file makes the side file out of date
+		Assert.assertTrue(f.getFile().setLastModified(side.lastModified() + 2000));
+		TableStats rescanned = new TableStats(this.tableId, IO_COST);
+		Assert.assertFalse(rescanned.isLoaded());
+		Assert.assertEquals(10200, rescanned.totalTuples());
+	}
+	
+	/**
+	 * Verify that a table scanned in several page ranges in parallel gets the
+	 * same statistics as its tuples
+	 */
+	@Test public void parallelScanTest() throws Exception {
+		ArrayList<ArrayList<Integer>> big = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 150000, 1000, null, big);
+		Assert.assertTrue(hf.numPages() >= 4 * LogicalPlan.MIN_PARALLEL_PAGES);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		
+		Assert.assertEquals(150000, s.totalTuples());
+		int below = 0;
+		for (ArrayList<Integer> t : big) {
+			if (t.get(1) < 250)
+				below++;
+		}
+		Assert.assertEquals((double) below / big.size(),
+				s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(250)), 0.01);
+	}
+	
+	/**
+	 * Verify that a conjunction of filters on correlated columns is estimated
+	 * from the sample, not as if the filters were independent
+	 */
+	@Test public void sampleSelectivityTest() throws Exception {
+		// the second column equals the first
+		ArrayList<ArrayList<Integer>> correlated = new ArrayList<ArrayList<Integer>>();
+		java.util.Random r = new java.util.Random(1);
+		for (int i = 0; i < 30000; i++) {
+			int v = r.nextInt(1000);
+			correlated.add(new ArrayList<Integer>(java.util.Arrays.asList(v, v)));
+		}
+		HeapFile hf = JoinOptimizerTest.createDuplicateHeapFile(correlated, 2, "c");
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		double below = s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(100));
+		Assert.assertEquals(0.1, below, 0.02);
+		
+		Expression both = Expression.and(java.util.Arrays.asList(
+				Expression.compare("c0", Predicate.Op.LESS_THAN, "100"),
+				Expression.compare("c1", Predicate.Op.LESS_THAN, "100"))).bind(hf.getTupleDesc());
+		Assert.assertEquals(0.1, s.estimateSelectivity(both, below * below), 0.02);
+		
+		// no sampled tuple matches: less than one sampled tuple's share
+		Expression neither = Expression.and(java.util.Arrays.asList(
+				Expression.compare("c0", Predicate.Op.LESS_THAN, "100"),
+				Expression.compare("c1", Predicate.Op.GREATER_THAN_OR_EQ, "900"))).bind(hf.getTupleDesc());
+		double none = s.estimateSelectivity(neither, 0.01);
+		Assert.assertTrue(none > 0);
+		Assert.assertTrue(none <= 1.0 / TableStats.SAMPLE_SIZE);
+	}
 }
@@ -0,0 +1,84 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests queries whose WHERE clause has conditions that cannot be pushed into
+ * the scan, which are evaluated together by one Filter.
+ */
+public class ExpressionFilterTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+
+    @Test public void testOneFilter() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, tuples, "c");
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(f, name);
+        String c0 = "t." + f.getTupleDesc().getFieldName(0);
+        String c1 = "t." + f.getTupleDesc().getFieldName(1);
+        String c2 = "t." + f.getTupleDesc().getFieldName(2);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        // c0 < 20 OR c0 IN (50, 60), NOT c1 = c2, and a pushed c2 >= 10
+        lp.addFilter(Expression.or(Arrays.asList(
+                Expression.compare(c0, Predicate.Op.LESS_THAN, "20"),
+                Expression.in(c0, Arrays.asList("50", "60")))));
+        lp.addFilter(Expression.not(Expression.compareColumns(c1, Predicate.Op.EQUALS, c2)));
+        lp.addFilter(c2, Predicate.Op.GREATER_THAN_OR_EQ, "10");
+        lp.addProjectField(c0, null);
+        lp.addProjectField(c2, null);
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            int a = t.get(0), b = t.get(1), c = t.get(2);
+            if ((a < 20 || a == 50 || a == 60) && b != c && c >= 10)
+                expected.add(new ArrayList<Integer>(Arrays.asList(a, c)));
+        }
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1));
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        // a single Filter over a scan that carries the simple predicate
+        OpIterator filter = ((Operator) plan).getChildren()[0];
+        assertTrue(filter instanceof Filter);
+        OpIterator scan = ((Filter) filter).getChildren()[0];
+        assertTrue(scan instanceof SeqScan);
+        assertEquals(1, ((SeqScan) scan).getPredicates().length);
+
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testMultipleTablesRejected() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, null, "c");
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        String c0 = f.getTupleDesc().getFieldName(0);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t1");
+        lp.addScan(f.getId(), "t2");
+        try {
+            lp.addFilter(Expression.or(Arrays.asList(
+                    Expression.compare("t1." + c0, Predicate.Op.EQUALS, "1"),
+                    Expression.compare("t2." + c0, Predicate.Op.EQUALS, "1"))));
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExpressionFilterTest.class);
+    }
+}
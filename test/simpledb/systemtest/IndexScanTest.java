@@ -0,0 +1,175 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that the planner reads a B+ tree table through its index when a
+ * filter on the key field is selective enough, and scans it otherwise.
+ */
+public class IndexScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 1000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BTreeFile index;
+    private HashMap<String, TableStats> stats;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+        index = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(index, name);
+        stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(index.getId(), 1));
+    }
+
+    /** @return the first scan found in a plan, looking through its operators */
+    private static SeqScan findScan(OpIterator plan) {
+        if (plan instanceof SeqScan)
+            return (SeqScan) plan;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                SeqScan scan = findScan(child);
+                if (scan != null)
+                    return scan;
+            }
+        }
+        return null;
+    }
+
+    private LogicalPlan select(Predicate.Op[] ops, String[] constants) throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(index.getId(), "t");
+        for (int i = 0; i < ops.length; i++)
+            lp.addFilter(i == 0 ? "t.c0" : "t.c1", ops[i], constants[i]);
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        return lp;
+    }
+
+    private List<ArrayList<Integer>> expected(Predicate.Op op, int value) {
+        List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                result.add(t);
+        }
+        return result;
+    }
+
+    @Test public void testPointLookup() throws Exception {
+        int key = tuples.get(0).get(0);
+        LogicalPlan lp = select(new Predicate.Op[] {Predicate.Op.EQUALS}, new String[] {"" + key});
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        SeqScan scan = findScan(plan);
+        assertNotNull(scan.getIndexPredicate());
+        assertEquals(Predicate.Op.EQUALS, scan.getIndexPredicate().getOp());
+        // the index evaluates the predicate
+        assertEquals(0, scan.getPredicates().length);
+
+        SystemTestUtil.matchTuples(plan, expected(Predicate.Op.EQUALS, key));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRangeLookupWithOtherFilter() throws Exception {
+        LogicalPlan lp = select(new Predicate.Op[] {Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN},
+                new String[] {"20", "500"});
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        SeqScan scan = findScan(plan);
+        assertNotNull(scan.getIndexPredicate());
+        assertEquals(Predicate.Op.LESS_THAN, scan.getIndexPredicate().getOp());
+        assertEquals(1, scan.getPredicates().length);
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : expected(Predicate.Op.LESS_THAN, 20)) {
+            if (t.get(1) > 500)
+                expected.add(t);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testUnselectiveFilterScans() throws Exception {
+        // almost every tuple matches, so reading the index would not pay
+        LogicalPlan lp = select(new Predicate.Op[] {Predicate.Op.GREATER_THAN}, new String[] {"10"});
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        SeqScan scan = findScan(plan);
+        assertNull(scan.getIndexPredicate());
+        assertEquals(1, scan.getPredicates().length);
+
+        SystemTestUtil.matchTuples(plan, expected(Predicate.Op.GREATER_THAN, 10));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFilterOnOtherColumnScans() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(index.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "5");
+        lp.addProjectField("t.c0", null);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertNull(findScan(plan).getIndexPredicate());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParameterNotLookedUp() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(index.getId(), "t");
+        lp.addParameterFilter("t.c0", Predicate.Op.EQUALS);
+        lp.setParameters(new String[] {"5"});
+        lp.addProjectField("t.c0", null);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertNull(findScan(plan).getIndexPredicate());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoinWithIndexedFilter() throws Exception {
+        ArrayList<ArrayList<Integer>> heapTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 200, MAX_VALUE, null, heapTuples, "h");
+        String heapName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(heap, heapName);
+        stats.put(heapName, new TableStats(heap.getId(), 1));
+
+        // the index of t is used by its filter, not by the join
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(heap.getId(), "h");
+        lp.addScan(index.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "50");
+        lp.addJoin("h.h0", "t.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("h.h1", null);
+        lp.addProjectField("t.c1", null);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> h : heapTuples) {
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) < 50 && h.get(0).equals(t.get(0)))
+                    expected.add(new ArrayList<Integer>(Arrays.asList(h.get(1), t.get(1))));
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
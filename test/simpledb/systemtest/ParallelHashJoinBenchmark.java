@@ -0,0 +1,93 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how {@link ParallelHashEquiJoin} scales with the number of worker
+ * threads, on synthetic tables generated with {@link HeapFileEncoder}.
+ * <p>
+ * This is not a unit test; run it by hand after <tt>ant testcompile</tt>:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.systemtest.ParallelHashJoinBenchmark [buildRows probeRows maxThreads]
+ * </pre>
+ * Both tables are read into the buffer pool before timing starts, so the
+ * numbers measure partitioning, building and probing rather than disk I/O.
+ */
+public class ParallelHashJoinBenchmark {
+    private static final int COLUMNS = 2;
+    private static final int REPEAT = 3;
+
+    private static HeapFile createTable(int rows, int maxKey, Random r) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(COLUMNS);
+            t.add(r.nextInt(maxKey));
+            t.add(i);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        return hf;
+    }
+
+    private static int drain(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** @return the best of REPEAT runs, in milliseconds */
+    private static long time(HeapFile build, HeapFile probe, int threads) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPEAT; i++) {
+            TransactionId tid = new TransactionId();
+            JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+            OpIterator left = new SeqScan(tid, build.getId());
+            OpIterator right = new SeqScan(tid, probe.getId());
+            OpIterator join = threads == 0 ? new HashEquiJoin(p, left, right)
+                    : new ParallelHashEquiJoin(p, left, right, threads);
+            long start = System.nanoTime();
+            drain(join);
+            best = Math.min(best, (System.nanoTime() - start) / 1000000);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int buildRows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int probeRows = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        Random r = new Random(42);
+        HeapFile build = createTable(buildRows, buildRows, r);
+        HeapFile probe = createTable(probeRows, buildRows, r);
+        Database.resetBufferPool(build.numPages() + probe.numPages() + 16);
+
+        TransactionId tid = new TransactionId();
+        drain(new SeqScan(tid, build.getId()));
+        drain(new SeqScan(tid, probe.getId()));
+        Database.getBufferPool().transactionComplete(tid);
+
+        System.out.println("build rows: " + buildRows + ", probe rows: " + probeRows);
+        long base = time(build, probe, 0);
+        System.out.printf("%-24s %8d ms%n", "HashEquiJoin", base);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long ms = time(build, probe, threads);
+            System.out.printf("%-24s %8d ms  speedup %.2f%n",
+                    "ParallelHashEquiJoin x" + threads, ms, (double) base / ms);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests page-range scans and the Gather operator that runs them in parallel.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 20000;
+
+    /** Page-range scans together return every tuple exactly once. */
+    @Test public void testPartitionsCoverTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        SeqScan[] parts = SeqScan.partition(tid, f.getId(), "", 3);
+        int total = 0;
+        for (SeqScan part : parts) {
+            part.open();
+            while (part.hasNext()) {
+                part.next();
+                total++;
+            }
+            part.close();
+        }
+        assertEquals(ROWS, total);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** More partitions than pages leaves some partitions empty. */
+    @Test public void testMorePartitionsThanPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Gather(SeqScan.partition(tid, f.getId(), "", 4)), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Gather returns the same tuples as a sequential scan. */
+    @Test public void testGather() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Gather(SeqScan.partition(tid, f.getId(), "", 4)), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A queue of size one forces the workers to wait for the consumer. */
+    @Test public void testBackpressure() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Gather(SeqScan.partition(tid, f.getId(), "", 4), 1), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Filters below the gather run inside the workers. */
+    @Test public void testFilterPerPartition() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 100)
+                expected.add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan[] parts = SeqScan.partition(tid, f.getId(), "", 4);
+        OpIterator[] filtered = new OpIterator[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            filtered[i] = new Filter(p, parts[i]);
+        SystemTestUtil.matchTuples(new Gather(filtered), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Rewind restarts the workers; closing early stops them. */
+    @Test public void testRewindAndEarlyClose() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        TransactionId tid = new TransactionId();
+        Gather g = new Gather(SeqScan.partition(tid, f.getId(), "", 4), 16);
+        g.open();
+        for (int i = 0; i < 100; i++)
+            assertNotNull(g.next());
+        g.rewind();
+        int count = 0;
+        while (g.hasNext()) {
+            g.next();
+            count++;
+        }
+        assertEquals(ROWS, count);
+        g.rewind();
+        assertTrue(g.hasNext());
+        g.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Two-phase aggregation over partitions matches a serial aggregate. */
+    @Test public void testParallelAggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 50, null, tuples);
+        TransactionId tid = new TransactionId();
+        Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.AVG,
+                Aggregator.Op.COUNT, Aggregator.Op.MIN, Aggregator.Op.MAX };
+        for (Aggregator.Op op : ops) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            Aggregate serial = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, op);
+            serial.open();
+            while (serial.hasNext())
+                expected.add(SystemTestUtil.tupleToList(serial.next()));
+            serial.close();
+
+            Aggregate parallel = new Aggregate(
+                    new Gather(SeqScan.partition(tid, f.getId(), "", 4)), 1, 0, op);
+            assertTrue(parallel.isParallel());
+            SystemTestUtil.matchTuples(parallel, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that prepared statements plan once and run their cached plan with
+ * new parameter values until the catalog or the statistics change.
+ */
+public class PreparedStatementTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private ArrayList<ArrayList<Integer>> left;
+    private ArrayList<ArrayList<Integer>> right;
+    private Parser parser;
+
+    @Before public void createTables() throws Exception {
+        left = new ArrayList<ArrayList<Integer>>();
+        right = new ArrayList<ArrayList<Integer>>();
+        addTable("pl", 1000, left);
+        addTable("pr", 200, right);
+        parser = new Parser();
+    }
+
+    private void addTable(String name, int rows, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+    }
+
+    private void run(PreparedStatement ps, List<ArrayList<Integer>> expected) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Query q = ps.execute(t.getId());
+        SystemTestUtil.matchTuples(q.getPhysicalPlan(), expected);
+        t.commit();
+    }
+
+    @Test public void testRebind() throws Exception {
+        PreparedStatement ps = parser.prepare(
+                "SELECT pl.c0, pl.c1 FROM pl WHERE pl.c0 >= ? AND pl.c1 BETWEEN ? AND 50;");
+        assertEquals(2, ps.getParameterCount());
+        assertNotSame(ps, parser.prepare(
+                "SELECT pl.c0, pl.c1\n FROM pl WHERE pl.c0 >= ? AND pl.c1 BETWEEN ? AND 50 ;"));
+
+        int[][] params = { { 10, 20 }, { 90, 0 }, { 0, 45 } };
+        for (int[] v : params) {
+            ps.setInt(1, v[0]);
+            ps.setInt(2, v[1]);
+            List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t : left) {
+                if (t.get(0) >= v[0] && t.get(1) >= v[1] && t.get(1) <= 50)
+                    expected.add(t);
+            }
+            run(ps, expected);
+        }
+        assertEquals(1, ps.getPlansBuilt());
+    }
+
+    @Test public void testJoinReused() throws Exception {
+        PreparedStatement ps = parser.prepare(
+                "SELECT pl.c0, pr.c0 FROM pl, pr WHERE pl.c1 = pr.c1 AND pr.c0 < ?;");
+        for (int v : new int[] { 5, 30 }) {
+            ps.setInt(1, v);
+            List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> l : left) {
+                for (ArrayList<Integer> r : right) {
+                    if (l.get(1).equals(r.get(1)) && r.get(0) < v)
+                        expected.add(new ArrayList<Integer>(Arrays.asList(l.get(0), r.get(0))));
+                }
+            }
+            run(ps, expected);
+        }
+        assertEquals(1, ps.getPlansBuilt());
+    }
+
+    @Test public void testReplannedAfterChanges() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT pr.c0 FROM pr WHERE pr.c0 = ?;");
+        ps.setInt(1, 7);
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : right) {
+            if (t.get(0) == 7)
+                expected.add(new ArrayList<Integer>(Arrays.asList(7)));
+        }
+        run(ps, expected);
+        run(ps, expected);
+        assertEquals(1, ps.getPlansBuilt());
+
+        // new statistics
+        int id = Database.getCatalog().getTableId("pr");
+        TableStats.setTableStats("pr", new TableStats(id, 1));
+        run(ps, expected);
+        assertEquals(2, ps.getPlansBuilt());
+
+        // a table replaced in the catalog
+        ArrayList<ArrayList<Integer>> other = new ArrayList<ArrayList<Integer>>();
+        addTable("pr", 50, other);
+        expected.clear();
+        for (ArrayList<Integer> t : other) {
+            if (t.get(0) == 7)
+                expected.add(new ArrayList<Integer>(Arrays.asList(7)));
+        }
+        run(ps, expected);
+        assertEquals(3, ps.getPlansBuilt());
+    }
+
+    private List<ArrayList<Integer>> rightWithC0(int v) {
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : right) {
+            if (t.get(0) == v)
+                expected.add(new ArrayList<Integer>(Arrays.asList(v)));
+        }
+        return expected;
+    }
+
+    @Test public void testIndependentStatements() throws Exception {
+        String sql = "SELECT pr.c0 FROM pr WHERE pr.c0 = ?;";
+        PreparedStatement a = parser.prepare(sql);
+        PreparedStatement b = parser.prepare(sql);
+        a.setInt(1, 3);
+        b.setInt(1, 8);
+
+        // both statements running at once keep their own values and plans
+        Transaction t = new Transaction();
+        t.start();
+        Query qa = a.execute(t.getId());
+        Query qb = b.execute(t.getId());
+        SystemTestUtil.matchTuples(qa.getPhysicalPlan(), rightWithC0(3));
+        SystemTestUtil.matchTuples(qb.getPhysicalPlan(), rightWithC0(8));
+        t.commit();
+
+        b.setInt(1, 11);
+        run(a, rightWithC0(3));
+        run(b, rightWithC0(11));
+        assertEquals(1, a.getPlansBuilt());
+        assertEquals(1, b.getPlansBuilt());
+    }
+
+    @Test public void testErrors() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT pr.c0 FROM pr WHERE pr.c0 = ?;");
+        TransactionId tid = new TransactionId();
+        try {
+            ps.execute(tid);
+            fail("expected ParsingException for a missing parameter");
+        } catch (ParsingException e) {
+        }
+        ps.setString(1, "abc");
+        try {
+            ps.execute(tid);
+            fail("expected ParsingException for a string compared with an int");
+        } catch (ParsingException e) {
+        }
+        ps = parser.prepare("SELECT pr.c0 FROM pr WHERE pr.c0 = ? OR pr.c1 = 1;");
+        ps.setInt(1, 1);
+        try {
+            ps.execute(tid);
+            fail("expected ParsingException for a parameter inside OR");
+        } catch (ParsingException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PreparedStatementTest.class);
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests scans that return only some of a table's columns.
+ */
+public class ProjectedScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 2000;
+
+    /** @return the given columns of each tuple */
+    private static List<ArrayList<Integer>> project(List<ArrayList<Integer>> tuples,
+            int[] columns) {
+        List<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int c : columns)
+                row.add(t.get(c));
+            out.add(row);
+        }
+        return out;
+    }
+
+    private static void checkTupleDesc(DbFile f, SeqScan scan, int[] columns) {
+        TupleDesc tableTd = f.getTupleDesc();
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(columns.length, td.numFields());
+        for (int i = 0; i < columns.length; i++) {
+            assertEquals("t." + tableTd.getFieldName(columns[i]), td.getFieldName(i));
+            assertEquals(tableTd.getFieldType(columns[i]), td.getFieldType(i));
+            assertEquals(columns[i], scan.getTableField(i));
+        }
+    }
+
+    @Test public void testHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        int[] columns = new int[] { 3, 1 };
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.setColumns(columns);
+        checkTupleDesc(f, scan, columns);
+        SystemTestUtil.matchTuples(scan, project(tuples, columns));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBTreeFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, null, tuples, 0);
+        int[] columns = new int[] { 2 };
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.setColumns(columns);
+        checkTupleDesc(f, scan, columns);
+        SystemTestUtil.matchTuples(scan, project(tuples, columns));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Pushed predicates use the scan's field indexes, not the table's. */
+    @Test public void testWithPredicate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        int[] columns = new int[] { 2, 0 };
+        int pivot = tuples.get(0).get(0);
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : project(tuples, columns)) {
+            if (t.get(1) >= pivot)
+                expected.add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.setColumns(columns);
+        scan.addPredicate(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(pivot)));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ProjectedScanTest.class);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb.systemtest;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+import simpledb.*;
+
+/**
+ * Tests that repeated SELECT statements are answered from the result cache
+ * until a transaction that modifies one of their tables commits.
+ */
+public class QueryCacheTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 1000;
+
+    private HeapFile table;
+    private Parser parser;
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, null, "c");
+        Database.getCatalog().addTable(table, "qc");
+        TableStats.setTableStats("qc", new TableStats(table.getId(), 1));
+        parser = new Parser();
+    }
+
+    @After public void tearDown() {
+        Parser.setQueryCache(null);
+    }
+
+    /** Runs a statement in transaction tid and returns its first column, sorted */
+    private ArrayList<Integer> run(String sql, TransactionId tid) throws Exception {
+        ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
+        Query q = parser.handleQueryStatement((ZQuery) p.readStatement(), tid);
+        ArrayList<Integer> out = new ArrayList<Integer>();
+        q.start();
+        while (q.hasNext())
+            out.add(((IntField) q.next().getField(0)).getValue());
+        q.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    private ArrayList<Integer> run(String sql) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        ArrayList<Integer> out = run(sql, t.getId());
+        t.commit();
+        return out;
+    }
+
+    private void insert(TransactionId tid, int value) throws Exception {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+
+    @Test public void testHitAndInvalidation() throws Exception {
+        QueryCache cache = new QueryCache(1 << 20);
+        Parser.setQueryCache(cache);
+
+        ArrayList<Integer> first = run("SELECT qc.c0 FROM qc WHERE qc.c0 < 500;");
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+
+        // the same statement with different whitespace is a hit
+        assertEquals(first, run("SELECT   qc.c0\n FROM qc  WHERE qc.c0 < 500 ;"));
+        assertEquals(1, cache.getHits());
+
+        // a transaction does not see the cached result once it has
+        // modified the table itself
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), -1);
+        ArrayList<Integer> own = run("SELECT qc.c0 FROM qc WHERE qc.c0 < 500;", t.getId());
+        assertEquals(first.size() + 1, own.size());
+        assertEquals(1, cache.getHits());
+
+        // nor does anyone else once it commits
+        t.commit();
+        assertEquals(own, run("SELECT qc.c0 FROM qc WHERE qc.c0 < 500;"));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(own, run("SELECT qc.c0 FROM qc WHERE qc.c0 < 500;"));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test public void testAbortKeepsEntry() throws Exception {
+        QueryCache cache = new QueryCache(1 << 20);
+        Parser.setQueryCache(cache);
+
+        ArrayList<Integer> first = run("SELECT qc.c0 FROM qc;");
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), -1);
+        t.abort();
+        assertEquals(first, run("SELECT qc.c0 FROM qc;"));
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getInvalidations());
+    }
+
+    @Test public void testSubqueryTableInvalidates() throws Exception {
+        HeapFile sub = SystemTestUtil.createRandomHeapFile(COLUMNS, 0, 1000, null, null, "c");
+        Database.getCatalog().addTable(sub, "qs");
+        TableStats.setTableStats("qs", new TableStats(sub.getId(), 1));
+        int value = run("SELECT qc.c0 FROM qc;").get(0);
+        QueryCache cache = new QueryCache(1 << 20);
+        Parser.setQueryCache(cache);
+
+        String sql = "SELECT qc.c0 FROM qc WHERE qc.c0 = (SELECT qs.c0 FROM qs);";
+        assertEquals(0, run(sql).size());
+
+        // qs is only read by the subquery, but changing it still
+        // invalidates the result
+        Transaction t = new Transaction();
+        t.start();
+        Tuple tup = new Tuple(sub.getTupleDesc());
+        tup.setField(0, new IntField(value));
+        tup.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(t.getId(), sub.getId(), tup);
+        t.commit();
+
+        ArrayList<Integer> after = run(sql);
+        assertFalse(after.isEmpty());
+        for (int v : after)
+            assertEquals(value, v);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test public void testEviction() throws Exception {
+        // room for one result of about 100 tuples, but not two
+        QueryCache cache = new QueryCache(150 * (table.getTupleDesc().getSize() + 16));
+        Parser.setQueryCache(cache);
+
+        run("SELECT qc.c0 FROM qc WHERE qc.c0 < 100;");
+        run("SELECT qc.c0 FROM qc WHERE qc.c0 >= 900;");
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getBytes() <= 150 * (table.getTupleDesc().getSize() + 16));
+
+        // the least recently used result was evicted
+        run("SELECT qc.c0 FROM qc WHERE qc.c0 >= 900;");
+        assertEquals(1, cache.getHits());
+        run("SELECT qc.c0 FROM qc WHERE qc.c0 < 100;");
+        assertEquals(1, cache.getHits());
+
+        // results larger than the whole cache are not kept
+        run("SELECT qc.c0 FROM qc;");
+        run("SELECT qc.c0 FROM qc;");
+        assertEquals(1, cache.getHits());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(QueryCacheTest.class);
+    }
+}
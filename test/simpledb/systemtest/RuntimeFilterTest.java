@@ -0,0 +1,114 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests the Bloom filters that hash joins push down to their probe-side scan.
+ */
+public class RuntimeFilterTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int PROBE_ROWS = 20000;
+
+    /** Computes the join on column 0 of both tables with plain Java maps */
+    private static ArrayList<ArrayList<Integer>> expectedJoin(
+            ArrayList<ArrayList<Integer>> build, ArrayList<ArrayList<Integer>> probe) {
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> byKey =
+                new HashMap<Integer, ArrayList<ArrayList<Integer>>>();
+        for (ArrayList<Integer> t : build) {
+            if (!byKey.containsKey(t.get(0)))
+                byKey.put(t.get(0), new ArrayList<ArrayList<Integer>>());
+            byKey.get(t.get(0)).add(t);
+        }
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> p : probe) {
+            if (!byKey.containsKey(p.get(0)))
+                continue;
+            for (ArrayList<Integer> b : byKey.get(p.get(0))) {
+                ArrayList<Integer> t = new ArrayList<Integer>(b);
+                t.addAll(p);
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private void validateJoin(int buildRows, boolean parallel) throws Exception {
+        ArrayList<ArrayList<Integer>> build = new ArrayList<ArrayList<Integer>>();
+        HeapFile buildFile = SystemTestUtil.createRandomHeapFile(COLUMNS, buildRows, 100000, null, build);
+        ArrayList<ArrayList<Integer>> probe = new ArrayList<ArrayList<Integer>>();
+        HeapFile probeFile = SystemTestUtil.createRandomHeapFile(COLUMNS, PROBE_ROWS, 100000, null, probe);
+
+        TransactionId tid = new TransactionId();
+        SeqScan probeScan = new SeqScan(tid, probeFile.getId());
+        OpIterator probeSide = new Filter(
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), probeScan);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator join = parallel
+                ? new ParallelHashEquiJoin(p, new SeqScan(tid, buildFile.getId()), probeSide, 4)
+                : new HashEquiJoin(p, new SeqScan(tid, buildFile.getId()), probeSide);
+
+        SystemTestUtil.matchTuples(join, expectedJoin(build, probe));
+        // a small build side leaves most of the probe table unmatched
+        assertTrue(probeScan.getRuntimeFilterRejected() > PROBE_ROWS / 2);
+
+        // once the join is closed the scan is no longer filtered
+        int count = 0;
+        probeScan.open();
+        while (probeScan.hasNext()) {
+            probeScan.next();
+            count++;
+        }
+        probeScan.close();
+        assertEquals(PROBE_ROWS, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testHashJoin() throws Exception {
+        validateJoin(100, false);
+    }
+
+    /** A build side larger than one hash table chunk publishes one filter per chunk. */
+    @Test public void testHashJoinSeveralChunks() throws Exception {
+        validateJoin(HashEquiJoin.MAP_SIZE * 2, false);
+    }
+
+    @Test public void testParallelHashJoin() throws Exception {
+        validateJoin(100, true);
+    }
+
+    /** Rewinding the join reloads the build side and keeps the filter consistent. */
+    @Test public void testRewind() throws Exception {
+        ArrayList<ArrayList<Integer>> build = new ArrayList<ArrayList<Integer>>();
+        HeapFile buildFile = SystemTestUtil.createRandomHeapFile(COLUMNS, 50, 1000, null, build);
+        ArrayList<ArrayList<Integer>> probe = new ArrayList<ArrayList<Integer>>();
+        HeapFile probeFile = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 1000, null, probe);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, buildFile.getId()), new SeqScan(tid, probeFile.getId()));
+        int expected = expectedJoin(build, probe).size();
+        join.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            while (join.hasNext()) {
+                join.next();
+                count++;
+            }
+            assertEquals(expected, count);
+            join.rewind();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RuntimeFilterTest.class);
+    }
+}
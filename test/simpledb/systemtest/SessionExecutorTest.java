@@ -0,0 +1,123 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests running many client sessions on a shared SessionExecutor.
+ */
+public class SessionExecutorTest extends SimpleDbTestBase {
+    private static final int SESSIONS = 500;
+    private static final int ROWS = 1000;
+
+    private static int countRows(int tableId) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), tableId);
+        int n = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
+    /** Many sessions, each running its own transaction, all complete. */
+    @Test public void testManySessions() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        SessionExecutor executor = new SessionExecutor();
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < SESSIONS; i++)
+            results.add(executor.newSession().submit(() -> countRows(f.getId())));
+        for (Future<Integer> r : results)
+            assertEquals(ROWS, (int) r.get(60, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    /** Tasks in one session run in order and never overlap. */
+    @Test public void testSessionOrder() throws Exception {
+        SessionExecutor executor = new SessionExecutor(Executors.newFixedThreadPool(4));
+        SessionExecutor.Session s = executor.newSession();
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+        AtomicInteger active = new AtomicInteger();
+        Future<?> last = null;
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            last = s.submit(() -> {
+                assertEquals(1, active.incrementAndGet());
+                seen.add(n);
+                active.decrementAndGet();
+                return null;
+            });
+        }
+        last.get(10, TimeUnit.SECONDS);
+        assertEquals(100, seen.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, (int) seen.get(i));
+        executor.shutdown();
+    }
+
+    /** A session waiting on a page lock wakes up as soon as it is released. */
+    @Test public void testLockWaitWakesOnRelease() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        TransactionId holder = new TransactionId();
+        Database.getBufferPool().getPage(holder, pid, Permissions.READ_WRITE);
+
+        SessionExecutor executor = new SessionExecutor();
+        Future<Long> waited = executor.newSession().submit(() -> {
+            TransactionId tid = new TransactionId();
+            long start = System.currentTimeMillis();
+            Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            long elapsed = System.currentTimeMillis() - start;
+            Database.getBufferPool().transactionComplete(tid);
+            return elapsed;
+        });
+
+        Thread.sleep(200);
+        assertFalse(waited.isDone());
+        Database.getBufferPool().transactionComplete(holder);
+        // the lock timeout is at least 2 seconds
+        assertTrue(waited.get(10, TimeUnit.SECONDS) < 2000);
+        executor.shutdown();
+    }
+
+    /** A lock that is never released still times out and aborts. */
+    @Test public void testLockWaitTimesOut() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        TransactionId holder = new TransactionId();
+        Database.getBufferPool().getPage(holder, pid, Permissions.READ_WRITE);
+
+        SessionExecutor executor = new SessionExecutor();
+        Future<Object> waited = executor.newSession().submit(() ->
+                Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY));
+        try {
+            waited.get(10, TimeUnit.SECONDS);
+            fail("expected the lock wait to abort");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        Database.getBufferPool().transactionComplete(holder);
+        executor.shutdown();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SessionExecutorTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb.systemtest;
+
+import java.io.ByteArrayInputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+import simpledb.*;
+
+/**
+ * Tests SELECT DISTINCT and UNION, INTERSECT and MINUS between queries.
+ */
+public class SetOperationTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private ArrayList<ArrayList<Integer>> left;
+    private ArrayList<ArrayList<Integer>> right;
+    private Parser parser;
+
+    @Before public void createTables() throws Exception {
+        left = new ArrayList<ArrayList<Integer>>();
+        right = new ArrayList<ArrayList<Integer>>();
+        addTable("sl", 2000, 40, left);
+        addTable("sr", 1000, 60, right);
+        parser = new Parser();
+    }
+
+    private void addTable(String name, int rows, int maxValue,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, maxValue, null, tuples, "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+    }
+
+    /** Runs a statement and returns its result, checking for duplicates */
+    private Set<List<Integer>> run(String sql) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
+        Query q = parser.handleQueryStatement((ZQuery) p.readStatement(), t.getId());
+        Set<List<Integer>> out = new HashSet<List<Integer>>();
+        q.start();
+        while (q.hasNext()) {
+            Tuple tup = q.next();
+            List<Integer> v = new ArrayList<Integer>();
+            for (int i = 0; i < tup.getTupleDesc().numFields(); i++)
+                v.add(((IntField) tup.getField(i)).getValue());
+            assertTrue("duplicate " + v, out.add(v));
+        }
+        q.close();
+        t.commit();
+        return out;
+    }
+
+    /** @return the distinct values of column c of tuples whose column 0 is below max */
+    private static Set<List<Integer>> column(List<ArrayList<Integer>> tuples, int c, int max) {
+        Set<List<Integer>> s = new HashSet<List<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < max)
+                s.add(Arrays.asList(t.get(c)));
+        }
+        return s;
+    }
+
+    @Test public void testDistinct() throws Exception {
+        assertEquals(column(left, 1, Integer.MAX_VALUE), run("SELECT DISTINCT sl.c1 FROM sl;"));
+        assertEquals(new HashSet<List<Integer>>(left), run("SELECT DISTINCT * FROM sl;"));
+    }
+
+    @Test public void testUnion() throws Exception {
+        Set<List<Integer>> expected = column(left, 1, 20);
+        expected.addAll(column(right, 0, 30));
+        assertEquals(expected, run(
+                "SELECT sl.c1 FROM sl WHERE sl.c0 < 20 UNION SELECT sr.c0 FROM sr WHERE sr.c0 < 30;"));
+
+        // three queries
+        expected.addAll(column(left, 0, Integer.MAX_VALUE));
+        assertEquals(expected, run("SELECT sl.c1 FROM sl WHERE sl.c0 < 20 UNION "
+                + "SELECT sr.c0 FROM sr WHERE sr.c0 < 30 UNION SELECT sl.c0 FROM sl;"));
+    }
+
+    @Test public void testIntersectAndMinus() throws Exception {
+        Set<List<Integer>> expected = column(left, 0, Integer.MAX_VALUE);
+        expected.retainAll(column(right, 1, 50));
+        assertEquals(expected, run(
+                "SELECT sl.c0 FROM sl INTERSECT SELECT sr.c1 FROM sr WHERE sr.c0 < 50;"));
+
+        expected = column(left, 0, Integer.MAX_VALUE);
+        expected.removeAll(column(right, 1, 50));
+        assertEquals(expected, run(
+                "SELECT sl.c0 FROM sl MINUS SELECT sr.c1 FROM sr WHERE sr.c0 < 50;"));
+    }
+
+    /** Runs a statement and returns its first column, in the order it was produced */
+    private List<Integer> runInOrder(String sql) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
+        Query q = parser.handleQueryStatement((ZQuery) p.readStatement(), t.getId());
+        List<Integer> out = new ArrayList<Integer>();
+        q.start();
+        while (q.hasNext())
+            out.add(((IntField) q.next().getField(0)).getValue());
+        q.close();
+        t.commit();
+        return out;
+    }
+
+    private static List<Integer> sorted(Set<List<Integer>> s, boolean asc) {
+        List<Integer> out = new ArrayList<Integer>();
+        for (List<Integer> v : s)
+            out.add(v.get(0));
+        Collections.sort(out);
+        if (!asc)
+            Collections.reverse(out);
+        return out;
+    }
+
+    @Test public void testOrderBy() throws Exception {
+        Set<List<Integer>> expected = column(left, 0, 20);
+        Set<List<Integer>> high = new HashSet<List<Integer>>();
+        for (List<Integer> v : column(right, 1, Integer.MAX_VALUE)) {
+            if (v.get(0) >= 30)
+                high.add(v);
+        }
+        expected.addAll(high);
+        // the ordered field selects the same column as the other query
+        assertEquals(sorted(expected, true), runInOrder("SELECT sl.c0 FROM sl WHERE sl.c0 < 20 "
+                + "UNION SELECT sr.c1 FROM sr WHERE sr.c1 >= 30 ORDER BY sl.c0;"));
+
+        // enough distinct values that DISTINCT partitions its input
+        ArrayList<ArrayList<Integer>> big = new ArrayList<ArrayList<Integer>>();
+        addTable("sb", 20000, 1 << 20, big);
+        List<Integer> result = runInOrder("SELECT DISTINCT sb.c0 FROM sb ORDER BY sb.c0 DESC;");
+        assertEquals(sorted(column(big, 0, Integer.MAX_VALUE), false), result);
+
+        try {
+            runInOrder("SELECT DISTINCT sl.c0 FROM sl ORDER BY sl.c1;");
+            fail("expected ParsingException for ORDER BY a field that is not selected");
+        } catch (ParsingException e) {
+        }
+    }
+
+    @Test public void testIncompatibleQueries() throws Exception {
+        try {
+            run("SELECT sl.c0, sl.c1 FROM sl UNION SELECT sr.c0 FROM sr;");
+            fail("expected ParsingException for queries with different numbers of fields");
+        } catch (ParsingException e) {
+        }
+    }
+
+    @Test public void testAliasForDifferentTables() throws Exception {
+        // the same alias for the same table is fine
+        Set<List<Integer>> expected = column(left, 0, Integer.MAX_VALUE);
+        expected.addAll(column(left, 1, Integer.MAX_VALUE));
+        assertEquals(expected, run("SELECT t.c0 FROM sl t UNION SELECT t.c1 FROM sl t;"));
+
+        try {
+            run("SELECT t.c0 FROM sl t UNION SELECT t.c0 FROM sr t;");
+            fail("expected ParsingException for an alias naming two tables");
+        } catch (ParsingException e) {
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SetOperationTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that a scan started while another scan of the same table is running
+ * joins it where it is, so that the two share their page reads.
+ */
+public class SharedScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    /** @return a table whose first column is the row number */
+    private static HeapFile createTable(int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(0);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("shared", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        return Utility.openHeapFile(COLUMNS, f);
+    }
+
+    private static int value(SeqScan scan) throws Exception {
+        return ((IntField) scan.next().getField(0)).getValue();
+    }
+
+    @Test public void testScansShareReads() throws Exception {
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (8 * 8 + 1);
+        int rows = tuplesPerPage * (BufferPool.DEFAULT_PAGES * 3);
+        HeapFile table = createTable(rows);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int pages = table.numPages();
+
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        SeqScan a = new SeqScan(tid1, table.getId(), "a");
+        SeqScan b = new SeqScan(tid2, table.getId(), "b");
+        boolean[] seenA = new boolean[rows];
+        boolean[] seenB = new boolean[rows];
+
+        // a reads more pages than the buffer pool holds on its own
+        int head = BufferPool.DEFAULT_PAGES + 10;
+        a.open();
+        int last = 0;
+        for (int i = 0; i < tuplesPerPage * head; i++) {
+            last = value(a);
+            seenA[last] = true;
+        }
+
+        // b starts on the page a is reading, not at the beginning
+        b.open();
+        int first = value(b);
+        seenB[first] = true;
+        assertTrue(first > 0);
+        assertEquals(last / tuplesPerPage, first / tuplesPerPage);
+        assertEquals(2, table.getSharedScans().activeScans());
+
+        // the scans run side by side, then b wraps around to the pages it
+        // skipped, which a read first
+        int countA = tuplesPerPage * head, countB = 1;
+        while (a.hasNext() || b.hasNext()) {
+            if (a.hasNext()) {
+                seenA[value(a)] = true;
+                countA++;
+            }
+            if (b.hasNext()) {
+                seenB[value(b)] = true;
+                countB++;
+            }
+        }
+        a.close();
+        b.close();
+        assertEquals(rows, countA);
+        assertEquals(rows, countB);
+        for (int i = 0; i < rows; i++) {
+            assertTrue(seenA[i]);
+            assertTrue(seenB[i]);
+        }
+        assertEquals(0, table.getSharedScans().activeScans());
+
+        // only the pages b wrapped around to are read twice; on its own b
+        // would have read every page again
+        long read = table.getPagesRead();
+        assertTrue(read >= pages);
+        assertTrue(read <= pages + head + 2);
+        Database.getBufferPool().transactionComplete(tid1);
+        Database.getBufferPool().transactionComplete(tid2);
+    }
+
+    @Test public void testSmallTablesScannedInOrder() throws Exception {
+        HeapFile table = createTable(1000);
+        TransactionId tid = new TransactionId();
+        SeqScan a = new SeqScan(tid, table.getId(), "a");
+        SeqScan b = new SeqScan(tid, table.getId(), "b");
+        a.open();
+        for (int i = 0; i < 600; i++)
+            assertEquals(i, value(a));
+        b.open();
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, value(b));
+        assertFalse(b.hasNext());
+        a.close();
+        b.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SharedScanTest.class);
+    }
+}
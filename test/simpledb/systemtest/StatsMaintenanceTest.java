@@ -0,0 +1,102 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that the statistics in the stats map follow the inserts and deletes
+ * of committed transactions, and are gathered again once a table has been
+ * modified too much.
+ */
+public class StatsMaintenanceTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 1000;
+
+    private HeapFile table;
+    private TableStats stats;
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, null, "c");
+        Database.getCatalog().addTable(table, "sm");
+        stats = new TableStats(table.getId(), 1);
+        TableStats.setTableStats("sm", stats);
+    }
+
+    private void insert(TransactionId tid, int count, int value) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(value));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        }
+    }
+
+    @Test public void testInsertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 20, 5000);
+        // nothing changes until the transaction commits
+        assertEquals(ROWS, stats.totalTuples());
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertSame(stats, TableStats.getTableStats("sm"));
+        assertEquals(ROWS + 20, stats.totalTuples());
+        assertEquals(20, stats.getModifications());
+        assertEquals(20.0 / (ROWS + 20),
+                stats.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.005);
+        assertEquals(20.0 / (ROWS + 20),
+                stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(100)), 0.005);
+
+        // aborted changes are not applied
+        tid = new TransactionId();
+        insert(tid, 10, 6000);
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(ROWS + 20, stats.totalTuples());
+
+        // delete the tuples with values above 100
+        tid = new TransactionId();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() > 100)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(ROWS, stats.totalTuples());
+        assertEquals(40, stats.getModifications());
+        assertEquals(0.0, stats.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.001);
+    }
+
+    @Test public void testRefresh() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 200, 5000);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // 200 modifications exceed 50 + 10% of 1000 tuples
+        long deadline = System.currentTimeMillis() + 30000;
+        while (TableStats.getTableStats("sm") == stats && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        TableStats fresh = TableStats.getTableStats("sm");
+        assertNotSame(stats, fresh);
+        assertFalse(fresh.isLoaded());
+        assertEquals(0, fresh.getModifications());
+        assertEquals(ROWS + 200, fresh.totalTuples());
+        assertEquals(200.0 / (ROWS + 200),
+                fresh.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.01);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StatsMaintenanceTest.class);
+    }
+}
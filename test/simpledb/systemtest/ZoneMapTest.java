@@ -0,0 +1,150 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests that scans skip heap pages whose zone map ranges cannot satisfy the
+ * scan's predicates, and that the zone map follows inserts, deletes and
+ * restarts.
+ */
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 10000;
+
+    private HeapFile table;
+
+    /** Creates a table whose first column increases with the row number */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 7);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        table = Utility.openHeapFile(COLUMNS, f);
+        table.getZoneMap().getFile().deleteOnExit();
+    }
+
+    /** @return the first columns of the tuples with lo <= first column < hi */
+    private static ArrayList<Integer> scanRange(HeapFile f, int lo, int hi) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> out = scanRange(f, tid, lo, hi);
+        Database.getBufferPool().transactionComplete(tid);
+        return out;
+    }
+
+    private static ArrayList<Integer> scanRange(HeapFile f, TransactionId tid, int lo, int hi)
+            throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo)));
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(hi)));
+        ArrayList<Integer> out = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext())
+            out.add(((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        return out;
+    }
+
+    private static void assertRange(ArrayList<Integer> values, int lo, int hi) {
+        assertEquals(hi - lo, values.size());
+        for (int i = 0; i < values.size(); i++)
+            assertEquals(lo + i, (int) values.get(i));
+    }
+
+    @Test public void testSkipsPages() throws Exception {
+        int pages = table.numPages();
+        assertTrue(pages > 10);
+
+        // the first scan reads every page and learns their ranges
+        assertRange(scanRange(table, 5000, 5100), 5000, 5100);
+        assertEquals(0, table.getZoneMap().getPagesSkipped());
+        for (int p = 0; p < pages; p++)
+            assertTrue(table.getZoneMap().isKnown(p));
+
+        // later scans only read the pages that overlap the range
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertRange(scanRange(table, 5000, 5100), 5000, 5100);
+        assertTrue(table.getZoneMap().getPagesSkipped() >= pages - 2);
+    }
+
+    @Test public void testInsertAndDelete() throws Exception {
+        scanRange(table, 0, 1);
+        int pages = table.numPages();
+
+        // the page the new tuple goes to must not be skipped
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(1, scanRange(table, tid, -10, 0).size());
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.numPages() >= pages);
+        assertTrue(table.getZoneMap().getFile().exists());
+
+        // after a restart the ranges come from the side file
+        HeapFile reopened = Utility.openHeapFile(COLUMNS, table.getFile());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1, scanRange(reopened, -10, 0).size());
+        assertTrue(reopened.getZoneMap().getPagesSkipped() >= pages - 1);
+        assertRange(scanRange(reopened, 9990, ROWS), 9990, ROWS);
+
+        // deleting the tuple shrinks its page's range when the page is flushed
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, reopened.getId(), "t");
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        scan.open();
+        Tuple victim = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+        long skipped = reopened.getZoneMap().getPagesSkipped();
+        assertEquals(0, scanRange(reopened, -10, 0).size());
+        assertEquals(reopened.numPages(), reopened.getZoneMap().getPagesSkipped() - skipped);
+    }
+
+    @Test public void testStaleSideFileIgnored() throws Exception {
+        // a write creates the side file
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        File side = table.getZoneMap().getFile();
+        assertTrue(side.exists());
+
+        // the heap file is rewritten behind the zone map's back
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(ROWS - i);
+            row.add(0);
+            tuples.add(row);
+        }
+        HeapFileEncoder.convert(tuples, table.getFile(), BufferPool.getPageSize(), COLUMNS);
+        table.getFile().setLastModified(side.lastModified() + 10000);
+
+        HeapFile reopened = Utility.openHeapFile(COLUMNS, table.getFile());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(100, scanRange(reopened, 1, 101).size());
+        assertFalse(side.exists());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}